@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler;
+
+import java.io.File;
+import org.apache.maven.plugin.AbstractMojo;
+
+/**
+ * The parameters that locate the Application Bundle, shared by all goals. The
+ * goals that only read a bundle built before, like <code>verify</code> and
+ * <code>delta</code>, extend this class directly, so they neither need a
+ * <code>mainClass</code> nor resolve the dependencies.
+ */
+public abstract class AbstractApplicationBundleMojo extends AbstractMojo {
+
+    /**
+     * The directory where the application bundle will be created.
+     *
+     * @parameter
+     * default-value="${project.build.directory}/${project.build.finalName}";
+     */
+    private File buildDirectory;
+
+    /**
+     * The name of the Bundle. <br/><br/>
+     * This is the name that is given to the application bundle; and it is also
+     * what will show up in the application menu, dock etc.
+     *
+     * @parameter default-value="${project.name}"
+     * @required
+     */
+    private String bundleName;
+
+    /**
+     * The number of stages of the bundle creation, like copying the
+     * dependencies and copying the JRE, that may run at the same time. <br/><br/>
+     * The default of 0 uses one thread per processor, 1 runs all stages one
+     * after another.
+     *
+     * @parameter default-value="0"
+     */
+    private int stageThreads;
+
+    /**
+     * The number of threads used to run independent stages of the bundle
+     * creation.
+     */
+    protected int getStageThreads() {
+        return stageThreads > 0 ? stageThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    protected File getBuildDirectory() {
+        return buildDirectory;
+    }
+
+    protected String getBundleName() {
+        return bundleName;
+    }
+
+    protected File getBundleDirectory() {
+        return new File(buildDirectory, bundleName + ".app");
+    }
+}
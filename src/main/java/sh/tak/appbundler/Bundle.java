@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler;
+
+import java.util.List;
+
+/**
+ * A variant of the application bundle, configured in the
+ * <code>bundles</code> list. <br/><br/>
+ * A variant shares the dependencies, the launcher and the embedded JRE with
+ * the main bundle. Every property that is not set is inherited from the
+ * plugin configuration.
+ */
+public class Bundle {
+
+    /**
+     * The name of the variant's bundle, also the name of its
+     * <code>.app</code> directory.
+     *
+     * @parameter
+     * @required
+     */
+    private String bundleName;
+
+    /**
+     * The main class to execute.
+     *
+     * @parameter
+     */
+    private String mainClass;
+
+    /**
+     * Options to the JVM, replacing the <code>jvmOptions</code> of the plugin
+     * configuration.
+     *
+     * @parameter
+     */
+    private List<String> jvmOptions;
+
+    /**
+     * The icon (.icns) file for the variant.
+     *
+     * @parameter
+     */
+    private String iconFile;
+
+    public Bundle() {
+    }
+
+    public Bundle(String bundleName, String mainClass, List<String> jvmOptions, String iconFile) {
+        this.bundleName = bundleName;
+        this.mainClass = mainClass;
+        this.jvmOptions = jvmOptions;
+        this.iconFile = iconFile;
+    }
+
+    /**
+     * Creates a copy of this variant in which every unset property is taken
+     * from the given bundle.
+     *
+     * @param defaults the bundle to inherit from
+     * @return the resolved variant
+     */
+    public Bundle inherit(Bundle defaults) {
+        return new Bundle(
+                bundleName != null ? bundleName : defaults.bundleName,
+                mainClass != null ? mainClass : defaults.mainClass,
+                jvmOptions != null ? jvmOptions : defaults.jvmOptions,
+                iconFile != null ? iconFile : defaults.iconFile);
+    }
+
+    public String getBundleName() {
+        return bundleName;
+    }
+
+    public void setBundleName(String bundleName) {
+        this.bundleName = bundleName;
+    }
+
+    public String getMainClass() {
+        return mainClass;
+    }
+
+    public void setMainClass(String mainClass) {
+        this.mainClass = mainClass;
+    }
+
+    public List<String> getJvmOptions() {
+        return jvmOptions;
+    }
+
+    public void setJvmOptions(List<String> jvmOptions) {
+        this.jvmOptions = jvmOptions;
+    }
+
+    public String getIconFile() {
+        return iconFile;
+    }
+
+    public void setIconFile(String iconFile) {
+        this.iconFile = iconFile;
+    }
+}
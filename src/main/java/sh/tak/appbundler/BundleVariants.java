@@ -0,0 +1,188 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+import sh.tak.appbundler.sync.TreeLinker;
+
+/**
+ * Creates bundle variants next to a finished main bundle. Everything but
+ * <code>Info.plist</code> and the icon is hard-linked; the
+ * <code>Info.plist</code> files are rendered in parallel.
+ */
+class BundleVariants {
+
+    /**
+     * Writes the <code>Info.plist</code> of a variant.
+     */
+    interface InfoPlistWriter {
+
+        void write(File infoPlist, Bundle variant) throws MojoExecutionException;
+    }
+
+    private final File bundleDirectory;
+
+    private final String mainIconPath;
+
+    private final Log log;
+
+    private final List<Bundle> variants = new ArrayList<Bundle>();
+
+    private final List<File> variantDirectories = new ArrayList<File>();
+
+    private final List<File> icons = new ArrayList<File>();
+
+    /**
+     * @param bundleDirectory the main bundle
+     * @param mainIconName the file name of the main bundle's icon in
+     * <code>Contents/Resources</code>
+     * @param log the logger
+     */
+    BundleVariants(File bundleDirectory, String mainIconName, Log log) {
+        this.bundleDirectory = bundleDirectory;
+        this.mainIconPath = "Contents/Resources/" + mainIconName;
+        this.log = log;
+    }
+
+    /**
+     * Adds a variant.
+     *
+     * @param variant the variant, with all properties resolved
+     * @param variantDirectory the <code>.app</code> directory of the variant
+     * @param icon the icon of the variant, or <code>null</code> if it shares
+     * the icon of the main bundle
+     * @throws MojoExecutionException If the directory is that of the main
+     * bundle or of another variant.
+     */
+    void add(Bundle variant, File variantDirectory, File icon) throws MojoExecutionException {
+        if (variantDirectory.equals(bundleDirectory) || variantDirectories.contains(variantDirectory)) {
+            throw new MojoExecutionException("Duplicate bundle name " + variant.getBundleName());
+        }
+        variants.add(variant);
+        variantDirectories.add(variantDirectory);
+        icons.add(icon);
+    }
+
+    /**
+     * Links all variants and writes their <code>Info.plist</code> files.
+     *
+     * @param writer writes the <code>Info.plist</code> files
+     * @throws MojoExecutionException If a variant cannot be created.
+     */
+    void create(InfoPlistWriter writer) throws MojoExecutionException {
+        for (int i = 0; i < variants.size(); i++) {
+            link(variants.get(i), variantDirectories.get(i), icons.get(i), null);
+        }
+        writeInfoPlists(writer);
+    }
+
+    /**
+     * Links the given paths of the main bundle into all variants, which must
+     * have been created before, and removes those that no longer exist.
+     *
+     * @param paths the changed paths within the main bundle, separated by '/'
+     * @param writer writes the <code>Info.plist</code> files, or
+     * <code>null</code> if they are up to date
+     * @throws MojoExecutionException If a variant cannot be updated.
+     */
+    void update(Collection<String> paths, InfoPlistWriter writer) throws MojoExecutionException {
+        if (!paths.isEmpty()) {
+            for (int i = 0; i < variants.size(); i++) {
+                link(variants.get(i), variantDirectories.get(i), icons.get(i), paths);
+            }
+        }
+        if (writer != null) {
+            writeInfoPlists(writer);
+        }
+    }
+
+    private void writeInfoPlists(final InfoPlistWriter writer) throws MojoExecutionException {
+        log.info("Writing the Info.plist files of " + variants.size() + " bundle variant" + (variants.size() != 1 ? "s" : ""));
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(variants.size(), Runtime.getRuntime().availableProcessors())));
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int i = 0; i < variants.size(); i++) {
+                final Bundle variant = variants.get(i);
+                final File infoPlist = new File(variantDirectories.get(i), "Contents" + File.separator + "Info.plist");
+                results.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws MojoExecutionException {
+                        writer.write(infoPlist, variant);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException ex) {
+            throw new MojoExecutionException("Thread was interrupted while writing Info.plist files", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof MojoExecutionException) {
+                throw (MojoExecutionException) ex.getCause();
+            }
+            throw new MojoExecutionException("Error writing Info.plist files", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void link(Bundle variant, File variantDirectory, File icon, Collection<String> paths) throws MojoExecutionException {
+        Set<String> excluded = new HashSet<String>();
+        excluded.add("Contents/Info.plist");
+        if (icon != null) {
+            excluded.add(mainIconPath);
+            excluded.add("Contents/Resources/" + icon.getName());
+        }
+
+        try {
+            if (paths != null) {
+                log.debug("Linking " + paths.size() + " changed path" + (paths.size() != 1 ? "s" : "") + " into bundle variant " + variant.getBundleName());
+                TreeLinker.mirror(bundleDirectory.toPath(), variantDirectory.toPath(), excluded, paths);
+                return;
+            }
+            log.info("Linking bundle variant " + variant.getBundleName());
+            TreeLinker.mirror(bundleDirectory.toPath(), variantDirectory.toPath(), excluded);
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Error creating bundle variant " + variantDirectory, ex);
+        }
+
+        if (icon != null) {
+            try {
+                // an earlier build may have linked the main icon here, never write through it
+                File copy = new File(variantDirectory, "Contents/Resources/" + icon.getName());
+                Files.deleteIfExists(copy.toPath());
+                FileUtils.copyFile(icon, copy);
+            } catch (IOException ex) {
+                throw new MojoExecutionException("Error copying file " + icon + " to " + variantDirectory, ex);
+            }
+        }
+    }
+}
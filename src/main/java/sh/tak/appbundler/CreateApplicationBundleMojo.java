@@ -16,39 +16,67 @@
  */
 package sh.tak.appbundler;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import javax.xml.stream.XMLInputFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import org.apache.commons.lang.SystemUtils;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.repository.layout.ArtifactRepositoryLayout;
 import org.apache.maven.artifact.repository.layout.DefaultRepositoryLayout;
-import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
-import org.apache.velocity.Template;
-import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.Velocity;
-import org.apache.velocity.exception.MethodInvocationException;
-import org.apache.velocity.exception.ParseErrorException;
-import org.apache.velocity.exception.ResourceNotFoundException;
 import org.codehaus.plexus.util.DirectoryScanner;
 import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.StringUtils;
 import org.codehaus.plexus.util.cli.CommandLineException;
 import org.codehaus.plexus.util.cli.Commandline;
 import org.codehaus.plexus.velocity.VelocityComponent;
-import sh.tak.appbundler.logging.MojoLogChute;
+import sh.tak.appbundler.delta.BundleManifest;
+import sh.tak.appbundler.macho.Architecture;
+import sh.tak.appbundler.macho.MachOThinner;
+import sh.tak.appbundler.natives.NativeLibraryExtractor;
+import sh.tak.appbundler.plist.StringArray;
+import sh.tak.appbundler.plist.XmlPlistWriter;
+import sh.tak.appbundler.report.SizeAnalyzer;
+import sh.tak.appbundler.report.SizeReport;
+import sh.tak.appbundler.stage.BundleStages;
+import sh.tak.appbundler.sync.FileSetSynchronizer;
+import sh.tak.appbundler.sync.Fingerprint;
+import sh.tak.appbundler.sync.SyncState;
+import sh.tak.appbundler.sync.CopyRecorder;
+import sh.tak.appbundler.sync.TreeCopier;
+import sh.tak.appbundler.sync.TreeNormalizer;
+import sh.tak.appbundler.util.Digests;
+import sh.tak.appbundler.util.DiskImageCreator;
+import sh.tak.appbundler.util.RecordedDigests;
 
 /**
  * Package dependencies as an Application Bundle for Mac OS X.
@@ -57,7 +85,7 @@ import sh.tak.appbundler.logging.MojoLogChute;
  * @phase package
  * @requiresDependencyResolution runtime
  */
-public class CreateApplicationBundleMojo extends AbstractMojo {
+public class CreateApplicationBundleMojo extends AbstractApplicationBundleMojo {
 
     /**
      * Default includes - everything is included.
@@ -69,6 +97,73 @@ public class CreateApplicationBundleMojo extends AbstractMojo {
      */
     private static final String TARGET_CLASS_ROOT = "target" + File.separator + "classes";
 
+    /**
+     * The directory inside the project build directory where the state of
+     * incrementally copied FileSets is kept.
+     */
+    private static final String SYNC_STATE_DIRECTORY = "appbundle-sync";
+
+    /**
+     * The directory inside $JAVAROOT that the launcher puts on the classpath
+     * ahead of all jars.
+     */
+    private static final String EXPLODED_CLASSES_DIRECTORY = "Classes";
+
+    /**
+     * Suffix of the file next to the disk image that holds the fingerprint of
+     * the last successful build.
+     */
+    private static final String FINGERPRINT_SUFFIX = ".fingerprint";
+
+    /**
+     * Name of the digest cache used while fingerprinting, in the sync state
+     * directory.
+     */
+    private static final String FINGERPRINT_CACHE = "fingerprint.state";
+
+    /**
+     * The timestamp of reproducible builds without an
+     * <code>outputTimestamp</code>: 1980-01-01T00:00:00Z.
+     */
+    private static final long DEFAULT_OUTPUT_TIMESTAMP = 315532800000L;
+
+    /**
+     * Base name of the size report files in the project build directory.
+     */
+    private static final String SIZE_REPORT = "appbundle-size-report";
+
+    /**
+     * Suffix of size budgets that limit the compressed size.
+     */
+    private static final String COMPRESSED_BUDGET_SUFFIX = ".compressed";
+
+    /**
+     * Where thinned universal binaries are cached, in the project build
+     * directory.
+     */
+    private static final String THIN_CACHE_DIRECTORY = "appbundle-thin-cache";
+
+    /**
+     * The JRE preset that copies everything.
+     */
+    private static final String JRE_PRESET_FULL = "full";
+
+    /**
+     * The JRE preset that leaves out what is not needed to run applications.
+     */
+    private static final String JRE_PRESET_RUNTIME = "runtime";
+
+    /**
+     * What the <code>runtime</code> JRE preset excludes: sources, manuals,
+     * license texts, demos, headers, modules for jlink and debug symbols.
+     */
+    private static final String[] JRE_RUNTIME_EXCLUDES = {
+        "src.zip", "lib/src.zip", "javafx-src.zip", "lib/ct.sym",
+        "man/**", "legal/**", "demo/**", "sample/**", "include/**", "jmods/**",
+        "lib/missioncontrol/**", "lib/visualvm/**",
+        "**/*.dSYM/**", "**/*.diz"
+    };
+
     /**
      * Default JVM options passed to launcher
      */
@@ -77,7 +172,7 @@ public class CreateApplicationBundleMojo extends AbstractMojo {
     /**
      * signals the Info.plit creator that a JRE is present.
      */
-    private boolean embeddJre = false;
+    private volatile boolean embeddJre = false;
 
     /**
      * The Maven Project Object
@@ -134,32 +229,41 @@ public class CreateApplicationBundleMojo extends AbstractMojo {
     private List<FileSet> additionalBundledClasspathResources;
 
     /**
-     * The directory where the application bundle will be created.
+     * Additional variants of the bundle, each with its own
+     * <code>bundleName</code> and optionally its own <code>mainClass</code>,
+     * <code>jvmOptions</code> and <code>iconFile</code>. <br/><br/>
+     * The variants are created next to the main bundle and share its
+     * dependencies, launcher and JRE through hard links, so these are
+     * copied only once.
      *
      * @parameter
-     * default-value="${project.build.directory}/${project.build.finalName}";
-     */
-    private File buildDirectory;
-
-    /**
-     * The name of the Bundle. <br/><br/>
-     * This is the name that is given to the application bundle; and it is also
-     * what will show up in the application menu, dock etc.
-     *
-     * @parameter default-value="${project.name}"
-     * @required
      */
-    private String bundleName;
+    private List<Bundle> bundles;
 
     /**
      * The location of the template for <code>Info.plist</code>. <br/><br/>
      *
-     * Classpath is checked before the file system.
+     * Classpath is checked before the file system. <br/><br/>
+     *
+     * <code>$classpath</code> and <code>$jvmOptions</code> are lists of
+     * XML-escaped strings for <code>#foreach</code>; written as
+     * <code>${classpath}</code> they render as a whole <code>array</code>
+     * element.
      *
      * @parameter default-value="sh/tak/appbundler/Info.plist.template"
      */
     private String dictionaryFile;
 
+    /**
+     * The format of the generated <code>Info.plist</code>, either
+     * <code>xml</code> or <code>binary</code>. <br/><br/>
+     * Binary property lists are smaller and faster for the launcher to load,
+     * but cannot be edited with a text editor.
+     *
+     * @parameter default-value="xml"
+     */
+    private String plistFormat;
+
     /**
      * The location of the generated disk image (.dmg) file. <br/><br/>
      * This property depends on the <code>generateDiskImageFile</code> property.
@@ -271,6 +375,73 @@ public class CreateApplicationBundleMojo extends AbstractMojo {
      */
     private String jreFullPath;
 
+    /**
+     * Which files of the JRE at <code>jrePath</code> to embed:
+     * <code>full</code> embeds all of them, <code>runtime</code> leaves out
+     * sources, manuals, legal notices, demos, C headers, jmods and debug
+     * symbols. <code>jreIncludes</code> and <code>jreExcludes</code> are
+     * applied on top of the preset.
+     *
+     * @parameter default-value="full"
+     */
+    private String jrePreset;
+
+    /**
+     * Patterns of the JRE files to embed, relative to the JRE home, like
+     * <code>lib/**</code>. All files are embedded if empty.
+     *
+     * @parameter
+     */
+    private List<String> jreIncludes;
+
+    /**
+     * Patterns of JRE files and directories not to embed, relative to the JRE
+     * home, like <code>lib/libjfxwebkit.dylib</code>. Excluded directories are
+     * not even read.
+     *
+     * @parameter
+     */
+    private List<String> jreExcludes;
+
+    /**
+     * The CPU architectures to keep in universal binaries, like
+     * <code>arm64</code> or <code>x86_64</code>. <br/><br/>
+     * When set, the other architectures are removed from the universal
+     * binaries in the bundle: the launcher stub, the libraries and executables
+     * of the embedded JRE and native libraries among the additional
+     * resources. Works on any operating system.
+     *
+     * @parameter
+     */
+    private List<String> architectures;
+
+    /**
+     * If this is set to <code>true</code>, the Mac OS X native libraries
+     * (<code>.dylib</code> and <code>.jnilib</code> files) inside the project
+     * artifact and its dependencies are extracted into
+     * <code>Contents/MacOS</code>, which the launcher puts on the
+     * <code>java.library.path</code>. <br/><br/>
+     * For JNA, sqlite-jdbc and LWJGL the system properties that make them
+     * load the extracted library, instead of unpacking it into a temporary
+     * directory on every launch, are added to <code>JVMOptions</code>.
+     * <br/><br/>
+     * The libraries are left inside the jars as well, so the bundle ships
+     * them twice.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean extractNativeLibraries;
+
+    /**
+     * The JVM options pointing libraries to their extracted native code.
+     */
+    private volatile List<String> nativeLibraryJvmOptions = new ArrayList<String>();
+
+    /**
+     * What was left out of the JRE copy, for the size report.
+     */
+    private volatile TreeCopier.Result jreCopyResult;
+
     /**
      * If true, no dependencies will be added. Par example for FAT-Jars.
      *
@@ -278,6 +449,150 @@ public class CreateApplicationBundleMojo extends AbstractMojo {
      */
     private boolean excludeDependencies;
 
+    /**
+     * If true, the compiled classes are synchronized into
+     * <code>Contents/Java/Classes</code> instead of copying the project's
+     * jar. <br/><br/>
+     * Only classes and resources that changed since the previous build are
+     * copied, which makes the bundle usable without packaging a jar first.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean explodedClasses;
+
+    /**
+     * The directory containing the compiled classes, used when
+     * <code>explodedClasses</code> is set.
+     *
+     * @parameter default-value="${project.build.outputDirectory}"
+     */
+    private File classesDirectory;
+
+    /**
+     * If this is set to <code>true</code>, the bundle and the disk image are
+     * rebuilt even when none of their inputs changed since the previous
+     * build. <br/><br/>
+     * Otherwise a build whose inputs (dependencies, resources, JRE, template
+     * and plugin configuration) are unchanged, and whose outputs still have
+     * the size and modification time the previous build left them with, only
+     * attaches the existing disk image.
+     *
+     * @parameter expression="${appbundle.force}" default-value="false"
+     */
+    private boolean forceRebuild;
+
+    /**
+     * The version of this plugin, which is part of the fingerprint of a build.
+     *
+     * @parameter default-value="${plugin.version}"
+     * @readonly
+     */
+    private String pluginVersion;
+
+    /**
+     * If this is set to <code>true</code>, the bundle and the disk image do not
+     * depend on when, where and by whom they were built. <br/><br/>
+     * All files and directories in the build directory get the
+     * <code>outputTimestamp</code> as modification time, mode 755 for
+     * directories and executables and mode 644 for all other files. On Linux
+     * the disk image gets the same timestamp and root ownership. Images
+     * created by <code>hdiutil</code> always carry the current time.
+     *
+     * @parameter expression="${appbundle.reproducible}" default-value="false"
+     */
+    private boolean reproducible;
+
+    /**
+     * The timestamp of reproducible builds, either in seconds since the epoch
+     * or as an ISO 8601 date like <code>2020-01-01T00:00:00Z</code>. <br/><br/>
+     * Falls back to the <code>SOURCE_DATE_EPOCH</code> environment variable,
+     * then to 1980-01-01T00:00:00Z.
+     *
+     * @parameter default-value="${project.build.outputTimestamp}"
+     */
+    private String outputTimestamp;
+
+    /**
+     * If this is set to <code>true</code>, a report of how much space each
+     * dependency, each additional resource directory and each directory of the
+     * embedded JRE takes up is written to
+     * <code>appbundle-size-report.json</code> and
+     * <code>appbundle-size-report.html</code> in the project build directory,
+     * together with estimates of the compressed sizes and the changes since
+     * the previous report.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean generateSizeReport;
+
+    /**
+     * A size report to compare with, like the one of the last release.
+     * Defaults to the report of the previous build.
+     *
+     * @parameter
+     */
+    private File sizeReportBaseline;
+
+    /**
+     * Size limits that fail the build when exceeded. <br/><br/>
+     * The keys are <code>total</code> or one of the categories of the size
+     * report: <code>application</code>, <code>dependencies</code>,
+     * <code>classpathResources</code>, <code>resources</code>,
+     * <code>jre</code>, <code>variants</code> and <code>other</code>. Append
+     * <code>.compressed</code> to limit the estimated compressed size instead.
+     * The values are sizes like <code>150M</code> or <code>1.5G</code>.
+     *
+     * @parameter
+     */
+    private Map<String, String> sizeBudgets;
+
+    /**
+     * If this is set to <code>true</code>, the path, size, mode and SHA-256
+     * digest of every file in the bundle are written to the
+     * <code>integrityManifest</code>, which the <code>verify</code> goal
+     * checks a bundle or a mounted disk image against. <br/><br/>
+     * Files are hashed in parallel. Files copied from the dependencies, the
+     * additional resources and the JRE are not read again, their digests are
+     * taken while they are copied and kept for the next build. The manifest
+     * ends with its own SHA-256 digest. That catches a manifest that was
+     * damaged or cut short by accident, it is no signature: whoever can
+     * change the manifest can also recompute the digest.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean generateIntegrityManifest;
+
+    /**
+     * Where the integrity manifest is written to, and read from by the
+     * <code>verify</code> goal.
+     *
+     * @parameter expression="${appbundle.integrityManifest}" default-value="${project.build.directory}/${project.build.finalName}-integrity.manifest"
+     */
+    private File integrityManifest;
+
+    /**
+     * The digests of the files copied into the bundle by this build.
+     */
+    private final RecordedDigests recordedDigests = new RecordedDigests();
+
+    /**
+     * What copied files into the bundle in this build; the copies are
+     * recorded once the build has changed them for the last time.
+     */
+    private final List<CopyRecorder> copyRecorders = Collections.synchronizedList(new ArrayList<CopyRecorder>());
+
+    /**
+     * The files and directories in the build directory that were written or
+     * removed since {@link #takeChangedFiles()} was last called.
+     */
+    private final Set<File> changedFiles = Collections.synchronizedSet(new LinkedHashSet<File>());
+
+    /**
+     * The <code>Info.plist</code> template, see
+     * {@link #getInfoPlistTemplate()}.
+     */
+    private InfoPlistTemplate infoPlistTemplate;
+
     /**
      * Bundle project as a Mac OS X application bundle.
      *
@@ -285,29 +600,306 @@ public class CreateApplicationBundleMojo extends AbstractMojo {
      * packaging of the bundle.
      */
     public void execute() throws MojoExecutionException {
+        File fingerprintFile = getFingerprintFile();
+        List<File> outputs = new ArrayList<File>();
+        String fingerprint = computeFingerprint(outputs);
+
+        if (!forceRebuild && fingerprint.equals(Fingerprint.read(fingerprintFile)) && isIntact(fingerprintFile, outputs)) {
+            getLog().info("App Bundle is up to date");
+            if (generateDiskImageFile && diskImageFile.isFile()) {
+                projectHelper.attachArtifact(project, "dmg", null, diskImageFile);
+            }
+            return;
+        }
+
+        // a build that fails half way must not look up to date afterwards
+        fingerprintFile.delete();
+
+        createBundle();
+
+        if (reproducible) {
+            normalizeBuildDirectory();
+        }
+        recordCopies();
+
+        if (generateSizeReport || (sizeBudgets != null && !sizeBudgets.isEmpty())) {
+            createSizeReport();
+        }
+
+        if (generateIntegrityManifest) {
+            writeIntegrityManifest();
+        }
+
+        if (generateDiskImageFile) {
+            createDiskImage();
+        }
+
+        try {
+            Fingerprint.write(fingerprintFile, fingerprint, outputs);
+        } catch (IOException ex) {
+            getLog().warn("Could not write " + fingerprintFile + ", the next build will not be skipped", ex);
+        }
+
+        getLog().info("App Bundle generation finished");
+    }
+
+    /**
+     * Computes the fingerprint of everything the bundle and the disk image are
+     * built from: the plugin configuration, the project artifact and its
+     * dependencies, the additional resources, the icons, the
+     * <code>Info.plist</code> template and the JRE.
+     *
+     * @param outputs receives the files the build is expected to produce
+     * @return the fingerprint
+     * @throws MojoExecutionException If an input cannot be read.
+     */
+    private String computeFingerprint(List<File> outputs) throws MojoExecutionException {
+        File cacheFile = new File(new File(project.getBuild().getDirectory(), SYNC_STATE_DIRECTORY), FINGERPRINT_CACHE);
+        SyncState cache = SyncState.load(cacheFile);
+        Fingerprint fingerprint = new Fingerprint(cache);
+
+        File bundleDir = getBundleDirectory();
+        File javaDirectory = getJavaDirectory();
+
+        try {
+            fingerprint.add("pluginVersion", pluginVersion)
+                    .add("additionalClasspath", additionalClasspath)
+                    .add("buildDirectory", getBuildDirectory().getAbsolutePath())
+                    .add("bundleName", getBundleName())
+                    .add("dictionaryFile", dictionaryFile)
+                    .add("plistFormat", plistFormat)
+                    .add("diskImageFile", diskImageFile.getAbsolutePath())
+                    .add("diskImageInternetEnable", diskImageInternetEnable)
+                    .add("generateDiskImageFile", generateDiskImageFile)
+                    .add("includeApplicationsSymlink", includeApplicationsSymlink)
+                    .add("iconFile", iconFile)
+                    .add("javaLauncherName", javaLauncherName)
+                    .add("jvmOptions", jvmOptions)
+                    .add("jvmVersion", jvmVersion)
+                    .add("mainClass", mainClass)
+                    .add("version", version)
+                    .add("workingDirectory", workingDirectory)
+                    .add("jrePath", jrePath)
+                    .add("jreFullPath", jreFullPath)
+                    .add("jrePreset", jrePreset)
+                    .add("jreIncludes", jreIncludes)
+                    .add("jreExcludes", jreExcludes)
+                    .add("architectures", getArchitectureSet())
+                    .add("excludeDependencies", excludeDependencies)
+                    .add("extractNativeLibraries", extractNativeLibraries)
+                    .add("explodedClasses", explodedClasses)
+                    .add("classesDirectory", classesDirectory.getAbsolutePath())
+                    .add("reproducible", reproducible)
+                    .add("outputTimestamp", reproducible ? getOutputTimestamp() : null)
+                    .add("generateSizeReport", generateSizeReport)
+                    .add("sizeReportBaseline", sizeReportBaseline)
+                    .add("sizeBudgets", sizeBudgets != null ? new TreeMap<String, String>(sizeBudgets) : null)
+                    .add("generateIntegrityManifest", generateIntegrityManifest)
+                    .add("integrityManifest", generateIntegrityManifest ? integrityManifest.getAbsolutePath() : null);
+
+            fingerprint.addFile("sizeReportBaseline.file", sizeReportBaseline);
+            fingerprint.addStream("launcher", getClass().getResourceAsStream(javaLauncherName));
+            outputs.add(new File(bundleDir, "Contents" + File.separator + "MacOS" + File.separator + javaLauncherName));
+            outputs.add(getInfoPlistFile());
+
+            // the project artifact and its dependencies
+            Artifact artifact = project.getArtifact();
+            fingerprint.add("artifact", artifact.getId());
+            if (explodedClasses) {
+                fingerprint.addTree("artifact.classes", classesDirectory);
+                outputs.add(new File(javaDirectory, EXPLODED_CLASSES_DIRECTORY));
+            } else {
+                fingerprint.addFile("artifact.file", artifact.getFile());
+            }
+            if (!excludeDependencies) {
+                for (Artifact dependency : project.getArtifacts()) {
+                    fingerprint.add("dependency", dependency.getId());
+                    fingerprint.addFile("dependency.file", dependency.getFile());
+                }
+            }
+            for (String path : getDependencyPaths()) {
+                outputs.add(new File(javaDirectory, path));
+            }
+
+            fingerprintFileSets(fingerprint, "additionalBundledClasspathResources", additionalBundledClasspathResources, new File(javaDirectory, "lib"), outputs);
+            fingerprintFileSets(fingerprint, "additionalResources", additionalResources, getBuildDirectory(), outputs);
+
+            fingerprint.addFile("template", getDictionaryTemplateFile());
+            fingerprintIcon(fingerprint, "icon", iconFile, bundleDir, outputs);
+
+            if (bundles != null) {
+                fingerprint.add("bundles", bundles.size());
+                for (Bundle bundle : bundles) {
+                    fingerprint.add("bundle.bundleName", bundle.getBundleName())
+                            .add("bundle.mainClass", bundle.getMainClass())
+                            .add("bundle.jvmOptions", bundle.getJvmOptions())
+                            .add("bundle.iconFile", bundle.getIconFile());
+                    if (bundle.getBundleName() != null) {
+                        File variantDir = new File(getBuildDirectory(), bundle.getBundleName() + ".app");
+                        outputs.add(new File(variantDir, "Contents" + File.separator + "Info.plist"));
+                        fingerprintIcon(fingerprint, "bundle.icon", bundle.getIconFile(), variantDir, outputs);
+                    }
+                }
+            }
+
+            if (jrePath != null && new File(jrePath).isDirectory()) {
+                fingerprint.addTree("jre", new File(jrePath));
+                outputs.add(new File(bundleDir, "Contents/PlugIns/JRE/Contents/Home/jre"));
+            }
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Could not fingerprint the inputs of the bundle", ex);
+        }
+
+        if (generateSizeReport) {
+            outputs.add(new File(project.getBuild().getDirectory(), SIZE_REPORT + ".json"));
+        }
+        if (generateIntegrityManifest) {
+            outputs.add(integrityManifest);
+        }
+        if (generateDiskImageFile && DiskImageCreator.isSupported()) {
+            outputs.add(diskImageFile);
+        }
+
+        fingerprint.pruneCache();
+        if (fingerprint.isCacheChanged()) {
+            try {
+                cache.store(cacheFile);
+            } catch (IOException ex) {
+                getLog().debug("Could not store " + cacheFile, ex);
+            }
+        }
+        return fingerprint.finish();
+    }
+
+    private void fingerprintFileSets(Fingerprint fingerprint, String name, List<FileSet> fileSets, File targetDirectory, List<File> outputs) throws IOException {
+        if (fileSets == null) {
+            fingerprint.add(name, null);
+            return;
+        }
+
+        fingerprint.add(name, fileSets.size());
+        for (FileSet fileSet : fileSets) {
+            File sourceDirectory = getSourceDirectory(fileSet);
+            fingerprint.add(name + ".directory", sourceDirectory.getAbsolutePath())
+                    .add(name + ".includes", fileSet.getIncludes())
+                    .add(name + ".excludes", fileSet.getExcludes())
+                    .add(name + ".useDefaultExcludes", fileSet.isUseDefaultExcludes())
+                    .add(name + ".executable", fileSet.isExecutable());
+            if (!sourceDirectory.exists()) {
+                continue;
+            }
+            for (String path : scanFileSet(sourceDirectory, fileSet)) {
+                fingerprint.add(name + ".path", path);
+                fingerprint.addFile(name + ".file", new File(sourceDirectory, path));
+                outputs.add(new File(targetDirectory, path));
+            }
+        }
+    }
+
+    private void fingerprintIcon(Fingerprint fingerprint, String name, String icon, File bundleDir, List<File> outputs) throws IOException {
+        File f = icon != null ? searchFile(icon, project.getBasedir()) : null;
+        fingerprint.addFile(name, f);
+        if (f != null) {
+            outputs.add(new File(bundleDir, "Contents" + File.separator + "Resources" + File.separator + f.getName()));
+        }
+    }
+
+    /**
+     * Tells whether all outputs of a previous build are still as it left
+     * them.
+     */
+    private boolean isIntact(File fingerprintFile, List<File> outputs) {
+        String changed = Fingerprint.findChangedOutput(fingerprintFile, outputs);
+        if (changed != null) {
+            getLog().debug(changed + ", rebuilding the bundle");
+            return false;
+        }
+        return true;
+    }
 
-        // 1. Create and set up directories
+    /**
+     * Creates the application bundle and everything inside of it, without
+     * the disk image.
+     *
+     * @return the <code>.app</code> directory
+     * @throws MojoExecutionException If an unexpected error occurs during
+     * packaging of the bundle.
+     */
+    protected File createBundle() throws MojoExecutionException {
         getLog().info("Creating and setting up the bundle directories");
-        buildDirectory.mkdirs();
+        getBuildDirectory().mkdirs();
 
-        File bundleDir = new File(buildDirectory, bundleName + ".app");
+        final File bundleDir = getBundleDirectory();
         bundleDir.mkdirs();
 
-        File contentsDir = new File(bundleDir, "Contents");
+        final File contentsDir = new File(bundleDir, "Contents");
         contentsDir.mkdirs();
 
-        File resourcesDir = new File(contentsDir, "Resources");
+        final File resourcesDir = new File(contentsDir, "Resources");
         resourcesDir.mkdirs();
 
-        File javaDirectory = new File(contentsDir, "Java");
+        final File javaDirectory = getJavaDirectory();
         javaDirectory.mkdirs();
 
         File macOSDirectory = new File(contentsDir, "MacOS");
         macOSDirectory.mkdirs();
 
-        // 2. Copy in the native java application stub
+        final File launcher = new File(macOSDirectory, javaLauncherName);
+
+        BundleStages.Steps steps = new BundleStages.Steps() {
+            public void copyLauncher() throws MojoExecutionException {
+                CreateApplicationBundleMojo.this.copyLauncher(launcher);
+            }
+
+            public void makeLauncherExecutable() throws MojoExecutionException {
+                makeExecutable(launcher);
+            }
+
+            public void copyIcon() throws MojoExecutionException {
+                CreateApplicationBundleMojo.this.copyIcon(resourcesDir);
+            }
+
+            public List<String> copyDependencies() throws MojoExecutionException {
+                getLog().info("Copying dependencies");
+                List<String> files = CreateApplicationBundleMojo.this.copyDependencies(javaDirectory);
+                files.addAll(copyAdditionalBundledClasspathResources(javaDirectory));
+                return files;
+            }
+
+            public void copyJre() throws MojoExecutionException {
+                CreateApplicationBundleMojo.this.copyJre(contentsDir);
+            }
+
+            public void writeInfoPlist(List<String> classPath) throws MojoExecutionException {
+                getLog().info("Writing the Info.plist file");
+                CreateApplicationBundleMojo.this.writeInfoPlist(getInfoPlistFile(), classPath);
+            }
+
+            public void copyAdditionalResources() throws MojoExecutionException {
+                CreateApplicationBundleMojo.this.copyAdditionalResources();
+            }
+
+            public void thinBinaries() throws MojoExecutionException {
+                CreateApplicationBundleMojo.this.thinBinaries();
+            }
+
+            public void createVariants(List<String> classPath) throws MojoExecutionException {
+                CreateApplicationBundleMojo.this.createVariants(bundleDir, classPath);
+            }
+        };
+        new BundleStages(steps, isThinning(), hasVariants()).execute(getStageThreads(), getLog());
+
+        return bundleDir;
+    }
+
+    /**
+     * Copies the native Java application stub.
+     *
+     * @param launcher where to copy the stub to
+     * @throws MojoExecutionException
+     */
+    private void copyLauncher(File launcher) throws MojoExecutionException {
         getLog().info("Copying the native Java Application Stub");
-        File launcher = new File(macOSDirectory, javaLauncherName);
         launcher.setExecutable(true);
 
         FileOutputStream launcherStream = null;
@@ -321,10 +913,20 @@ public class CreateApplicationBundleMojo extends AbstractMojo {
         try {
             IOUtil.copy(launcherResourceStream, launcherStream);
         } catch (IOException ex) {
-            throw new MojoExecutionException("Could not copy file " + javaLauncherName + " to directory " + macOSDirectory, ex);
+            throw new MojoExecutionException("Could not copy file " + javaLauncherName + " to directory " + launcher.getParentFile(), ex);
+        } finally {
+            IOUtil.close(launcherResourceStream);
+            IOUtil.close(launcherStream);
         }
+    }
 
-        // 3.Copy icon file to the bundle if specified
+    /**
+     * Copies the icon file to the bundle if specified.
+     *
+     * @param resourcesDir the Resources directory of the bundle
+     * @throws MojoExecutionException
+     */
+    private void copyIcon(File resourcesDir) throws MojoExecutionException {
         if (iconFile != null) {
             File f = searchFile(iconFile, project.getBasedir());
 
@@ -339,15 +941,15 @@ public class CreateApplicationBundleMojo extends AbstractMojo {
                 throw new MojoExecutionException(String.format("Could not locate iconFile '%s'", iconFile));
             }
         }
+    }
 
-        // 4. Resolve and copy in all dependencies from the pom
-        getLog().info("Copying dependencies");
-        List<String> files = copyDependencies(javaDirectory);
-        if (additionalBundledClasspathResources != null && !additionalBundledClasspathResources.isEmpty()) {
-            files.addAll(copyAdditionalBundledClasspathResources(javaDirectory, "lib", additionalBundledClasspathResources));
-        }
-
-        // 5. Check if JRE should be embedded. Check JRE path. Copy JRE
+    /**
+     * Copies the JRE into the bundle if <code>jrePath</code> is set.
+     *
+     * @param contentsDir the Contents directory of the bundle
+     * @throws MojoExecutionException
+     */
+    private void copyJre(File contentsDir) throws MojoExecutionException {
         if (jrePath != null) {
             File f = new File(jrePath);
             if (f.exists() && f.isDirectory()) {
@@ -362,11 +964,32 @@ public class CreateApplicationBundleMojo extends AbstractMojo {
 
                 try {
                     getLog().info("Copying the JRE Folder from : [" + sourceFolder + "] to PlugIn folder: [" + pluginsDirectory + "]");
-                    FileUtils.copyDirectoryStructure(sourceFolder, pluginsDirectory);
+                    // compared with the recorded JRE, the copy is thinned and normalized afterwards
+                    File stateFile = new File(new File(project.getBuild().getDirectory(), SYNC_STATE_DIRECTORY), "jre.state");
+                    TreeCopier copier = new TreeCopier(jreIncludes, getJreExcludes(), stateFile);
+                    copier.setTransformation(getCopyTransformation());
+                    // listing excluded directories is only worth it for the report
+                    boolean countSkipped = generateSizeReport || getLog().isDebugEnabled();
+                    copier.setCountSkipped(countSkipped);
+                    if (generateIntegrityManifest) {
+                        copier.setRecordedDigests(recordedDigests);
+                    }
+                    TreeCopier.Result result = copier.copy(sourceFolder, pluginsDirectory);
+                    jreCopyResult = result;
+                    copyRecorders.add(copier);
+                    getLog().info("Copied " + result.getCopied() + " JRE files (" + result.getUnchanged() + " unchanged, "
+                            + result.getRemoved() + " removed), skipped " + result.getSkippedFiles() + " files with "
+                            + SizeReport.formatSize(result.getSkippedBytes())
+                            + (countSkipped ? "" : " and " + result.getSkippedDirectories() + " excluded directories"));
+                    for (Map.Entry<String, long[]> skipped : result.getSkipped().entrySet()) {
+                        getLog().debug("Skipped " + skipped.getValue()[0] + " JRE files with " + SizeReport.formatSize(skipped.getValue()[1])
+                                + " matching " + skipped.getKey());
+                    }
                     File binFolder = new File(pluginsDirectory, "bin");
                     //Setting execute permissions on executables in JRE
-                    for (String filename : binFolder.list()) {
-                        new File(binFolder, filename).setExecutable(true, false);
+                    String[] executables = binFolder.list();
+                    for (int i = 0; executables != null && i < executables.length; i++) {
+                        new File(binFolder, executables[i]).setExecutable(true, false);
                     }
 
                     new File (pluginsDirectory, "lib/jspawnhelper").setExecutable(true,false);
@@ -381,19 +1004,106 @@ public class CreateApplicationBundleMojo extends AbstractMojo {
             getLog().info("JRE Full path is used [" + jreFullPath + "]");
             embeddJre = true;
         }
+    }
 
-        // 6. Create and write the Info.plist file
-        getLog().info("Writing the Info.plist file");
-        File infoPlist = new File(bundleDir, "Contents" + File.separator + "Info.plist");
-        this.writeInfoPlist(infoPlist, files);
+    /**
+     * Removes the architectures that are not wanted from all universal
+     * binaries in the build directory, except for the bundle variants, which
+     * are created from the thinned main bundle.
+     *
+     * @throws MojoExecutionException If an architecture is unknown or a file
+     * cannot be thinned.
+     */
+    protected void thinBinaries() throws MojoExecutionException {
+        thinBinaries(Collections.singleton(getBuildDirectory()));
+    }
 
-        // 7. Copy specified additional resources into the top level directory
-        getLog().info("Copying additional resources");
-        if (additionalResources != null && !additionalResources.isEmpty()) {
-            this.copyResources(buildDirectory, additionalResources);
+    /**
+     * Removes the architectures that are not wanted from the universal
+     * binaries among the given files and in the given directories.
+     *
+     * @param files files and directories in the build directory, those that
+     * no longer exist are skipped
+     * @throws MojoExecutionException If an architecture is unknown or a file
+     * cannot be thinned.
+     */
+    protected void thinBinaries(Collection<File> files) throws MojoExecutionException {
+        for (String architecture : architectures) {
+            if (!Architecture.NAMES.contains(architecture)) {
+                throw new MojoExecutionException("Unknown architecture '" + architecture + "', expected one of " + Architecture.NAMES);
+            }
+        }
+
+        final Set<Path> variantDirectories = new HashSet<Path>();
+        if (bundles != null) {
+            for (Bundle bundle : bundles) {
+                variantDirectories.add(new File(getBuildDirectory(), bundle.getBundleName() + ".app").toPath());
+            }
+        }
+
+        final MachOThinner thinner = new MachOThinner(new HashSet<String>(architectures), new File(project.getBuild().getDirectory(), THIN_CACHE_DIRECTORY));
+        final int[] thinned = new int[1];
+        final long[] saved = new long[1];
+        SimpleFileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return variantDirectories.contains(dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile()) {
+                    long bytes = thinner.thin(file.toFile());
+                    if (bytes > 0) {
+                        getLog().debug("Thinned " + file + " by " + SizeReport.formatSize(bytes));
+                        thinned[0]++;
+                        saved[0] += bytes;
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        };
+        for (File file : files) {
+            if (!file.exists()) {
+                continue;
+            }
+            try {
+                Files.walkFileTree(file.toPath(), visitor);
+            } catch (IOException ex) {
+                throw new MojoExecutionException("Error removing architectures from universal binaries in " + file, ex);
+            }
+        }
+        getLog().info("Thinned " + thinned[0] + " universal binar" + (thinned[0] != 1 ? "ies" : "y") + " to " + architectures
+                + ", saving " + SizeReport.formatSize(saved[0]));
+    }
+
+    /**
+     * The JRE exclude patterns of the preset and the configuration.
+     *
+     * @return the patterns
+     * @throws MojoExecutionException If the preset is unknown.
+     */
+    private List<String> getJreExcludes() throws MojoExecutionException {
+        List<String> excludes = new ArrayList<String>();
+        if (JRE_PRESET_RUNTIME.equals(jrePreset)) {
+            excludes.addAll(Arrays.asList(JRE_RUNTIME_EXCLUDES));
+        } else if (jrePreset != null && !JRE_PRESET_FULL.equals(jrePreset)) {
+            throw new MojoExecutionException("Unknown jrePreset '" + jrePreset + "', expected "
+                    + JRE_PRESET_FULL + " or " + JRE_PRESET_RUNTIME);
         }
+        if (jreExcludes != null) {
+            excludes.addAll(jreExcludes);
+        }
+        return excludes;
+    }
 
-        // 7. Make the stub executable
+    /**
+     * Makes the stub executable.
+     *
+     * @param launcher the stub
+     * @throws MojoExecutionException
+     */
+    private void makeExecutable(File launcher) throws MojoExecutionException {
         if (!SystemUtils.IS_OS_WINDOWS) {
             getLog().info("Making stub executable");
             Commandline chmod = new Commandline();
@@ -402,92 +1112,356 @@ public class CreateApplicationBundleMojo extends AbstractMojo {
                 chmod.createArgument().setValue("755");
                 chmod.createArgument().setValue(launcher.getAbsolutePath());
 
-                chmod.execute();
+                // wait, later stages link or image the stub
+                chmod.execute().waitFor();
             } catch (CommandLineException e) {
                 throw new MojoExecutionException("Error executing " + chmod + " ", e);
+            } catch (InterruptedException e) {
+                throw new MojoExecutionException("Thread was interrupted while executing " + chmod, e);
             }
         } else {
             getLog().warn("The stub was created without executable file permissions for UNIX systems");
         }
+    }
 
-        // 8. Create the DMG file
-        if (generateDiskImageFile) {
-            if (SystemUtils.IS_OS_MAC_OSX || SystemUtils.IS_OS_MAC) {
-                getLog().info("Generating the Disk Image file");
-                Commandline dmg = new Commandline();
-                try {
-                    // user wants /Applications symlink in the resulting disk image
-                    if (includeApplicationsSymlink) {
-                        createApplicationsSymlink();
-                    }
-                    dmg.setExecutable("hdiutil");
-                    dmg.createArgument().setValue("create");
-                    dmg.createArgument().setValue("-srcfolder");
-                    dmg.createArgument().setValue(buildDirectory.getAbsolutePath());
-                    dmg.createArgument().setValue(diskImageFile.getAbsolutePath());
-
-                    try {
-                        dmg.execute().waitFor();
-                    } catch (InterruptedException ex) {
-                        throw new MojoExecutionException("Thread was interrupted while creating DMG " + diskImageFile, ex);
-                    } finally {
-                        if (includeApplicationsSymlink) {
-                            removeApplicationsSymlink();
-                        }
-                    }
-                } catch (CommandLineException ex) {
-                    throw new MojoExecutionException("Error creating disk image " + diskImageFile, ex);
+    /**
+     * Creates the configured bundle variants from the main bundle.
+     *
+     * @param bundleDir the main bundle
+     * @param files A list of file names of the jar files in $JAVAROOT
+     * @throws MojoExecutionException
+     */
+    protected void createVariants(File bundleDir, final List<String> files) throws MojoExecutionException {
+        getBundleVariants(bundleDir).create(new BundleVariants.InfoPlistWriter() {
+            public void write(File infoPlist, Bundle variant) throws MojoExecutionException {
+                writeInfoPlist(infoPlist, files, variant);
+            }
+        });
+    }
+
+    /**
+     * Brings the bundle variants up to date with changes of the main bundle.
+     *
+     * @param bundleDir the main bundle
+     * @param files A list of file names of the jar files in $JAVAROOT
+     * @param changed the changed files and directories, those outside of the
+     * main bundle are ignored
+     * @param infoPlist whether the <code>Info.plist</code> files need to be
+     * written again
+     * @throws MojoExecutionException
+     */
+    protected void updateVariants(File bundleDir, final List<String> files, Collection<File> changed, boolean infoPlist) throws MojoExecutionException {
+        Path bundlePath = bundleDir.toPath();
+        List<String> paths = new ArrayList<String>();
+        for (File file : changed) {
+            Path path = file.toPath();
+            if (path.startsWith(bundlePath) && !path.equals(bundlePath)) {
+                paths.add(bundlePath.relativize(path).toString().replace('\\', '/'));
+            }
+        }
+
+        getBundleVariants(bundleDir).update(paths, !infoPlist ? null : new BundleVariants.InfoPlistWriter() {
+            public void write(File infoPlist, Bundle variant) throws MojoExecutionException {
+                writeInfoPlist(infoPlist, files, variant);
+            }
+        });
+    }
+
+    private BundleVariants getBundleVariants(File bundleDir) throws MojoExecutionException {
+        Bundle mainBundle = getMainBundle();
+        BundleVariants variants = new BundleVariants(bundleDir, getBundleIconFileName(iconFile), getLog());
+        for (Bundle configured : bundles) {
+            if (configured.getBundleName() == null) {
+                throw new MojoExecutionException("Every entry of bundles needs a bundleName");
+            }
+            Bundle variant = configured.inherit(mainBundle);
+
+            File icon = null;
+            if (configured.getIconFile() != null) {
+                icon = searchFile(variant.getIconFile(), project.getBasedir());
+                if (icon == null || !icon.isFile()) {
+                    throw new MojoExecutionException(String.format("Could not locate iconFile '%s'", variant.getIconFile()));
                 }
+            }
+            variants.add(variant, new File(getBuildDirectory(), variant.getBundleName() + ".app"), icon);
+        }
+        return variants;
+    }
 
-                if (diskImageInternetEnable) {
-                    getLog().info("Enabling the Disk Image file for internet");
-                    try {
-                        Commandline internetEnableCommand = new Commandline();
+    /**
+     * Gives everything in the build directory the output timestamp and stable
+     * permissions.
+     *
+     * @throws MojoExecutionException If a file cannot be changed.
+     */
+    private void normalizeBuildDirectory() throws MojoExecutionException {
+        long timestamp = getOutputTimestamp();
+        try {
+            int count = TreeNormalizer.normalize(getBuildDirectory().toPath(), timestamp, recordedDigests);
+            getLog().info("Normalized timestamps and permissions of " + count + " files");
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Error normalizing the files in " + getBuildDirectory(), ex);
+        }
+    }
 
-                        internetEnableCommand.setExecutable("hdiutil");
-                        internetEnableCommand.createArgument().setValue("internet-enable");
-                        internetEnableCommand.createArgument().setValue("-yes");
-                        internetEnableCommand.createArgument().setValue(diskImageFile.getAbsolutePath());
+    /**
+     * Records the copied files as the build left them, thinned and
+     * normalized, so the next build only copies what changed.
+     */
+    protected void recordCopies() {
+        synchronized (copyRecorders) {
+            try {
+                for (CopyRecorder recorder : copyRecorders) {
+                    recorder.recordCopies();
+                }
+            } catch (IOException ex) {
+                getLog().warn("Could not record the copied files, the next build copies them again", ex);
+            }
+            copyRecorders.clear();
+        }
+    }
 
-                        internetEnableCommand.execute();
-                    } catch (CommandLineException ex) {
-                        throw new MojoExecutionException("Error internet enabling disk image: " + diskImageFile, ex);
-                    }
+    /**
+     * The files and directories written or removed since the last call, so
+     * that later steps can limit themselves to those.
+     *
+     * @return the changed files and directories
+     */
+    protected Set<File> takeChangedFiles() {
+        synchronized (changedFiles) {
+            Set<File> changed = new LinkedHashSet<File>(changedFiles);
+            changedFiles.clear();
+            return changed;
+        }
+    }
+
+    /**
+     * Writes the integrity manifest of the main bundle.
+     *
+     * @throws MojoExecutionException If the bundle cannot be read or the
+     * manifest cannot be written.
+     */
+    private void writeIntegrityManifest() throws MojoExecutionException {
+        File bundleDir = getBundleDirectory();
+        long start = System.currentTimeMillis();
+        try {
+            BundleManifest manifest = BundleManifest.create(bundleDir, getStageThreads(), recordedDigests, false);
+
+            integrityManifest.getAbsoluteFile().getParentFile().mkdirs();
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(integrityManifest), "UTF-8"));
+            try {
+                manifest.write(writer);
+            } finally {
+                writer.close();
+            }
+
+            int files = 0;
+            for (BundleManifest.Entry entry : manifest.getEntries()) {
+                if (entry.getType() == BundleManifest.Type.FILE) {
+                    files++;
                 }
-                projectHelper.attachArtifact(project, "dmg", null, diskImageFile);
             }
-            if (SystemUtils.IS_OS_LINUX) {
-                getLog().info("Generating the Disk Image file");
-                Commandline linux_dmg = new Commandline();
+            getLog().info("Wrote the integrity manifest of " + files + " files (" + recordedDigests.getHits()
+                    + " hashed while copying) in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Error writing the integrity manifest " + integrityManifest, ex);
+        }
+    }
+
+    /**
+     * Writes the size report and checks the size budgets.
+     *
+     * @throws MojoExecutionException If the report cannot be written or a
+     * budget is exceeded.
+     */
+    private void createSizeReport() throws MojoExecutionException {
+        File jsonFile = new File(project.getBuild().getDirectory(), SIZE_REPORT + ".json");
+        File htmlFile = new File(project.getBuild().getDirectory(), SIZE_REPORT + ".html");
+
+        SizeReport baseline = null;
+        File baselineFile = sizeReportBaseline != null ? sizeReportBaseline : jsonFile;
+        if (baselineFile.isFile()) {
+            try {
+                baseline = SizeReport.readJson(baselineFile);
+            } catch (IOException ex) {
+                getLog().warn("Could not read the size report " + baselineFile + ": " + ex.getMessage());
+            }
+        }
+
+        // attribute the files in the build directory to where they came from
+        ArtifactRepositoryLayout layout = new DefaultRepositoryLayout();
+        SizeAnalyzer analyzer = new SizeAnalyzer();
+        String contents = getBundleName() + ".app/Contents/";
+        analyzer.addDirectory(contents, SizeReport.APPLICATION, null);
+        analyzer.addDirectory(contents + "Java/" + EXPLODED_CLASSES_DIRECTORY, SizeReport.APPLICATION, "Java/" + EXPLODED_CLASSES_DIRECTORY);
+        analyzer.addDirectory(contents + "PlugIns/JRE/Contents/Home/jre", SizeReport.JRE, null);
+        if (!explodedClasses) {
+            analyzer.addFile(contents + "Java/" + layout.pathOf(project.getArtifact()), SizeReport.APPLICATION, project.getArtifact().getId());
+        }
+        if (!excludeDependencies) {
+            for (Artifact artifact : project.getArtifacts()) {
+                analyzer.addFile(contents + "Java/" + layout.pathOf(artifact), SizeReport.DEPENDENCIES, artifact.getId());
+            }
+        }
+        addFileSetsToAnalyzer(analyzer, additionalBundledClasspathResources, contents + "Java/lib/", SizeReport.CLASSPATH_RESOURCES);
+        addFileSetsToAnalyzer(analyzer, additionalResources, "", SizeReport.RESOURCES);
+        if (bundles != null) {
+            for (Bundle bundle : bundles) {
+                analyzer.addLinkedDirectory(bundle.getBundleName() + ".app", SizeReport.VARIANTS, bundle.getBundleName());
+            }
+        }
+
+        SizeReport report;
+        try {
+            report = analyzer.analyze(getBuildDirectory(), getStageThreads());
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Error analyzing the size of " + getBuildDirectory(), ex);
+        }
+
+        TreeCopier.Result jre = jreCopyResult;
+        if (jre != null) {
+            for (Map.Entry<String, long[]> skipped : jre.getSkipped().entrySet()) {
+                report.addSkipped(SizeReport.JRE, skipped.getKey().replace(File.separatorChar, '/'), skipped.getValue()[0], skipped.getValue()[1]);
+            }
+        }
+
+        if (generateSizeReport) {
+            try {
+                jsonFile.getParentFile().mkdirs();
+                Writer writer = new OutputStreamWriter(new FileOutputStream(jsonFile), "UTF-8");
                 try {
-                    linux_dmg.setExecutable("genisoimage");
-                    linux_dmg.createArgument().setValue("-V");
-                    linux_dmg.createArgument().setValue(bundleName);
-                    linux_dmg.createArgument().setValue("-D");
-                    linux_dmg.createArgument().setValue("-R");
-                    linux_dmg.createArgument().setValue("-apple");
-                    linux_dmg.createArgument().setValue("-no-pad");
-                    linux_dmg.createArgument().setValue("-o");
-                    linux_dmg.createArgument().setValue(diskImageFile.getAbsolutePath());
-                    linux_dmg.createArgument().setValue(buildDirectory.getAbsolutePath());
-
-                    try {
-                        linux_dmg.execute().waitFor();
-                    } catch (InterruptedException ex) {
-                        throw new MojoExecutionException("Thread was interrupted while creating DMG " + diskImageFile,
-                                ex);
-                    }
-                } catch (CommandLineException ex) {
-                    throw new MojoExecutionException("Error creating disk image " + diskImageFile + " genisoimage probably missing", ex);
+                    report.writeJson(writer);
+                } finally {
+                    writer.close();
                 }
-                projectHelper.attachArtifact(project, "dmg", null, diskImageFile);
+                writer = new OutputStreamWriter(new FileOutputStream(htmlFile), "UTF-8");
+                try {
+                    report.writeHtml(writer, "Size of " + getBundleName(), baseline);
+                } finally {
+                    writer.close();
+                }
+            } catch (IOException ex) {
+                throw new MojoExecutionException("Error writing the size report " + jsonFile, ex);
+            }
+        }
 
-            } else {
-                getLog().warn("Disk Image file cannot be generated in non Mac OS X and Linux environments");
+        SizeReport.Group total = report.getCategory(SizeReport.TOTAL);
+        String message = "Bundle size: " + SizeReport.formatSize(total.getBytes()) + " (about "
+                + SizeReport.formatSize(total.getCompressedBytes()) + " compressed)";
+        if (baseline != null) {
+            long change = total.getBytes() - baseline.getCategory(SizeReport.TOTAL).getBytes();
+            message += change == 0 ? ", unchanged since " + baselineFile.getName()
+                    : ", " + (change < 0 ? "-" : "+") + SizeReport.formatSize(Math.abs(change)) + " since " + baselineFile.getName();
+        }
+        getLog().info(message);
+
+        if (sizeBudgets != null) {
+            checkSizeBudgets(report);
+        }
+    }
+
+    private void addFileSetsToAnalyzer(SizeAnalyzer analyzer, List<FileSet> fileSets, String targetPath, String category) {
+        if (fileSets == null) {
+            return;
+        }
+        for (FileSet fileSet : fileSets) {
+            File sourceDirectory = getSourceDirectory(fileSet);
+            if (!sourceDirectory.exists()) {
+                continue;
+            }
+            String name = fileSet.getDirectory();
+            for (String path : scanFileSet(sourceDirectory, fileSet)) {
+                analyzer.addFile(targetPath + path.replace(File.separatorChar, '/'), category, name);
             }
         }
+    }
 
-        getLog().info("App Bundle generation finished");
+    private void checkSizeBudgets(SizeReport report) throws MojoExecutionException {
+        List<String> exceeded = new ArrayList<String>();
+        for (Map.Entry<String, String> budget : new TreeMap<String, String>(sizeBudgets).entrySet()) {
+            String key = budget.getKey();
+            boolean compressed = key.endsWith(COMPRESSED_BUDGET_SUFFIX);
+            String category = compressed ? key.substring(0, key.length() - COMPRESSED_BUDGET_SUFFIX.length()) : key;
+            if (!SizeReport.TOTAL.equals(category) && !SizeReport.CATEGORIES.contains(category)) {
+                throw new MojoExecutionException("Unknown size budget '" + key + "', expected " + SizeReport.TOTAL
+                        + " or one of " + SizeReport.CATEGORIES + ", optionally followed by " + COMPRESSED_BUDGET_SUFFIX);
+            }
+
+            long limit;
+            try {
+                limit = SizeReport.parseSize(budget.getValue());
+            } catch (NumberFormatException ex) {
+                throw new MojoExecutionException("Invalid size budget for " + key + ": " + ex.getMessage(), ex);
+            }
+
+            SizeReport.Group sum = report.getCategory(category);
+            long size = compressed ? sum.getCompressedBytes() : sum.getBytes();
+            if (size > limit) {
+                exceeded.add(key + " is " + SizeReport.formatSize(size) + ", the budget is " + SizeReport.formatSize(limit));
+            }
+        }
+
+        if (!exceeded.isEmpty()) {
+            throw new MojoExecutionException("The bundle exceeds its size budget: " + StringUtils.join(exceeded.iterator(), "; "));
+        }
+    }
+
+    /**
+     * The timestamp of reproducible builds.
+     *
+     * @return the timestamp in milliseconds since the epoch
+     * @throws MojoExecutionException If the <code>outputTimestamp</code> cannot
+     * be parsed.
+     */
+    private long getOutputTimestamp() throws MojoExecutionException {
+        String value = outputTimestamp;
+        // Maven uses a single character to disable the output timestamp
+        if (value == null || value.trim().length() < 2) {
+            value = System.getenv("SOURCE_DATE_EPOCH");
+        }
+        if (value == null || value.trim().length() == 0) {
+            return DEFAULT_OUTPUT_TIMESTAMP;
+        }
+
+        value = value.trim();
+        if (value.matches("\\d+")) {
+            return Long.parseLong(value) * 1000L;
+        }
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX", Locale.ROOT);
+            format.setLenient(false);
+            return format.parse(value).getTime();
+        } catch (ParseException ex) {
+            throw new MojoExecutionException("Invalid outputTimestamp '" + value
+                    + "', expected seconds since the epoch or a date like 2020-01-01T00:00:00Z", ex);
+        }
+    }
+
+    /**
+     * Creates the disk image file from the build directory and attaches it to
+     * the project.
+     *
+     * @throws MojoExecutionException If the disk image cannot be created.
+     */
+    private void createDiskImage() throws MojoExecutionException {
+        if (!DiskImageCreator.isSupported()) {
+            getLog().warn("Disk Image file cannot be generated in non Mac OS X and Linux environments");
+            return;
+        }
+
+        getLog().info("Generating the Disk Image file");
+        DiskImageCreator creator = new DiskImageCreator(getLog());
+        creator.setInternetEnable(diskImageInternetEnable);
+        creator.setApplicationsSymlink(includeApplicationsSymlink);
+        if (reproducible) {
+            creator.setReproducibleTimestamp(getOutputTimestamp());
+        }
+        try {
+            creator.create(getBuildDirectory(), getBundleName(), diskImageFile);
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Error creating disk image " + diskImageFile, ex);
+        }
+        projectHelper.attachArtifact(project, "dmg", null, diskImageFile);
     }
 
     /**
@@ -508,42 +1482,195 @@ public class CreateApplicationBundleMojo extends AbstractMojo {
      * @return A list of file names added
      * @throws MojoExecutionException
      */
-    private List<String> copyDependencies(File javaDirectory) throws MojoExecutionException {
+    protected List<String> copyDependencies(File javaDirectory) throws MojoExecutionException {
         ArtifactRepositoryLayout layout = new DefaultRepositoryLayout();
 
         List<String> list = new ArrayList<String>();
 
         // First, copy the project's own artifact
+        if (explodedClasses) {
+            copyProjectClasses(javaDirectory);
+        } else {
+            list.add(copyProjectArtifact(javaDirectory));
+        }
+
+        // skip adding dependencies from project.getArtifacts() for FAT-Jars
+        if (!excludeDependencies) {
+            for (Artifact artifact : project.getArtifacts()) {
+                File file = artifact.getFile();
+                File dest = new File(javaDirectory, layout.pathOf(artifact));
+
+                getLog().debug("Adding " + file);
+
+                try {
+                    recordedDigests.record(dest, Digests.copy(file, dest));
+                } catch (IOException ex) {
+                    throw new MojoExecutionException("Error copying file " + file + " into " + javaDirectory, ex);
+                }
+
+                list.add(layout.pathOf(artifact));
+            }
+        }
+
+        extractNativeLibraries(javaDirectory, list);
+
+        return list;
+    }
+
+    /**
+     * Extracts the native libraries inside the copied jars into
+     * <code>Contents/MacOS</code>, or removes the ones extracted by an earlier
+     * build if <code>extractNativeLibraries</code> is off.
+     *
+     * @param javaDirectory the $JAVAROOT directory
+     * @param jars the paths of the jars within $JAVAROOT
+     * @throws MojoExecutionException If a jar cannot be read or a library
+     * cannot be written.
+     */
+    protected void extractNativeLibraries(File javaDirectory, List<String> jars) throws MojoExecutionException {
+        File macOSDirectory = new File(getBundleDirectory(), "Contents" + File.separator + "MacOS");
+        NativeLibraryExtractor extractor = new NativeLibraryExtractor(new File(project.getBuild().getDirectory(), SYNC_STATE_DIRECTORY), getLog());
+        extractor.setRecordedDigests(recordedDigests);
+        extractor.setTransformation(getCopyTransformation());
+        try {
+            if (!extractNativeLibraries) {
+                extractor.clean(macOSDirectory);
+                return;
+            }
+
+            List<File> files = new ArrayList<File>();
+            for (String jar : jars) {
+                File file = new File(javaDirectory, jar);
+                if (file.isFile()) {
+                    files.add(file);
+                }
+            }
+
+            List<String> libraries = extractor.extract(files, macOSDirectory);
+            // libraries no longer found were removed, so the whole directory counts as changed
+            changedFiles.add(macOSDirectory);
+            // the launcher replaces $APP_ROOT, so variants find their own copy
+            nativeLibraryJvmOptions = NativeLibraryExtractor.getJvmOptions(libraries, "$APP_ROOT/Contents/MacOS");
+            if (!libraries.isEmpty()) {
+                getLog().info("Extracted " + libraries.size() + " native librar" + (libraries.size() != 1 ? "ies" : "y")
+                        + " into " + macOSDirectory.getName());
+            }
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Error extracting native libraries into " + macOSDirectory, ex);
+        }
+    }
+
+    /**
+     * Lists the paths within $JAVAROOT that {@link #copyDependencies(File)}
+     * copies the project artifact and its dependencies to, without copying.
+     *
+     * @return A list of file names
+     */
+    protected List<String> getDependencyPaths() {
+        ArtifactRepositoryLayout layout = new DefaultRepositoryLayout();
+
+        List<String> list = new ArrayList<String>();
+        if (!explodedClasses) {
+            list.add(layout.pathOf(project.getArtifact()));
+        }
+
+        if (!excludeDependencies) {
+            for (Artifact artifact : project.getArtifacts()) {
+                list.add(layout.pathOf(artifact));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Copy the project's own artifact into the $JAVAROOT directory.
+     *
+     * @param javaDirectory where to put the jar file
+     * @return the file name added
+     * @throws MojoExecutionException
+     */
+    protected String copyProjectArtifact(File javaDirectory) throws MojoExecutionException {
+        ArtifactRepositoryLayout layout = new DefaultRepositoryLayout();
+
         File artifactFile = project.getArtifact().getFile();
-        list.add(layout.pathOf(project.getArtifact()));
+        if (artifactFile == null || !artifactFile.isFile()) {
+            throw new MojoExecutionException("The project artifact " + (artifactFile != null ? artifactFile + " " : "")
+                    + "does not exist, package the project first or set explodedClasses");
+        }
+        String path = layout.pathOf(project.getArtifact());
 
         try {
-            FileUtils.copyFile(artifactFile, new File(javaDirectory, layout.pathOf(project.getArtifact())));
+            File dest = new File(javaDirectory, path);
+            recordedDigests.record(dest, Digests.copy(artifactFile, dest));
+            changedFiles.add(dest);
+
+            // classes left over from an exploded build would shadow the jar
+            File classes = new File(javaDirectory, EXPLODED_CLASSES_DIRECTORY);
+            if (classes.exists()) {
+                getLog().info("Removing exploded classes from " + classes);
+                FileUtils.deleteDirectory(classes);
+                changedFiles.add(classes);
+            }
         } catch (IOException ex) {
             throw new MojoExecutionException("Could not copy artifact file " + artifactFile + " to " + javaDirectory, ex);
         }
 
-        if (excludeDependencies) {
-            // skip adding dependencies from project.getArtifacts()
-            return list;
+        return path;
+    }
+
+    /**
+     * Synchronize the project's compiled classes into the Classes directory
+     * of $JAVAROOT, which the launcher always puts on the classpath.
+     *
+     * @param javaDirectory where to put the classes directory
+     * @throws MojoExecutionException
+     */
+    protected void copyProjectClasses(File javaDirectory) throws MojoExecutionException {
+        if (!classesDirectory.isDirectory()) {
+            throw new MojoExecutionException("Classes directory " + classesDirectory + " does not exist, compile the project first");
         }
 
-        for (Artifact artifact : project.getArtifacts()) {
-            File file = artifact.getFile();
-            File dest = new File(javaDirectory, layout.pathOf(artifact));
+        File classes = new File(javaDirectory, EXPLODED_CLASSES_DIRECTORY);
 
-            getLog().debug("Adding " + file);
+        FileSet fileSet = new FileSet();
+        fileSet.setDirectory(classesDirectory.getPath());
+        List<String> includedFiles = scanFileSet(classesDirectory, fileSet);
 
-            try {
-                FileUtils.copyFile(file, dest);
-            } catch (IOException ex) {
-                throw new MojoExecutionException("Error copying file " + file + " into " + javaDirectory, ex);
-            }
+        // class files are rewritten by every compilation, comparing timestamps is enough
+        FileSetSynchronizer synchronizer = new FileSetSynchronizer(new File(project.getBuild().getDirectory(), SYNC_STATE_DIRECTORY), getLog(), false);
+        synchronizer.setRecordedDigests(recordedDigests);
+        synchronizer.setTransformation(getCopyTransformation());
+        copyRecorders.add(synchronizer);
+        try {
+            FileSetSynchronizer.Result result = synchronizer.sync(classes.getAbsolutePath(), classesDirectory, includedFiles, classes, false);
+            addChangedFiles(classes, result);
+            getLog().info("Synchronized " + includedFiles.size() + " class and resource files ("
+                    + result.getCopied() + " copied, " + result.getRemoved() + " removed)");
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Error copying classes from " + classesDirectory + " to " + classes, ex);
+        }
 
-            list.add(layout.pathOf(artifact));
+        // a jar left over from a packaged build would duplicate the classes
+        File artifactJar = new File(javaDirectory, new DefaultRepositoryLayout().pathOf(project.getArtifact()));
+        if (artifactJar.isFile()) {
+            artifactJar.delete();
+            changedFiles.add(artifactJar);
         }
+    }
 
-        return list;
+    /**
+     * Copy the <code>additionalBundledClasspathResources</code> into the lib
+     * directory of $JAVAROOT.
+     *
+     * @param javaDirectory
+     * @return A list of file names added
+     * @throws MojoExecutionException
+     */
+    protected List<String> copyAdditionalBundledClasspathResources(File javaDirectory) throws MojoExecutionException {
+        if (additionalBundledClasspathResources == null || additionalBundledClasspathResources.isEmpty()) {
+            return new ArrayList<String>();
+        }
+        return copyAdditionalBundledClasspathResources(javaDirectory, "lib", additionalBundledClasspathResources);
     }
 
     /**
@@ -566,6 +1693,18 @@ public class CreateApplicationBundleMojo extends AbstractMojo {
         return addPath(addedFilenames, targetDirectoryName);
     }
 
+    /**
+     * Copy the <code>additionalResources</code> into the build directory.
+     *
+     * @throws MojoExecutionException
+     */
+    protected void copyAdditionalResources() throws MojoExecutionException {
+        getLog().info("Copying additional resources");
+        if (additionalResources != null && !additionalResources.isEmpty()) {
+            this.copyResources(getBuildDirectory(), additionalResources);
+        }
+    }
+
     /**
      * Modifies a String list of filenames to include an additional path.
      *
@@ -584,119 +1723,98 @@ public class CreateApplicationBundleMojo extends AbstractMojo {
 
     /**
      * Writes an Info.plist file describing this bundle.
+     * <br/><br/>
+     * The <code>dictionaryFile</code> template, the built-in one or a custom
+     * one, is merged with Velocity and then written in the configured
+     * <code>plistFormat</code>.
      *
      * @param infoPlist The file to write Info.plist contents to
      * @param files A list of file names of the jar files to add in $JAVAROOT
      * @throws MojoExecutionException
      */
-    private void writeInfoPlist(File infoPlist, List<String> files) throws MojoExecutionException {
-        Velocity.setProperty(Velocity.RUNTIME_LOG_LOGSYSTEM, new MojoLogChute(this));
-        Velocity.setProperty("file.resource.loader.path", TARGET_CLASS_ROOT);
-
-        try {
-            Velocity.init();
-        } catch (Exception ex) {
-            throw new MojoExecutionException("Exception occured in initializing velocity", ex);
-        }
-
-        VelocityContext velocityContext = new VelocityContext();
-
-        velocityContext.put("mainClass", mainClass);
-        velocityContext.put("cfBundleExecutable", javaLauncherName);
-        velocityContext.put("bundleName", cleanBundleName(bundleName));
-        velocityContext.put("workingDirectory", workingDirectory);
-
-        if (embeddJre && jrePath != null) {
-            velocityContext.put("jrePath", "JRE");
-            velocityContext.put("jreFullPath", "");
-        } else if (embeddJre && jreFullPath != null) {
-            velocityContext.put("jrePath", "");
-            velocityContext.put("jreFullPath", jreFullPath);
-        } else {
-            velocityContext.put("jrePath", "");
-            velocityContext.put("jreFullPath", "");
-        }
-
-        if (iconFile == null) {
-            velocityContext.put("iconFile", "GenericJavaApp.icns");
-        } else {
-            File f = searchFile(iconFile, project.getBasedir());
-            velocityContext.put("iconFile", (f != null && f.exists() && f.isFile()) ? f.getName() : "GenericJavaApp.icns");
-        }
-
-        velocityContext.put("version", version);
-        velocityContext.put("jvmVersion", jvmVersion);
-
-        StringBuilder options = new StringBuilder();
-        options.append("<array>").append("\n      ");
-
-        for (String jvmOption : defaultJvmOptions) {
-            options.append("      ").append("<string>").append(jvmOption).append("</string>").append("\n");
-        }
-
-        options.append("      ").append("<string>").append("-Xdock:name=" + bundleName).append("</string>").append("\n");
+    protected void writeInfoPlist(File infoPlist, List<String> files) throws MojoExecutionException {
+        writeInfoPlist(infoPlist, files, getMainBundle());
+    }
 
-        if (jvmOptions != null) {
-            for (String jvmOption : jvmOptions) {
-                options.append("      ").append("<string>").append(jvmOption).append("</string>").append("\n");
-            }
+    /**
+     * Writes an Info.plist file describing a bundle variant.
+     *
+     * @param infoPlist The file to write Info.plist contents to
+     * @param files A list of file names of the jar files to add in $JAVAROOT
+     * @param bundle the variant, with all properties resolved
+     * @throws MojoExecutionException
+     */
+    protected void writeInfoPlist(File infoPlist, List<String> files, Bundle bundle) throws MojoExecutionException {
+        List<String> classPath = new ArrayList<String>(files);
+        if (additionalClasspath != null) {
+            classPath.addAll(additionalClasspath);
         }
 
-        options.append("    ").append("</array>");
-        velocityContext.put("jvmOptions", options);
+        // values are XML-escaped before they are put into the Velocity context
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("mainClass", XmlPlistWriter.escape(bundle.getMainClass()));
+        values.put("cfBundleExecutable", XmlPlistWriter.escape(javaLauncherName));
+        values.put("bundleName", XmlPlistWriter.escape(cleanBundleName(bundle.getBundleName())));
+        values.put("workingDirectory", XmlPlistWriter.escape(workingDirectory));
+        values.put("jrePath", XmlPlistWriter.escape(getJvmRuntime()));
+        values.put("jreFullPath", XmlPlistWriter.escape(getJvmRuntimePath()));
+        values.put("iconFile", XmlPlistWriter.escape(getBundleIconFileName(bundle.getIconFile())));
+        values.put("version", XmlPlistWriter.escape(version));
+        values.put("jvmVersion", XmlPlistWriter.escape(jvmVersion));
+        values.put("jvmOptions", new StringArray(getLauncherJvmOptions(bundle), "    "));
+        values.put("classpath", new StringArray(classPath, "    "));
+
+        getInfoPlistTemplate().write(infoPlist, values);
+    }
 
-        StringBuilder jarFiles = new StringBuilder();
-        jarFiles.append("<array>").append("\n");
-        for (String file : files) {
-            jarFiles.append("      ").append("<string>").append(file).append("</string>").append("\n");
+    /**
+     * The <code>Info.plist</code> template, set up once for the main bundle
+     * and all variants.
+     */
+    private synchronized InfoPlistTemplate getInfoPlistTemplate() throws MojoExecutionException {
+        File templateFile = getDictionaryTemplateFile();
+        if (infoPlistTemplate == null || !infoPlistTemplate.isLoadedFrom(templateFile)) {
+            infoPlistTemplate = new InfoPlistTemplate(dictionaryFile, templateFile, plistFormat, velocity, this);
         }
+        return infoPlistTemplate;
+    }
 
-        if (additionalClasspath != null) {
-            for (String pathElement : additionalClasspath) {
-                jarFiles.append("      ").append("<string>").append(pathElement).append("</string>");
-            }
+    /**
+     * The options passed to the JVM by the launcher.
+     */
+    private List<String> getLauncherJvmOptions(Bundle bundle) {
+        List<String> options = new ArrayList<String>(Arrays.asList(defaultJvmOptions));
+        options.add("-Xdock:name=" + bundle.getBundleName());
+        // before the configured options, so those can override them
+        options.addAll(nativeLibraryJvmOptions);
+        if (bundle.getJvmOptions() != null) {
+            options.addAll(bundle.getJvmOptions());
         }
-        jarFiles.append("    ").append("</array>");
-
-        velocityContext.put("classpath", jarFiles.toString());
-        try {
-            File sourceInfoPlist = new File(TARGET_CLASS_ROOT, dictionaryFile);
-
-            if (sourceInfoPlist.exists() && sourceInfoPlist.isFile()) {
-                String encoding = detectEncoding(sourceInfoPlist);
-                getLog().debug("Detected encoding " + encoding + " for dictionary file " + dictionaryFile);
-
-                Writer writer = new OutputStreamWriter(new FileOutputStream(infoPlist), encoding);
-
-                Template template = Velocity.getTemplate(dictionaryFile, encoding);
-                template.merge(velocityContext, writer);
-
-                writer.close();
-            } else {
-                Writer writer = new OutputStreamWriter(new FileOutputStream(infoPlist), "UTF-8");
+        return options;
+    }
 
-                velocity.getEngine().mergeTemplate(dictionaryFile, "UTF-8", velocityContext, writer);
+    /**
+     * The value of <code>JVMRuntime</code>, the name of the embedded JRE
+     * inside <code>Contents/PlugIns</code>.
+     */
+    private String getJvmRuntime() {
+        return embeddJre && jrePath != null ? "JRE" : "";
+    }
 
-                writer.close();
-            }
-        } catch (IOException ex) {
-            throw new MojoExecutionException("Could not write Info.plist to file " + infoPlist, ex);
-        } catch (ParseErrorException ex) {
-            throw new MojoExecutionException("Error parsing " + dictionaryFile, ex);
-        } catch (ResourceNotFoundException ex) {
-            throw new MojoExecutionException("Could not find resource for template " + dictionaryFile, ex);
-        } catch (MethodInvocationException ex) {
-            throw new MojoExecutionException("MethodInvocationException occured merging Info.plist template " + dictionaryFile, ex);
-        } catch (Exception ex) {
-            throw new MojoExecutionException("Exception occured merging Info.plist template " + dictionaryFile, ex);
-        }
+    /**
+     * The value of <code>JVMRuntimePath</code>, the location of a JRE
+     * installed on the user's machine.
+     */
+    private String getJvmRuntimePath() {
+        return embeddJre && jrePath == null && jreFullPath != null ? jreFullPath : "";
     }
 
-    private static String detectEncoding(File file) throws Exception {
-        return XMLInputFactory
-                .newInstance()
-                .createXMLStreamReader(new FileReader(file))
-                .getCharacterEncodingScheme();
+    private String getBundleIconFileName(String iconFile) {
+        if (iconFile == null) {
+            return "GenericJavaApp.icns";
+        }
+        File f = searchFile(iconFile, project.getBasedir());
+        return (f != null && f.exists() && f.isFile()) ? f.getName() : "GenericJavaApp.icns";
     }
 
     /**
@@ -728,25 +1846,33 @@ public class CreateApplicationBundleMojo extends AbstractMojo {
 
         scanner.scan();
 
-        return Arrays.asList(scanner.getIncludedFiles());
+        // the scanner returns files in file system order
+        String[] includedFiles = scanner.getIncludedFiles();
+        Arrays.sort(includedFiles);
+        return Arrays.asList(includedFiles);
     }
 
     /**
      * Copies given resources to the build directory.
+     * <br/><br/>
+     * Copying is incremental: only new or modified files are written, files
+     * that vanished from a FileSet are removed from the target directory.
      *
      * @param fileSets A list of FileSet objects that represent additional
      * resources to copy.
      * @throws MojoExecutionException In case of a resource copying error.
      */
     private List<String> copyResources(File targetDirectory, List<FileSet> fileSets) throws MojoExecutionException {
+        FileSetSynchronizer synchronizer = new FileSetSynchronizer(new File(project.getBuild().getDirectory(), SYNC_STATE_DIRECTORY), getLog());
+        synchronizer.setRecordedDigests(recordedDigests);
+        synchronizer.setTransformation(getCopyTransformation());
+        copyRecorders.add(synchronizer);
+
         ArrayList<String> addedFiles = new ArrayList<String>();
+        List<FileSetSynchronizer.Source> sources = new ArrayList<FileSetSynchronizer.Source>();
         for (FileSet fileSet : fileSets) {
             // Get the absolute base directory for the FileSet
-            File sourceDirectory = new File(fileSet.getDirectory());
-
-            if (!sourceDirectory.isAbsolute()) {
-                sourceDirectory = new File(project.getBasedir(), sourceDirectory.getPath());
-            }
+            File sourceDirectory = getSourceDirectory(fileSet);
 
             if (!sourceDirectory.exists()) {
                 // If the requested directory does not exist, log it and carry on
@@ -756,36 +1882,138 @@ public class CreateApplicationBundleMojo extends AbstractMojo {
 
             List<String> includedFiles = scanFileSet(sourceDirectory, fileSet);
             addedFiles.addAll(includedFiles);
+            sources.add(new FileSetSynchronizer.Source(sourceDirectory, includedFiles, fileSet.isExecutable()));
+        }
 
-            getLog().info("Copying " + includedFiles.size() + " additional resource" + (includedFiles.size() > 1 ? "s" : ""));
-
-            for (String destination : includedFiles) {
-                File source = new File(sourceDirectory, destination);
-                File destinationFile = new File(targetDirectory, destination);
+        // all FileSets of a target at once, so a file moving between them is not removed
+        try {
+            FileSetSynchronizer.Result result = synchronizer.sync(targetDirectory.getAbsolutePath(), sources, targetDirectory);
+            addChangedFiles(targetDirectory, result);
+            getLog().info("Synchronized " + addedFiles.size() + " additional resource" + (addedFiles.size() != 1 ? "s" : "")
+                    + " (" + result.getCopied() + " copied, " + result.getRemoved() + " removed)");
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error copying additional resources into " + targetDirectory, e);
+        }
+        return addedFiles;
+    }
 
-                // Make sure that the directory we are copying into exists
-                destinationFile.getParentFile().mkdirs();
+    private void addChangedFiles(File targetDirectory, FileSetSynchronizer.Result result) {
+        for (String path : result.getChanged()) {
+            changedFiles.add(new File(targetDirectory, path));
+        }
+    }
 
-                try {
-                    FileUtils.copyFile(source, destinationFile);
-                    destinationFile.setExecutable(fileSet.isExecutable(),false);
+    /**
+     * Resolves a FileSet's directory against the project base directory.
+     *
+     * @param fileSet the FileSet
+     * @return the absolute source directory
+     */
+    protected File getSourceDirectory(FileSet fileSet) {
+        File sourceDirectory = new File(fileSet.getDirectory());
 
-                } catch (IOException e) {
-                    throw new MojoExecutionException("Error copying additional resource " + source, e);
-                }
-            }
+        if (!sourceDirectory.isAbsolute()) {
+            sourceDirectory = new File(project.getBasedir(), sourceDirectory.getPath());
         }
-        return addedFiles;
+        return sourceDirectory;
     }
 
-    private static File searchFile(String path, File basedir) {
+    /**
+     * The main bundle as described by the plugin configuration.
+     *
+     * @return the main bundle
+     */
+    protected Bundle getMainBundle() {
+        return new Bundle(getBundleName(), mainClass, jvmOptions, iconFile);
+    }
+
+    protected MavenProject getProject() {
+        return project;
+    }
+
+    protected boolean isExplodedClasses() {
+        return explodedClasses;
+    }
+
+    protected File getClassesDirectory() {
+        return classesDirectory;
+    }
+
+    protected List<FileSet> getAdditionalResources() {
+        return additionalResources;
+    }
+
+    protected List<FileSet> getAdditionalBundledClasspathResources() {
+        return additionalBundledClasspathResources;
+    }
+
+    protected boolean isThinning() {
+        return architectures != null && !architectures.isEmpty();
+    }
+
+    /**
+     * The architectures to keep, sorted, or null if binaries are not thinned.
+     */
+    private Set<String> getArchitectureSet() {
+        return isThinning() ? new TreeSet<String>(architectures) : null;
+    }
+
+    /**
+     * How the copied files are changed after they were copied. Copies are
+     * thinned in place, so they have to be made again from the universal
+     * sources when the architectures change.
+     */
+    private String getCopyTransformation() {
+        return isThinning() ? "thin " + getArchitectureSet() : null;
+    }
+
+    protected boolean hasVariants() {
+        return bundles != null && !bundles.isEmpty();
+    }
+
+    protected List<String> getNativeLibraryJvmOptions() {
+        return nativeLibraryJvmOptions;
+    }
+
+    protected File getFingerprintFile() {
+        return new File(diskImageFile.getPath() + FINGERPRINT_SUFFIX);
+    }
+
+    protected File getJavaDirectory() {
+        return new File(getBundleDirectory(), "Contents" + File.separator + "Java");
+    }
+
+    protected File getInfoPlistFile() {
+        return new File(getBundleDirectory(), "Contents" + File.separator + "Info.plist");
+    }
+
+    /**
+     * The custom <code>Info.plist</code> template on the file system, if any.
+     *
+     * @return the template file, or <code>null</code> if the template is
+     * loaded from the classpath
+     */
+    protected File getDictionaryTemplateFile() {
+        File sourceInfoPlist = new File(new File(project.getBasedir(), TARGET_CLASS_ROOT), dictionaryFile);
+        return sourceInfoPlist.isFile() ? sourceInfoPlist : null;
+    }
+
+    /**
+     * Looks for a file in the project base directory, then in the compiled
+     * classes.
+     *
+     * @param path the path relative to either
+     * @param basedir the project base directory
+     * @return the file, or <code>null</code> if it exists in neither
+     */
+    static File searchFile(String path, File basedir) {
         File f = new File(basedir, path);
 
         if (f.exists()) {
             return f;
         }
 
-        f = new File(TARGET_CLASS_ROOT, path);
+        f = new File(new File(basedir, TARGET_CLASS_ROOT), path);
 
         if (f.exists()) {
             return f;
@@ -793,33 +2021,4 @@ public class CreateApplicationBundleMojo extends AbstractMojo {
 
         return null;
     }
-
-    private void createApplicationsSymlink() throws MojoExecutionException, CommandLineException {
-        Commandline symlink = new Commandline();
-        symlink.setExecutable("ln");
-        symlink.createArgument().setValue("-s");
-        symlink.createArgument().setValue("/Applications");
-        symlink.createArgument().setValue(buildDirectory.getAbsolutePath());
-        try {
-            symlink.execute().waitFor();
-        } catch (InterruptedException ex) {
-            throw new MojoExecutionException("Error preparing bundle disk image while creating symlink" + diskImageFile, ex);
-        }
-    }
-
-    private void removeApplicationsSymlink() throws MojoExecutionException, CommandLineException {
-        Commandline remSymlink = new Commandline();
-        String symlink = buildDirectory.getAbsolutePath() + "/Applications";
-        if (!new File(symlink).exists()) {
-            return;
-        }
-        remSymlink.setExecutable("rm");
-        remSymlink.createArgument().setValue(symlink);
-        try {
-            remSymlink.execute().waitFor();
-        } catch (InterruptedException ex) {
-            throw new MojoExecutionException("Error cleaning up (while removing " + symlink +
-                    " symlink.) Please check permissions for that symlink" + diskImageFile, ex);
-        }
-    }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import org.apache.maven.plugin.MojoExecutionException;
+import sh.tak.appbundler.delta.BundleManifest;
+import sh.tak.appbundler.delta.DeltaApplier;
+import sh.tak.appbundler.delta.DeltaWriter;
+import sh.tak.appbundler.report.SizeReport;
+
+/**
+ * Creates a delta package that updates an earlier version of the Application
+ * Bundle to the one in the build directory. <br/><br/>
+ * Files that did not change are referenced by their digest, changed jars are
+ * put together from the unchanged entries of the old jars and the new ones.
+ * <code>sh.tak.appbundler.delta.DeltaApplier</code> applies the package and
+ * verifies the result. The manifest of the bundle is written as well, so the
+ * next release can be diffed against it without keeping the whole bundle.
+ *
+ * @goal delta
+ */
+public class CreateDeltaPackageMojo extends AbstractApplicationBundleMojo {
+
+    /**
+     * The earlier version of the bundle: either its <code>.app</code>
+     * directory or the bundle manifest written by an earlier run of this goal.
+     *
+     * @parameter expression="${appbundle.previousBundle}"
+     * @required
+     */
+    private File previousBundle;
+
+    /**
+     * The delta package to create.
+     *
+     * @parameter default-value="${project.build.directory}/${project.build.finalName}-delta.zip"
+     */
+    private File deltaFile;
+
+    /**
+     * Where to write the manifest of the bundle.
+     *
+     * @parameter default-value="${project.build.directory}/${project.build.finalName}.manifest"
+     */
+    private File bundleManifestFile;
+
+    /**
+     * Creates the delta package and the manifest of the bundle.
+     *
+     * @throws MojoExecutionException If the bundle does not exist or the
+     * package cannot be created.
+     */
+    @Override
+    public void execute() throws MojoExecutionException {
+        File bundle = getBundleDirectory();
+        if (!bundle.isDirectory()) {
+            throw new MojoExecutionException("The bundle " + bundle + " does not exist, run the bundle goal first");
+        }
+
+        try {
+            getLog().info("Reading the previous bundle " + previousBundle);
+            BundleManifest previous = previousBundle.isDirectory()
+                    ? BundleManifest.create(previousBundle)
+                    : DeltaApplier.readManifest(previousBundle);
+            BundleManifest current = BundleManifest.create(bundle);
+
+            bundleManifestFile.getParentFile().mkdirs();
+            Writer writer = new OutputStreamWriter(new FileOutputStream(bundleManifestFile), "UTF-8");
+            try {
+                current.write(writer);
+            } finally {
+                writer.close();
+            }
+
+            DeltaWriter delta = new DeltaWriter();
+            delta.write(previous, current, bundle, deltaFile);
+
+            getLog().info("Delta package " + deltaFile.getName() + ": " + SizeReport.formatSize(deltaFile.length())
+                    + ", " + delta.getCopiedFiles() + " unchanged files, " + delta.getAssembledJars() + " patched jars, "
+                    + delta.getLiteralFiles() + " new files; " + SizeReport.formatSize(delta.getCopiedBytes())
+                    + " reused, " + SizeReport.formatSize(delta.getLiteralBytes()) + " new");
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Error creating the delta package " + deltaFile, ex);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Map;
+import javax.xml.stream.XMLInputFactory;
+import org.apache.maven.plugin.Mojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.exception.MethodInvocationException;
+import org.apache.velocity.exception.ParseErrorException;
+import org.apache.velocity.exception.ResourceNotFoundException;
+import org.codehaus.plexus.velocity.VelocityComponent;
+import sh.tak.appbundler.logging.MojoLogChute;
+import sh.tak.appbundler.plist.BinaryPlistWriter;
+import sh.tak.appbundler.plist.PlistParser;
+import sh.tak.appbundler.plist.PlistWriter;
+
+/**
+ * The <code>dictionaryFile</code> template, the built-in one or a custom one,
+ * and the format the merged <code>Info.plist</code> files are written in.
+ * <p/>
+ * The Velocity engine is set up once; the main bundle and its variants can
+ * then be written from several threads at the same time.
+ */
+class InfoPlistTemplate {
+
+    /**
+     * Value of <code>plistFormat</code> for XML property lists.
+     */
+    static final String FORMAT_XML = "xml";
+
+    /**
+     * Value of <code>plistFormat</code> for binary property lists.
+     */
+    static final String FORMAT_BINARY = "binary";
+
+    private final String dictionaryFile;
+
+    private final File templateFile;
+
+    private final String format;
+
+    private final VelocityEngine engine;
+
+    private final Mojo mojo;
+
+    /**
+     * @param dictionaryFile the name of the template
+     * @param templateFile the custom template on the file system, or
+     * <code>null</code> to load <code>dictionaryFile</code> from the classpath
+     * @param format the <code>plistFormat</code>
+     * @param velocity the Velocity component that loads templates from the
+     * classpath
+     * @param mojo the mojo to log to
+     * @throws MojoExecutionException If the format is unknown or Velocity
+     * cannot be initialized.
+     */
+    InfoPlistTemplate(String dictionaryFile, File templateFile, String format, VelocityComponent velocity, Mojo mojo) throws MojoExecutionException {
+        if (!FORMAT_XML.equals(format) && !FORMAT_BINARY.equals(format)) {
+            throw new MojoExecutionException("Unknown plistFormat '" + format + "', use '" + FORMAT_XML + "' or '" + FORMAT_BINARY + "'");
+        }
+        this.dictionaryFile = dictionaryFile;
+        this.templateFile = templateFile;
+        this.format = format;
+        this.mojo = mojo;
+
+        if (templateFile == null) {
+            engine = velocity.getEngine();
+            return;
+        }
+        // an engine of its own, the one of the component only loads from the classpath
+        engine = new VelocityEngine();
+        engine.setProperty(VelocityEngine.RUNTIME_LOG_LOGSYSTEM, new MojoLogChute(mojo));
+        engine.setProperty("file.resource.loader.path", templateFile.getParentFile().getPath());
+        try {
+            engine.init();
+        } catch (Exception ex) {
+            throw new MojoExecutionException("Exception occured in initializing velocity", ex);
+        }
+    }
+
+    /**
+     * Tells whether this template was loaded from the given file.
+     *
+     * @param file the custom template, or <code>null</code> for the
+     * <code>dictionaryFile</code> on the classpath
+     */
+    boolean isLoadedFrom(File file) {
+        return file == null ? templateFile == null : file.equals(templateFile);
+    }
+
+    /**
+     * Merges the template. XML is written straight to the file; for the
+     * binary format the merged document is parsed and written again.
+     *
+     * @param infoPlist the file to write
+     * @param values the values to put into the Velocity context, XML-escaped
+     * @throws MojoExecutionException If the template cannot be merged or the
+     * file cannot be written.
+     */
+    void write(File infoPlist, Map<String, ?> values) throws MojoExecutionException {
+        VelocityContext velocityContext = new VelocityContext();
+        for (Map.Entry<String, ?> value : values.entrySet()) {
+            velocityContext.put(value.getKey(), value.getValue());
+        }
+
+        try {
+            String encoding;
+            if (templateFile != null) {
+                encoding = detectEncoding(templateFile);
+                mojo.getLog().debug("Detected encoding " + encoding + " for dictionary file " + dictionaryFile);
+            } else {
+                encoding = "UTF-8";
+            }
+            boolean binary = FORMAT_BINARY.equals(format);
+            // the merged XML keeps the encoding its declaration names
+            Writer writer = binary ? new StringWriter()
+                    : new BufferedWriter(new OutputStreamWriter(new FileOutputStream(infoPlist), encoding != null ? encoding : "UTF-8"));
+
+            try {
+                if (templateFile != null) {
+                    Template template = engine.getTemplate(templateFile.getName(), encoding);
+                    template.merge(velocityContext, writer);
+                } else {
+                    engine.mergeTemplate(dictionaryFile, "UTF-8", velocityContext, writer);
+                }
+            } finally {
+                writer.close();
+            }
+
+            if (binary) {
+                PlistWriter plistWriter = new BinaryPlistWriter(new FileOutputStream(infoPlist));
+                try {
+                    PlistParser.parse(new StringReader(writer.toString()), plistWriter);
+                } finally {
+                    plistWriter.close();
+                }
+            }
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Could not write Info.plist to file " + infoPlist, ex);
+        } catch (ParseErrorException ex) {
+            throw new MojoExecutionException("Error parsing " + dictionaryFile, ex);
+        } catch (ResourceNotFoundException ex) {
+            throw new MojoExecutionException("Could not find resource for template " + dictionaryFile, ex);
+        } catch (MethodInvocationException ex) {
+            throw new MojoExecutionException("MethodInvocationException occured merging Info.plist template " + dictionaryFile, ex);
+        } catch (Exception ex) {
+            throw new MojoExecutionException("Exception occured merging Info.plist template " + dictionaryFile, ex);
+        }
+    }
+
+    private static String detectEncoding(File file) throws Exception {
+        return XMLInputFactory
+                .newInstance()
+                .createXMLStreamReader(new FileReader(file))
+                .getCharacterEncodingScheme();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import org.apache.maven.plugin.MojoExecutionException;
+import sh.tak.appbundler.delta.BundleManifest;
+import sh.tak.appbundler.delta.DeltaApplier;
+
+/**
+ * Checks an Application Bundle against the integrity manifest written by the
+ * <code>bundle</code> goal with <code>generateIntegrityManifest</code>. <br/><br/>
+ * Every file is hashed again, in parallel, and compared by size, mode and
+ * SHA-256 digest. Missing, changed and additional files fail the build. <br/><br/>
+ * The manifest itself is only checked against the digest it ends with, which
+ * catches accidental damage; a manifest from an untrusted place must be
+ * signed and checked separately.
+ *
+ * @goal verify
+ */
+public class VerifyApplicationBundleMojo extends AbstractApplicationBundleMojo {
+
+    /**
+     * How many differences are listed at most.
+     */
+    private static final int MAX_REPORTED = 50;
+
+    /**
+     * The bundle to check: its <code>.app</code> directory, or a directory
+     * containing it, like a mounted disk image. Defaults to the bundle in the
+     * build directory.
+     *
+     * @parameter expression="${appbundle.verifyTarget}"
+     */
+    private File verifyTarget;
+
+    /**
+     * The integrity manifest written by the <code>bundle</code> goal.
+     *
+     * @parameter expression="${appbundle.integrityManifest}" default-value="${project.build.directory}/${project.build.finalName}-integrity.manifest"
+     */
+    private File integrityManifest;
+
+    /**
+     * Compares the bundle with the integrity manifest.
+     *
+     * @throws MojoExecutionException If the manifest cannot be read or the
+     * bundle does not match it.
+     */
+    @Override
+    public void execute() throws MojoExecutionException {
+        File bundle = getTargetBundle();
+        File manifestFile = integrityManifest;
+        if (!manifestFile.isFile()) {
+            throw new MojoExecutionException("The integrity manifest " + manifestFile
+                    + " does not exist, run the bundle goal with generateIntegrityManifest first");
+        }
+
+        List<String> problems;
+        long start = System.currentTimeMillis();
+        getLog().info("Verifying " + bundle + " against " + manifestFile.getName());
+        try {
+            problems = verify(bundle, manifestFile, getStageThreads());
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Error verifying " + bundle + ": " + ex.getMessage(), ex);
+        }
+
+        if (!problems.isEmpty()) {
+            for (int i = 0; i < problems.size() && i < MAX_REPORTED; i++) {
+                getLog().error(problems.get(i));
+            }
+            if (problems.size() > MAX_REPORTED) {
+                getLog().error("... and " + (problems.size() - MAX_REPORTED) + " more");
+            }
+            throw new MojoExecutionException(bundle + " does not match the integrity manifest: "
+                    + problems.size() + " difference" + (problems.size() != 1 ? "s" : ""));
+        }
+        getLog().info("The bundle matches the integrity manifest (" + (System.currentTimeMillis() - start) + " ms)");
+    }
+
+    /**
+     * Compares a bundle with an integrity manifest.
+     *
+     * @param bundle the <code>.app</code> directory
+     * @param manifestFile the integrity manifest
+     * @param threads how many files to hash at the same time
+     * @return the differences, empty if the bundle matches
+     * @throws IOException If the manifest is damaged or cut short, or the
+     * bundle cannot be read.
+     */
+    static List<String> verify(File bundle, File manifestFile, int threads) throws IOException {
+        BundleManifest expected = DeltaApplier.readManifest(manifestFile);
+        if (!expected.isSealed()) {
+            throw new IOException("The integrity manifest " + manifestFile + " does not end with its digest");
+        }
+        return expected.compare(BundleManifest.create(bundle, threads, null, false));
+    }
+
+    /**
+     * The <code>.app</code> directory to check.
+     */
+    private File getTargetBundle() throws MojoExecutionException {
+        File bundle = getBundleDirectory();
+        if (verifyTarget != null) {
+            File nested = new File(verifyTarget, bundle.getName());
+            bundle = nested.isDirectory() ? nested : verifyTarget;
+        }
+        if (!bundle.isDirectory()) {
+            throw new MojoExecutionException("The bundle " + bundle + " does not exist");
+        }
+        return bundle;
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Builds the Application Bundle and keeps it up to date while the project is
+ * being worked on. <br/><br/>
+ * The project artifact (or the compiled classes when
+ * <code>explodedClasses</code> is set), the <code>additionalResources</code>, the
+ * <code>additionalBundledClasspathResources</code> and a custom
+ * <code>Info.plist</code> template are watched for changes, and only the
+ * affected parts of the bundle are updated. Native libraries are extracted
+ * again when the project artifact changes. Only the files that were copied
+ * are thinned and linked into the bundle variants. The goal runs until Maven
+ * is interrupted.
+ *
+ * @goal watch
+ * @requiresDependencyResolution runtime
+ */
+public class WatchApplicationBundleMojo extends CreateApplicationBundleMojo {
+
+    /**
+     * How long to wait for further changes before updating the bundle, in
+     * milliseconds. Saving many files at once then results in one update.
+     *
+     * @parameter default-value="100"
+     */
+    private long watchQuietPeriod;
+
+    /**
+     * The parts of the bundle that can be updated independently.
+     */
+    private enum Update {
+        PROJECT_ARTIFACT, PROJECT_CLASSES, CLASSPATH_RESOURCES, ADDITIONAL_RESOURCES, INFO_PLIST
+    }
+
+    private WatchService watcher;
+
+    private final Map<WatchKey, Registration> registrations = new HashMap<WatchKey, Registration>();
+
+    private List<String> classPath;
+
+    /**
+     * Creates the bundle and updates it on every change until interrupted.
+     *
+     * @throws MojoExecutionException If the initial bundle cannot be created
+     * or the file system cannot be watched.
+     */
+    @Override
+    public void execute() throws MojoExecutionException {
+        // the bundle will diverge from the last full build
+        getFingerprintFile().delete();
+        createBundle();
+        recordCopies();
+        takeChangedFiles();
+
+        classPath = getDependencyPaths();
+        classPath.addAll(copyAdditionalBundledClasspathResources(getJavaDirectory()));
+
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            try {
+                registerAll();
+                getLog().info("Watching for changes, press Ctrl+C to stop");
+                watch();
+            } finally {
+                watcher.close();
+            }
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Could not watch the project for changes", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void registerAll() throws IOException, MojoExecutionException {
+        if (isExplodedClasses()) {
+            if (getClassesDirectory().isDirectory()) {
+                register(getClassesDirectory().toPath(), null, Update.PROJECT_CLASSES, true);
+            }
+        } else {
+            File artifactFile = getProject().getArtifact().getFile();
+            if (artifactFile == null) {
+                throw new MojoExecutionException("The project has no artifact to watch, package the project first or set explodedClasses");
+            }
+            register(artifactFile.getAbsoluteFile().getParentFile().toPath(), artifactFile.getName(), Update.PROJECT_ARTIFACT, false);
+        }
+
+        File template = getDictionaryTemplateFile();
+        if (template != null) {
+            register(template.getAbsoluteFile().getParentFile().toPath(), template.getName(), Update.INFO_PLIST, false);
+        }
+
+        registerFileSets(getAdditionalResources(), Update.ADDITIONAL_RESOURCES);
+        registerFileSets(getAdditionalBundledClasspathResources(), Update.CLASSPATH_RESOURCES);
+    }
+
+    private void registerFileSets(List<FileSet> fileSets, Update update) throws IOException {
+        if (fileSets == null) {
+            return;
+        }
+        for (FileSet fileSet : fileSets) {
+            File sourceDirectory = getSourceDirectory(fileSet);
+            if (sourceDirectory.isDirectory()) {
+                register(sourceDirectory.toPath(), null, update, true);
+            }
+        }
+    }
+
+    /**
+     * Registers a directory, and with <code>recursive</code> all of its
+     * subdirectories, since a WatchService only reports direct children.
+     */
+    private void register(Path directory, final String fileName, final Update update, final boolean recursive) throws IOException {
+        if (!recursive) {
+            registerDirectory(directory, new Registration(directory, fileName, update, false));
+            return;
+        }
+
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                registerDirectory(dir, new Registration(dir, fileName, update, true));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void registerDirectory(Path directory, Registration registration) throws IOException {
+        WatchKey key = directory.register(watcher, new WatchEvent.Kind<?>[] {
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY,
+            StandardWatchEventKinds.ENTRY_DELETE
+        }, sensitivity());
+        registrations.put(key, registration);
+    }
+
+    private void watch() throws InterruptedException {
+        while (true) {
+            WatchKey key = watcher.take();
+
+            // collect everything that changes within the quiet period
+            Set<Update> updates = EnumSet.noneOf(Update.class);
+            while (key != null) {
+                collect(key, updates);
+                key = watcher.poll(watchQuietPeriod, TimeUnit.MILLISECONDS);
+            }
+
+            if (!updates.isEmpty()) {
+                apply(updates);
+            }
+        }
+    }
+
+    private void collect(WatchKey key, Set<Update> updates) {
+        Registration registration = registrations.get(key);
+        if (registration == null) {
+            key.cancel();
+            return;
+        }
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                updates.add(registration.update);
+                continue;
+            }
+
+            Path name = (Path) event.context();
+            if (registration.fileName != null && !registration.fileName.equals(name.toString())) {
+                continue;
+            }
+
+            Path child = registration.directory.resolve(name);
+            if (registration.recursive && event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                try {
+                    register(child, registration.fileName, registration.update, true);
+                } catch (IOException ex) {
+                    getLog().warn("Could not watch new directory " + child, ex);
+                }
+            }
+            updates.add(registration.update);
+        }
+
+        if (!key.reset()) {
+            registrations.remove(key);
+        }
+    }
+
+    private void apply(Set<Update> updates) {
+        long start = System.currentTimeMillis();
+        try {
+            if (updates.contains(Update.PROJECT_ARTIFACT)) {
+                getLog().info("Project artifact changed");
+                copyProjectArtifact(getJavaDirectory());
+
+                // the artifact may bring its own native libraries
+                List<String> options = getNativeLibraryJvmOptions();
+                extractNativeLibraries(getJavaDirectory(), getDependencyPaths());
+                if (!options.equals(getNativeLibraryJvmOptions())) {
+                    updates.add(Update.INFO_PLIST);
+                }
+            }
+            if (updates.contains(Update.PROJECT_CLASSES)) {
+                copyProjectClasses(getJavaDirectory());
+            }
+            if (updates.contains(Update.CLASSPATH_RESOURCES)) {
+                List<String> updated = getDependencyPaths();
+                updated.addAll(copyAdditionalBundledClasspathResources(getJavaDirectory()));
+                if (!updated.equals(classPath)) {
+                    classPath = updated;
+                    updates.add(Update.INFO_PLIST);
+                }
+            }
+            if (updates.contains(Update.ADDITIONAL_RESOURCES)) {
+                copyAdditionalResources();
+            }
+            if (updates.contains(Update.INFO_PLIST)) {
+                getLog().info("Writing the Info.plist file");
+                writeInfoPlist(getInfoPlistFile(), new ArrayList<String>(classPath));
+            }
+            // only what was copied or removed above needs thinning and linking
+            Set<File> changed = takeChangedFiles();
+            if (isThinning() && !changed.isEmpty()) {
+                thinBinaries(changed);
+            }
+            recordCopies();
+            if (hasVariants()) {
+                updateVariants(getBundleDirectory(), new ArrayList<String>(classPath), changed, updates.contains(Update.INFO_PLIST));
+            }
+            getLog().info("Bundle updated in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (MojoExecutionException ex) {
+            // a file may still be in the middle of being written, keep watching
+            getLog().error("Could not update the bundle: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * The JDK falls back to a polling watch service on some platforms, Mac OS
+     * X included, which only notices changes every ten seconds by default. Ask
+     * for the highest sensitivity where that is supported.
+     */
+    private static WatchEvent.Modifier[] sensitivity() {
+        try {
+            Class<?> modifiers = Class.forName("com.sun.nio.file.SensitivityWatchEventModifier");
+            return new WatchEvent.Modifier[] {(WatchEvent.Modifier) modifiers.getField("HIGH").get(null)};
+        } catch (Exception ex) {
+            return new WatchEvent.Modifier[0];
+        }
+    }
+
+    /**
+     * What a registered directory is watched for.
+     */
+    private static class Registration {
+
+        private final Path directory;
+
+        private final String fileName;
+
+        private final Update update;
+
+        private final boolean recursive;
+
+        Registration(Path directory, String fileName, Update update, boolean recursive) {
+            this.directory = directory;
+            this.fileName = fileName;
+            this.update = update;
+            this.recursive = recursive;
+        }
+    }
+}
@@ -0,0 +1,543 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.delta;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import sh.tak.appbundler.util.Digests;
+import sh.tak.appbundler.util.RecordedDigests;
+
+/**
+ * Describes every file, directory and symbolic link of a bundle: its path,
+ * mode and, for files, size and SHA-256 digest. For jars it also lists the
+ * digests of their entries, see {@link ZipSegments}.
+ * <p/>
+ * The manifest is a text file with one tab separated line per entry:
+ * <pre>
+ * D  mode  path
+ * F  sha256  size  mode  path
+ * Z  sha256  offset  length        (a range of the preceding jar)
+ * L  target  path
+ * </pre>
+ * The last line holds the SHA-256 digest of all lines before it, so a manifest
+ * that was damaged or cut short by accident is rejected when it is read. The
+ * digest is not keyed and does not protect against deliberate changes, which
+ * need a signature of the whole file.
+ */
+public class BundleManifest {
+
+    private static final String HEADER = "# appbundle manifest v1";
+
+    private static final String SEAL = "# sha256 ";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final PosixFilePermission[] PERMISSIONS = {
+        PosixFilePermission.OTHERS_EXECUTE, PosixFilePermission.OTHERS_WRITE, PosixFilePermission.OTHERS_READ,
+        PosixFilePermission.GROUP_EXECUTE, PosixFilePermission.GROUP_WRITE, PosixFilePermission.GROUP_READ,
+        PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_READ
+    };
+
+    private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+
+    private boolean sealed;
+
+    /**
+     * Describes a bundle on disk, including the ranges of its jars.
+     *
+     * @param root the bundle directory
+     * @return the manifest
+     * @throws IOException if the bundle cannot be read
+     */
+    public static BundleManifest create(File root) throws IOException {
+        return create(root, Runtime.getRuntime().availableProcessors(), null, true);
+    }
+
+    /**
+     * Describes a bundle on disk. The files are hashed in parallel, large
+     * ones straight from memory mapped pages.
+     *
+     * @param root the bundle directory
+     * @param threads how many files to hash at the same time
+     * @param recorded digests computed while the files were written, which
+     * are used instead of reading the files again; may be null
+     * @param jarRanges whether to describe the ranges of jars as well, which
+     * needs every jar to be read
+     * @return the manifest
+     * @throws IOException if the bundle cannot be read
+     */
+    public static BundleManifest create(File root, int threads, final RecordedDigests recorded, final boolean jarRanges) throws IOException {
+        final Path rootPath = root.toPath();
+        final BundleManifest manifest = new BundleManifest();
+        final Map<String, Path> files = new TreeMap<String, Path>();
+
+        Files.walkFileTree(rootPath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(rootPath)) {
+                    manifest.add(Entry.directory(path(rootPath, dir), mode(dir)));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String path = path(rootPath, file);
+                if (attrs.isSymbolicLink()) {
+                    manifest.add(Entry.link(path, Files.readSymbolicLink(file).toString()));
+                } else {
+                    files.put(path, file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files.size())));
+        try {
+            List<Future<Entry>> entries = new ArrayList<Future<Entry>>();
+            for (final Map.Entry<String, Path> file : files.entrySet()) {
+                entries.add(executor.submit(new Callable<Entry>() {
+                    @Override
+                    public Entry call() throws IOException {
+                        return describe(file.getKey(), file.getValue().toFile(), recorded, jarRanges);
+                    }
+                }));
+            }
+            for (Future<Entry> entry : entries) {
+                manifest.add(entry.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while hashing " + root);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException("Could not hash the files of " + root, ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return manifest;
+    }
+
+    private static String path(Path root, Path file) {
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private static Entry describe(String path, File file, RecordedDigests recorded, boolean jarRanges) throws IOException {
+        if (!jarRanges || !path.endsWith(".jar")) {
+            // read the size before the digest, a file changing meanwhile then fails verification
+            long size = file.length();
+            String sha256 = recorded != null ? recorded.get(file) : null;
+            if (sha256 == null) {
+                sha256 = Digests.sha256Mapped(file);
+            }
+            return Entry.file(path, sha256, size, mode(file.toPath()));
+        }
+        return describeJar(path, file);
+    }
+
+    /**
+     * Hashes a jar in one pass, and each of its ranges.
+     */
+    private static Entry describeJar(String path, File file) throws IOException {
+        List<long[]> ranges = null;
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            ranges = ZipSegments.split(in);
+            long length = in.length();
+            if (ranges == null) {
+                ranges = Collections.singletonList(new long[] {0, length});
+            }
+
+            MessageDigest fileDigest = Digests.newSha256();
+            List<Segment> segments = new ArrayList<Segment>();
+            byte[] buffer = new byte[65536];
+            in.seek(0);
+            for (long[] range : ranges) {
+                MessageDigest segmentDigest = Digests.newSha256();
+                long remaining = range[1];
+                while (remaining > 0) {
+                    int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (n < 0) {
+                        throw new IOException("Unexpected end of " + file);
+                    }
+                    fileDigest.update(buffer, 0, n);
+                    segmentDigest.update(buffer, 0, n);
+                    remaining -= n;
+                }
+                segments.add(new Segment(Digests.toHex(segmentDigest.digest()), range[0], range[1]));
+            }
+
+            Entry entry = Entry.file(path, Digests.toHex(fileDigest.digest()), length, mode(file.toPath()));
+            if (ranges.size() > 1) {
+                entry.segments.addAll(segments);
+            }
+            return entry;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads a manifest.
+     *
+     * @param reader the manifest
+     * @return the manifest
+     * @throws IOException if the manifest cannot be read or is invalid
+     */
+    public static BundleManifest read(Reader reader) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        String line = lines.readLine();
+        if (!HEADER.equals(line)) {
+            throw new IOException("Not a bundle manifest");
+        }
+
+        BundleManifest manifest = new BundleManifest();
+        MessageDigest digest = Digests.newSha256();
+        update(digest, line);
+        Entry last = null;
+        try {
+            while ((line = lines.readLine()) != null) {
+                if (manifest.sealed) {
+                    throw new IOException("Bundle manifest continues after its digest");
+                }
+                if (line.startsWith(SEAL)) {
+                    if (!line.substring(SEAL.length()).equals(Digests.toHex(digest.digest()))) {
+                        throw new IOException("The bundle manifest is damaged, it does not match its digest");
+                    }
+                    manifest.sealed = true;
+                    continue;
+                }
+                update(digest, line);
+                if (line.length() == 0) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                switch (line.charAt(0)) {
+                    case 'D':
+                        manifest.add(Entry.directory(fields[2], fields[1]));
+                        break;
+                    case 'F':
+                        last = Entry.file(fields[4], fields[1], Long.parseLong(fields[2]), fields[3]);
+                        manifest.add(last);
+                        break;
+                    case 'Z':
+                        if (last == null) {
+                            throw new IOException("Jar range without a jar in bundle manifest");
+                        }
+                        last.segments.add(new Segment(fields[1], Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+                        break;
+                    case 'L':
+                        manifest.add(Entry.link(fields[2], fields[1]));
+                        break;
+                    default:
+                        throw new IOException("Invalid line in bundle manifest: " + line);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            throw new IOException("Truncated line in bundle manifest", ex);
+        } catch (NumberFormatException ex) {
+            throw new IOException("Invalid number in bundle manifest", ex);
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes this manifest.
+     *
+     * @param writer where to write to
+     * @throws IOException if writing fails
+     */
+    public void write(Writer writer) throws IOException {
+        MessageDigest digest = Digests.newSha256();
+        writeLine(writer, digest, HEADER);
+        for (Entry entry : entries.values()) {
+            switch (entry.type) {
+                case DIRECTORY:
+                    writeLine(writer, digest, "D\t" + entry.mode + "\t" + entry.path);
+                    break;
+                case LINK:
+                    writeLine(writer, digest, "L\t" + entry.target + "\t" + entry.path);
+                    break;
+                default:
+                    writeLine(writer, digest, "F\t" + entry.sha256 + "\t" + entry.size + "\t" + entry.mode + "\t" + entry.path);
+                    for (Segment segment : entry.segments) {
+                        writeLine(writer, digest, "Z\t" + segment.sha256 + "\t" + segment.offset + "\t" + segment.length);
+                    }
+            }
+        }
+        writer.write(SEAL + Digests.toHex(digest.digest()) + "\n");
+    }
+
+    private static void writeLine(Writer writer, MessageDigest digest, String line) throws IOException {
+        update(digest, line);
+        writer.write(line);
+        writer.write('\n');
+    }
+
+    private static void update(MessageDigest digest, String line) {
+        digest.update((line + "\n").getBytes(UTF_8));
+    }
+
+    /**
+     * Compares a bundle with this manifest.
+     *
+     * @param actual the manifest of the bundle as it is on disk
+     * @return the differences, empty if the bundle matches
+     */
+    public List<String> compare(BundleManifest actual) {
+        List<String> problems = new ArrayList<String>();
+        for (Entry entry : entries.values()) {
+            Entry found = actual.get(entry.getPath());
+            if (found == null) {
+                problems.add(entry.getPath() + " is missing");
+            } else if (found.getType() != entry.getType()) {
+                problems.add(entry.getPath() + " should be a " + entry.getType().name().toLowerCase(Locale.ROOT));
+            } else if (entry.getType() == Type.FILE && entry.getSize() != found.getSize()) {
+                problems.add(entry.getPath() + " has " + found.getSize() + " bytes instead of " + entry.getSize());
+            } else if (entry.getType() == Type.FILE && !entry.getSha256().equals(found.getSha256())) {
+                problems.add(entry.getPath() + " has the wrong content");
+            } else if (entry.getType() == Type.LINK && !entry.getTarget().equals(found.getTarget())) {
+                problems.add(entry.getPath() + " points to " + found.getTarget() + " instead of " + entry.getTarget());
+            } else if (entry.getMode() != null && !entry.getMode().equals(found.getMode())) {
+                problems.add(entry.getPath() + " has mode " + found.getMode() + " instead of " + entry.getMode());
+            }
+        }
+        for (Entry entry : actual.getEntries()) {
+            if (get(entry.getPath()) == null) {
+                problems.add(entry.getPath() + " is not part of the bundle");
+            }
+        }
+        return problems;
+    }
+
+    void add(Entry entry) {
+        entries.put(entry.path, entry);
+    }
+
+    /**
+     * The entries, parents before their children.
+     *
+     * @return the entries
+     */
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * Tells whether this manifest was read from a file that ends with the
+     * digest of its content.
+     *
+     * @return true if the manifest was sealed
+     */
+    public boolean isSealed() {
+        return sealed;
+    }
+
+    /**
+     * The mode of a file as octal string, like <code>755</code>.
+     */
+    static String mode(Path file) throws IOException {
+        if (Files.getFileAttributeView(file, PosixFileAttributeView.class) == null) {
+            return file.toFile().canExecute() ? "755" : "644";
+        }
+        Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(file);
+        int mode = 0;
+        for (int i = 0; i < PERMISSIONS.length; i++) {
+            if (permissions.contains(PERMISSIONS[i])) {
+                mode |= 1 << i;
+            }
+        }
+        return Integer.toOctalString(mode);
+    }
+
+    /**
+     * Sets the mode of a file, or only whether it is executable where there
+     * are no POSIX permissions.
+     */
+    static void applyMode(Path file, String mode) throws IOException {
+        int bits = Integer.parseInt(mode, 8);
+        if (Files.getFileAttributeView(file, PosixFileAttributeView.class) == null) {
+            file.toFile().setExecutable((bits & 0100) != 0, false);
+            return;
+        }
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        for (int i = 0; i < PERMISSIONS.length; i++) {
+            if ((bits & (1 << i)) != 0) {
+                permissions.add(PERMISSIONS[i]);
+            }
+        }
+        Files.setPosixFilePermissions(file, permissions);
+    }
+
+    /**
+     * Hashes a stream.
+     */
+    static String sha256(InputStream in) throws IOException {
+        MessageDigest digest = Digests.newSha256();
+        byte[] buffer = new byte[65536];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, n);
+        }
+        return Digests.toHex(digest.digest());
+    }
+
+    /**
+     * What kind of entry.
+     */
+    public enum Type {
+        DIRECTORY, FILE, LINK
+    }
+
+    /**
+     * A file, directory or symbolic link of a bundle.
+     */
+    public static final class Entry {
+
+        private final Type type;
+
+        private final String path;
+
+        private final String mode;
+
+        private final String sha256;
+
+        private final long size;
+
+        private final String target;
+
+        private final List<Segment> segments = new ArrayList<Segment>();
+
+        private Entry(Type type, String path, String mode, String sha256, long size, String target) {
+            this.type = type;
+            this.path = path;
+            this.mode = mode;
+            this.sha256 = sha256;
+            this.size = size;
+            this.target = target;
+        }
+
+        static Entry directory(String path, String mode) {
+            return new Entry(Type.DIRECTORY, path, mode, null, 0, null);
+        }
+
+        static Entry file(String path, String sha256, long size, String mode) {
+            return new Entry(Type.FILE, path, mode, sha256, size, null);
+        }
+
+        static Entry link(String path, String target) {
+            return new Entry(Type.LINK, path, null, null, 0, target);
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getMode() {
+            return mode;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        /**
+         * The ranges of a jar, empty for other files.
+         *
+         * @return the ranges
+         */
+        public List<Segment> getSegments() {
+            return Collections.unmodifiableList(segments);
+        }
+    }
+
+    /**
+     * A contiguous byte range of a jar.
+     */
+    public static final class Segment {
+
+        private final String sha256;
+
+        private final long offset;
+
+        private final long length;
+
+        Segment(String sha256, long offset, long length) {
+            this.sha256 = sha256;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+    }
+}
@@ -0,0 +1,496 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.delta;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import sh.tak.appbundler.util.Digests;
+
+/**
+ * Applies a delta package written by {@link DeltaWriter} and verifies
+ * bundles against their manifest. Needs nothing but a JRE:
+ * <pre>
+ * java -cp appbundle-maven-plugin.jar sh.tak.appbundler.delta.DeltaApplier apply Old.app update.zip New.app
+ * java -cp appbundle-maven-plugin.jar sh.tak.appbundler.delta.DeltaApplier verify New.app update.zip
+ * </pre>
+ * A delta package is not trusted: every path it names must stay inside the
+ * bundle, files are never written through an existing file or link, and
+ * symbolic links are only created once all files have been written. The new
+ * bundle is put together in a temporary directory next to it and only moved
+ * into place once it matches its manifest.
+ */
+public final class DeltaApplier {
+
+    private DeltaApplier() {
+    }
+
+    /**
+     * Command line entry point.
+     *
+     * @param args <code>apply old-bundle delta new-bundle</code> or
+     * <code>verify bundle manifest-or-delta</code>
+     */
+    public static void main(String[] args) {
+        try {
+            if (args.length == 4 && "apply".equals(args[0])) {
+                apply(new File(args[1]), new File(args[2]), new File(args[3]));
+                System.out.println("Created " + args[3]);
+            } else if (args.length == 3 && "verify".equals(args[0])) {
+                List<String> problems = verify(new File(args[1]), readManifest(new File(args[2])));
+                for (String problem : problems) {
+                    System.err.println(problem);
+                }
+                if (!problems.isEmpty()) {
+                    System.exit(1);
+                }
+                System.out.println(args[1] + " is intact");
+            } else {
+                System.err.println("Usage: DeltaApplier apply <old bundle> <delta> <new bundle>");
+                System.err.println("       DeltaApplier verify <bundle> <manifest or delta>");
+                System.exit(2);
+            }
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Creates the new version of a bundle.
+     *
+     * @param oldBundle the bundle the delta was made for
+     * @param delta the delta package
+     * @param newBundle where to create the new bundle, must not exist
+     * @throws IOException if the delta cannot be applied, is malformed, names
+     * a path outside the bundle or the result does not match the manifest of
+     * the new bundle; nothing is left behind then
+     */
+    public static void apply(File oldBundle, File delta, File newBundle) throws IOException {
+        if (newBundle.exists()) {
+            throw new IOException(newBundle + " already exists");
+        }
+        if (!oldBundle.isDirectory()) {
+            throw new IOException(oldBundle + " is no bundle directory");
+        }
+
+        File parent = newBundle.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        Path temp = Files.createTempDirectory(parent.toPath(), "." + newBundle.getName() + "-");
+        try {
+            try {
+                // temporary directories are private, a bundle is not
+                Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("rwxr-xr-x"));
+            } catch (UnsupportedOperationException ex) {
+                // no POSIX permissions to set
+            }
+            createBundle(oldBundle, delta, temp.toFile());
+            Files.move(temp, newBundle.toPath());
+        } finally {
+            if (Files.exists(temp, LinkOption.NOFOLLOW_LINKS)) {
+                deleteTree(temp);
+            }
+        }
+    }
+
+    /**
+     * Puts the new bundle together in an empty directory.
+     */
+    private static void createBundle(File oldBundle, File delta, File newBundle) throws IOException {
+        ZipFile zip = new ZipFile(delta);
+        try {
+            BundleManifest manifest = BundleManifest.read(text(zip, "manifest"));
+            if (!manifest.isSealed()) {
+                throw new IOException("The manifest of the delta is not sealed, it may have been cut short");
+            }
+            Map<String, String> sources = readPairs(zip, "sources");
+            Map<String, String[]> instructions = new HashMap<String, String[]>();
+            BufferedReader lines = new BufferedReader(text(zip, "instructions"));
+            String line;
+            while ((line = lines.readLine()) != null) {
+                String[] fields = line.split("\t", 3);
+                if (fields.length != 3) {
+                    throw new IOException("Invalid instruction in the delta: " + line);
+                }
+                instructions.put(fields[2], fields);
+            }
+
+            Path root = newBundle.toPath().toRealPath();
+            Path oldRoot = oldBundle.toPath().toRealPath();
+            List<BundleManifest.Entry> directories = new ArrayList<BundleManifest.Entry>();
+            List<BundleManifest.Entry> links = new ArrayList<BundleManifest.Entry>();
+            for (BundleManifest.Entry entry : manifest.getEntries()) {
+                Path target = resolve(root, entry.getPath());
+                switch (entry.getType()) {
+                    case DIRECTORY:
+                        Files.createDirectories(target);
+                        directories.add(entry);
+                        break;
+                    case LINK:
+                        // after all files, so that nothing is written through a link
+                        links.add(entry);
+                        break;
+                    default:
+                        String[] instruction = instructions.get(entry.getPath());
+                        if (instruction == null) {
+                            throw new IOException("The delta has no instruction for " + entry.getPath());
+                        }
+                        create(instruction[0], entry.getSha256(), target, oldRoot, zip, sources);
+                        BundleManifest.applyMode(target, entry.getMode());
+                }
+            }
+            for (BundleManifest.Entry entry : links) {
+                Path target = resolve(root, entry.getPath());
+                Path parent = target.getParent().toRealPath();
+                if (!parent.startsWith(root) || !isInside(root, parent, entry.getTarget())) {
+                    throw new IOException("The delta contains a link that points out of the bundle: " + entry.getPath());
+                }
+                Files.createSymbolicLink(target, Paths.get(entry.getTarget()));
+            }
+            // last, in case a directory is not writable
+            for (int i = directories.size() - 1; i >= 0; i--) {
+                BundleManifest.Entry entry = directories.get(i);
+                BundleManifest.applyMode(resolve(root, entry.getPath()), entry.getMode());
+            }
+
+            List<String> problems = verify(newBundle, manifest);
+            if (!problems.isEmpty()) {
+                throw new IOException("The new bundle does not match its manifest: " + problems);
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static void create(String operation, String sha256, Path target, Path oldBundle, ZipFile zip, Map<String, String> sources) throws IOException {
+        Files.createDirectories(target.getParent());
+        OutputStream out;
+        try {
+            // never through a link or over a file written before
+            out = new BufferedOutputStream(Files.newOutputStream(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+        } catch (FileAlreadyExistsException ex) {
+            throw new IOException("The delta writes " + target + " more than once", ex);
+        }
+        try {
+            if ("C".equals(operation)) {
+                File source = oldFile(oldBundle, sources, sha256);
+                InputStream in = new FileInputStream(source);
+                try {
+                    copy(in, Long.MAX_VALUE, out, sha256, source.toString());
+                } finally {
+                    in.close();
+                }
+            } else if ("N".equals(operation)) {
+                InputStream in = entry(zip, "data/" + sha256);
+                try {
+                    copy(in, Long.MAX_VALUE, out, sha256, "data/" + sha256);
+                } finally {
+                    in.close();
+                }
+            } else if ("J".equals(operation)) {
+                assemble(sha256, out, oldBundle, zip, sources);
+            } else {
+                throw new IOException("Unknown delta instruction " + operation);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Puts a jar together from ranges of old files and new bytes.
+     */
+    private static void assemble(String sha256, OutputStream out, Path oldBundle, ZipFile zip, Map<String, String> sources) throws IOException {
+        Map<String, RandomAccessFile> oldFiles = new HashMap<String, RandomAccessFile>();
+        InputStream literals = entry(zip, "literals/" + sha256);
+        try {
+            BufferedReader plan = new BufferedReader(text(zip, "jars/" + sha256));
+            String line;
+            while ((line = plan.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if ("O".equals(fields[0]) && fields.length == 5) {
+                    RandomAccessFile old = oldFiles.get(fields[1]);
+                    if (old == null) {
+                        old = new RandomAccessFile(oldFile(oldBundle, sources, fields[1]), "r");
+                        oldFiles.put(fields[1], old);
+                    }
+                    old.seek(parseLength(fields[2], line));
+                    copy(new RandomAccessFileStream(old), parseLength(fields[3], line), out, fields[4], sources.get(fields[1]));
+                } else if ("L".equals(fields[0]) && fields.length == 3) {
+                    copy(literals, parseLength(fields[2], line), out, null, "literals/" + sha256);
+                } else {
+                    throw new IOException("Invalid line in the plan of jar " + sha256 + " in the delta: " + line);
+                }
+            }
+        } finally {
+            literals.close();
+            for (RandomAccessFile old : oldFiles.values()) {
+                old.close();
+            }
+        }
+    }
+
+    private static File oldFile(Path oldBundle, Map<String, String> sources, String sha256) throws IOException {
+        String path = sources.get(sha256);
+        if (path == null) {
+            throw new IOException("The delta refers to an unknown file " + sha256);
+        }
+        Path file = resolve(oldBundle, path);
+        if (!Files.isRegularFile(file)) {
+            throw new IOException(file + " is missing, the delta was made for another version of the bundle");
+        }
+        // a link in the old bundle must not lead the delta out of it either
+        if (!file.toRealPath().startsWith(oldBundle)) {
+            throw new IOException("The delta refers to a file outside of " + oldBundle + ": " + path);
+        }
+        return file.toFile();
+    }
+
+    /**
+     * Resolves a path named by a delta against a bundle directory.
+     *
+     * @param root the bundle directory, a real path
+     * @param path the relative path, separated by '/'
+     * @return the file
+     * @throws IOException if the path is invalid or leads out of the bundle
+     */
+    private static Path resolve(Path root, String path) throws IOException {
+        if (!isSafe(path)) {
+            throw new IOException("The delta contains an invalid path: " + path);
+        }
+        Path resolved = root.resolve(path).normalize();
+        if (!resolved.startsWith(root) || resolved.equals(root)) {
+            throw new IOException("The delta contains a path outside the bundle: " + path);
+        }
+        return resolved;
+    }
+
+    /**
+     * Tells whether the relative target of a link stays inside the bundle.
+     */
+    private static boolean isInside(Path root, Path directory, String target) {
+        if (target.length() == 0 || hasControlCharacters(target) || target.startsWith("/") || target.indexOf('\\') >= 0
+                || Paths.get(target).isAbsolute()) {
+            return false;
+        }
+        return directory.resolve(target).normalize().startsWith(root);
+    }
+
+    /**
+     * A relative path without <code>..</code> segments and without the
+     * characters that separate the fields and lines of a manifest.
+     */
+    private static boolean isSafe(String path) {
+        if (path.length() == 0 || hasControlCharacters(path) || path.startsWith("/") || path.indexOf('\\') >= 0
+                || Paths.get(path).isAbsolute()) {
+            return false;
+        }
+        for (String segment : path.split("/", -1)) {
+            if (segment.length() == 0 || segment.equals(".") || segment.equals("..")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasControlCharacters(String path) {
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '\t' || c == '\n' || c == '\r' || c == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies bytes and checks their digest, if one is given.
+     */
+    private static void copy(InputStream in, long length, OutputStream out, String sha256, String source) throws IOException {
+        MessageDigest digest = Digests.newSha256();
+        byte[] buffer = new byte[65536];
+        long remaining = length;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n < 0) {
+                if (length == Long.MAX_VALUE) {
+                    break;
+                }
+                throw new IOException("Unexpected end of " + source);
+            }
+            digest.update(buffer, 0, n);
+            out.write(buffer, 0, n);
+            remaining -= n;
+        }
+        if (sha256 != null && !sha256.equals(Digests.toHex(digest.digest()))) {
+            throw new IOException(source + " has changed, the delta was made for another version of the bundle");
+        }
+    }
+
+    /**
+     * Compares a bundle with a manifest.
+     *
+     * @param bundle the bundle directory
+     * @param expected the manifest
+     * @return the differences, empty if the bundle matches
+     * @throws IOException if the bundle cannot be read
+     */
+    public static List<String> verify(File bundle, BundleManifest expected) throws IOException {
+        return expected.compare(BundleManifest.create(bundle));
+    }
+
+    /**
+     * Reads a manifest file, or the manifest of a delta package.
+     *
+     * @param file the manifest or delta package
+     * @return the manifest
+     * @throws IOException if the file cannot be read
+     */
+    public static BundleManifest readManifest(File file) throws IOException {
+        if (file.getName().endsWith(".zip")) {
+            ZipFile zip = new ZipFile(file);
+            try {
+                return BundleManifest.read(text(zip, "manifest"));
+            } finally {
+                zip.close();
+            }
+        }
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            return BundleManifest.read(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static Map<String, String> readPairs(ZipFile zip, String name) throws IOException {
+        Map<String, String> pairs = new HashMap<String, String>();
+        BufferedReader lines = new BufferedReader(text(zip, name));
+        String line;
+        while ((line = lines.readLine()) != null) {
+            String[] fields = line.split("\t", 2);
+            if (fields.length != 2) {
+                throw new IOException("Invalid line in the " + name + " of the delta: " + line);
+            }
+            pairs.put(fields[0], fields[1]);
+        }
+        return pairs;
+    }
+
+    /**
+     * Parses an offset or length of a jar plan.
+     */
+    private static long parseLength(String value, String line) throws IOException {
+        try {
+            long length = Long.parseLong(value);
+            if (length >= 0) {
+                return length;
+            }
+        } catch (NumberFormatException ex) {
+            // reported below
+        }
+        throw new IOException("Invalid number in the delta: " + line);
+    }
+
+    /**
+     * Removes what a failed apply left behind, without following links.
+     */
+    private static void deleteTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                // the modes of the manifest may have made it read-only
+                dir.toFile().setWritable(true);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static Reader text(ZipFile zip, String name) throws IOException {
+        return new InputStreamReader(entry(zip, name), "UTF-8");
+    }
+
+    private static InputStream entry(ZipFile zip, String name) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        if (entry == null) {
+            throw new IOException("The delta has no " + name);
+        }
+        return zip.getInputStream(entry);
+    }
+
+    /**
+     * Reads from the current position of a file.
+     */
+    private static final class RandomAccessFileStream extends InputStream {
+
+        private final RandomAccessFile file;
+
+        RandomAccessFileStream(RandomAccessFile file) {
+            this.file = file;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return file.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return file.read(b, off, len);
+        }
+    }
+}
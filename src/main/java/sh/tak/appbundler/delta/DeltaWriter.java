@@ -0,0 +1,233 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.delta;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Creates a delta package that turns one version of a bundle into the next.
+ * <p/>
+ * The package is a zip file with these entries:
+ * <ul>
+ * <li><code>manifest</code>: the {@link BundleManifest} of the new bundle</li>
+ * <li><code>sources</code>: <code>sha256 TAB path</code> of every file of
+ * the old bundle the delta refers to</li>
+ * <li><code>instructions</code>: one line per file of the new bundle,
+ * <code>C</code> to copy an old file with the same digest, <code>N</code> to
+ * take the file from <code>data/sha256</code>, <code>J</code> to assemble a
+ * jar as described by <code>jars/sha256</code></li>
+ * <li><code>jars/sha256</code>: the ranges of a jar, <code>O</code> to copy
+ * a range of an old file, <code>L</code> to take the next bytes from
+ * <code>literals/sha256</code></li>
+ * </ul>
+ * Jar entries that did not change are copied from the old jars byte by byte,
+ * so assembled jars are identical to the new ones. Entries are matched on
+ * their compressed data, see {@link ZipSegments}; the local headers come from
+ * the new jar, so rebuilt jars with other timestamps still share their
+ * unchanged entries.
+ */
+public class DeltaWriter {
+
+    private long copiedBytes;
+
+    private long literalBytes;
+
+    private int copiedFiles;
+
+    private int literalFiles;
+
+    private int assembledJars;
+
+    /**
+     * Writes a delta package.
+     *
+     * @param previous the manifest of the old bundle
+     * @param current the manifest of the new bundle
+     * @param bundle the new bundle directory
+     * @param delta the delta package to write
+     * @throws IOException if the bundle cannot be read or the package cannot
+     * be written
+     */
+    public void write(BundleManifest previous, BundleManifest current, File bundle, File delta) throws IOException {
+        // what the old bundle has to offer
+        Map<String, String> oldFiles = new HashMap<String, String>();
+        Map<String, Object[]> oldSegments = new HashMap<String, Object[]>();
+        for (BundleManifest.Entry entry : previous.getEntries()) {
+            if (entry.getType() != BundleManifest.Type.FILE) {
+                continue;
+            }
+            oldFiles.put(entry.getSha256(), entry.getPath());
+            for (BundleManifest.Segment segment : entry.getSegments()) {
+                oldSegments.put(segment.getSha256(), new Object[] {entry, segment});
+            }
+        }
+
+        Map<String, String> sources = new LinkedHashMap<String, String>();
+        // operation of every content already in the package
+        Map<String, String> written = new HashMap<String, String>();
+
+        delta.getParentFile().mkdirs();
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(delta)));
+        try {
+            StringBuilder instructions = new StringBuilder();
+            for (BundleManifest.Entry entry : current.getEntries()) {
+                if (entry.getType() != BundleManifest.Type.FILE) {
+                    continue;
+                }
+                String sha256 = entry.getSha256();
+                File file = new File(bundle, entry.getPath());
+
+                if (oldFiles.containsKey(sha256)) {
+                    sources.put(sha256, oldFiles.get(sha256));
+                    instructions.append("C\t").append(sha256).append('\t').append(entry.getPath()).append('\n');
+                    copiedFiles++;
+                    copiedBytes += entry.getSize();
+                } else if (written.containsKey(sha256)) {
+                    // the same content at another path of the new bundle
+                    instructions.append(written.get(sha256)).append('\t').append(sha256).append('\t').append(entry.getPath()).append('\n');
+                } else if (reuses(entry, oldSegments)) {
+                    writeJar(zip, entry, file, oldSegments, sources);
+                    instructions.append("J\t").append(sha256).append('\t').append(entry.getPath()).append('\n');
+                    written.put(sha256, "J");
+                    assembledJars++;
+                } else {
+                    zip.putNextEntry(new ZipEntry("data/" + sha256));
+                    copy(file, 0, entry.getSize(), zip);
+                    zip.closeEntry();
+                    instructions.append("N\t").append(sha256).append('\t').append(entry.getPath()).append('\n');
+                    written.put(sha256, "N");
+                    literalFiles++;
+                    literalBytes += entry.getSize();
+                }
+            }
+
+            StringBuilder sourceList = new StringBuilder();
+            for (Map.Entry<String, String> source : sources.entrySet()) {
+                sourceList.append(source.getKey()).append('\t').append(source.getValue()).append('\n');
+            }
+
+            writeText(zip, "sources", sourceList.toString());
+            writeText(zip, "instructions", instructions.toString());
+
+            zip.putNextEntry(new ZipEntry("manifest"));
+            Writer writer = new OutputStreamWriter(zip, "UTF-8");
+            current.write(writer);
+            writer.flush();
+            zip.closeEntry();
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static boolean reuses(BundleManifest.Entry entry, Map<String, Object[]> oldSegments) {
+        for (BundleManifest.Segment segment : entry.getSegments()) {
+            if (oldSegments.containsKey(segment.getSha256())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeJar(ZipOutputStream zip, BundleManifest.Entry entry, File file, Map<String, Object[]> oldSegments, Map<String, String> sources) throws IOException {
+        StringBuilder plan = new StringBuilder();
+        zip.putNextEntry(new ZipEntry("literals/" + entry.getSha256()));
+        long literalOffset = 0;
+        long pending = 0;
+        for (BundleManifest.Segment segment : entry.getSegments()) {
+            Object[] old = oldSegments.get(segment.getSha256());
+            if (old != null) {
+                if (pending > 0) {
+                    plan.append("L\t").append(literalOffset).append('\t').append(pending).append('\n');
+                    literalOffset += pending;
+                    pending = 0;
+                }
+                BundleManifest.Entry oldFile = (BundleManifest.Entry) old[0];
+                BundleManifest.Segment oldSegment = (BundleManifest.Segment) old[1];
+                sources.put(oldFile.getSha256(), oldFile.getPath());
+                plan.append("O\t").append(oldFile.getSha256()).append('\t').append(oldSegment.getOffset()).append('\t')
+                        .append(oldSegment.getLength()).append('\t').append(segment.getSha256()).append('\n');
+                copiedBytes += segment.getLength();
+            } else {
+                // consecutive new ranges become one
+                copy(file, segment.getOffset(), segment.getLength(), zip);
+                pending += segment.getLength();
+                literalBytes += segment.getLength();
+            }
+        }
+        if (pending > 0) {
+            plan.append("L\t").append(literalOffset).append('\t').append(pending).append('\n');
+        }
+        zip.closeEntry();
+        writeText(zip, "jars/" + entry.getSha256(), plan.toString());
+    }
+
+    private static void writeText(ZipOutputStream zip, String name, String text) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(text.getBytes("UTF-8"));
+        zip.closeEntry();
+    }
+
+    private static void copy(File file, long offset, long length, OutputStream out) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.seek(offset);
+            byte[] buffer = new byte[65536];
+            long remaining = length;
+            while (remaining > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n < 0) {
+                    throw new IOException(file + " changed while creating the delta");
+                }
+                out.write(buffer, 0, n);
+                remaining -= n;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    public long getCopiedBytes() {
+        return copiedBytes;
+    }
+
+    public long getLiteralBytes() {
+        return literalBytes;
+    }
+
+    public int getCopiedFiles() {
+        return copiedFiles;
+    }
+
+    public int getLiteralFiles() {
+        return literalFiles;
+    }
+
+    public int getAssembledJars() {
+        return assembledJars;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.delta;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Splits a zip file into contiguous byte ranges: two per local entry, plus
+ * whatever comes before the first entry and the central directory at the end.
+ * <p/>
+ * The first range of an entry is its local header, with the name and the
+ * modification time. The second holds its compressed data and its data
+ * descriptor exactly as stored. An entry whose content did not change between
+ * two versions of a jar has the same second range in both, wherever it is
+ * located and whenever it was written; only the small header differs when the
+ * jar was not built reproducibly. The compressed data determines the CRC-32
+ * and the sizes of the entry, so matching the second range is matching them.
+ */
+final class ZipSegments {
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+    private static final int CENTRAL_DIRECTORY_ENTRY = 0x02014b50;
+
+    private static final int END_RECORD_SIZE = 22;
+
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+
+    private static final int CENTRAL_ENTRY_SIZE = 46;
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+
+    private ZipSegments() {
+    }
+
+    /**
+     * Computes the ranges of a zip file.
+     *
+     * @param file the zip file
+     * @return the <code>{offset, length}</code> pairs covering the whole
+     * file, or <code>null</code> if the file is no zip file this class
+     * understands, like a Zip64 file
+     * @throws IOException if the file cannot be read
+     */
+    static List<long[]> split(RandomAccessFile file) throws IOException {
+        long length = file.length();
+        if (length < END_RECORD_SIZE) {
+            return null;
+        }
+
+        // the end record is followed by a comment of up to 64k
+        int tailSize = (int) Math.min(length, END_RECORD_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = read(file, length - tailSize, tailSize);
+        int end = -1;
+        for (int i = tailSize - END_RECORD_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            return null;
+        }
+
+        int entries = tail.getShort(end + 10) & 0xffff;
+        long directorySize = tail.getInt(end + 12) & 0xffffffffL;
+        long directoryOffset = tail.getInt(end + 16) & 0xffffffffL;
+        if (entries == 0xffff || directorySize == 0xffffffffL || directoryOffset == 0xffffffffL
+                || directoryOffset + directorySize > length - tailSize + end || directorySize > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        TreeSet<Long> offsets = new TreeSet<Long>();
+        ByteBuffer directory = read(file, directoryOffset, (int) directorySize);
+        int position = 0;
+        for (int i = 0; i < entries; i++) {
+            if (position + CENTRAL_ENTRY_SIZE > directorySize || directory.getInt(position) != CENTRAL_DIRECTORY_ENTRY) {
+                return null;
+            }
+            int nameLength = directory.getShort(position + 28) & 0xffff;
+            int extraLength = directory.getShort(position + 30) & 0xffff;
+            int commentLength = directory.getShort(position + 32) & 0xffff;
+            long localOffset = directory.getInt(position + 42) & 0xffffffffL;
+            if (localOffset + LOCAL_HEADER_SIZE > directoryOffset) {
+                return null;
+            }
+            offsets.add(localOffset);
+            position += CENTRAL_ENTRY_SIZE + nameLength + extraLength + commentLength;
+        }
+
+        // the data of every entry starts where its local header ends
+        TreeSet<Long> dataOffsets = new TreeSet<Long>();
+        for (long localOffset : offsets) {
+            ByteBuffer header = read(file, localOffset, LOCAL_HEADER_SIZE);
+            if (header.getInt(0) != LOCAL_HEADER) {
+                return null;
+            }
+            long dataOffset = localOffset + LOCAL_HEADER_SIZE + (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+            Long next = offsets.higher(localOffset);
+            if (dataOffset > (next != null ? next : directoryOffset)) {
+                return null;
+            }
+            dataOffsets.add(dataOffset);
+        }
+        offsets.addAll(dataOffsets);
+
+        List<long[]> segments = new ArrayList<long[]>();
+        long previous = 0;
+        for (long offset : offsets) {
+            if (offset > previous) {
+                segments.add(new long[] {previous, offset - previous});
+            }
+            previous = offset;
+        }
+        if (directoryOffset > previous) {
+            segments.add(new long[] {previous, directoryOffset - previous});
+        }
+        if (length > directoryOffset) {
+            segments.add(new long[] {directoryOffset, length - directoryOffset});
+        }
+        return segments;
+    }
+
+    private static ByteBuffer read(RandomAccessFile file, long offset, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        file.seek(offset);
+        file.readFully(bytes);
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
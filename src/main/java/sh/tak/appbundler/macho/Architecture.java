@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.macho;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Names of Mach-O CPU types, as used by <code>lipo</code>.
+ */
+public final class Architecture {
+
+    private static final int CPU_ARCH_ABI64 = 0x01000000;
+
+    private static final int CPU_ARCH_ABI64_32 = 0x02000000;
+
+    private static final int CPU_TYPE_X86 = 7;
+
+    private static final int CPU_TYPE_ARM = 12;
+
+    private static final int CPU_TYPE_POWERPC = 18;
+
+    private static final int CPU_SUBTYPE_MASK = 0x00ffffff;
+
+    private static final int CPU_SUBTYPE_X86_64_H = 8;
+
+    private static final int CPU_SUBTYPE_ARM_V7 = 9;
+
+    private static final int CPU_SUBTYPE_ARM_V7S = 11;
+
+    private static final int CPU_SUBTYPE_ARM64E = 2;
+
+    /**
+     * All architecture names this class knows of.
+     */
+    public static final List<String> NAMES = Collections.unmodifiableList(Arrays.asList(
+            "i386", "x86_64", "x86_64h", "arm", "armv7", "armv7s", "arm64", "arm64e", "arm64_32", "ppc", "ppc64"));
+
+    private Architecture() {
+    }
+
+    /**
+     * The name of an architecture.
+     *
+     * @param cpuType the <code>cputype</code> of a Mach-O header
+     * @param cpuSubtype the <code>cpusubtype</code> of a Mach-O header
+     * @return the name, like <code>arm64</code>
+     */
+    public static String name(int cpuType, int cpuSubtype) {
+        int subtype = cpuSubtype & CPU_SUBTYPE_MASK;
+        switch (cpuType) {
+            case CPU_TYPE_X86:
+                return "i386";
+            case CPU_TYPE_X86 | CPU_ARCH_ABI64:
+                return subtype == CPU_SUBTYPE_X86_64_H ? "x86_64h" : "x86_64";
+            case CPU_TYPE_ARM:
+                return subtype == CPU_SUBTYPE_ARM_V7 ? "armv7" : subtype == CPU_SUBTYPE_ARM_V7S ? "armv7s" : "arm";
+            case CPU_TYPE_ARM | CPU_ARCH_ABI64:
+                return subtype == CPU_SUBTYPE_ARM64E ? "arm64e" : "arm64";
+            case CPU_TYPE_ARM | CPU_ARCH_ABI64_32:
+                return "arm64_32";
+            case CPU_TYPE_POWERPC:
+                return "ppc";
+            case CPU_TYPE_POWERPC | CPU_ARCH_ABI64:
+                return "ppc64";
+            default:
+                return "cputype" + cpuType + "/" + subtype;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.macho;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The header of a universal ("fat") Mach-O file: the list of architecture
+ * specific slices it is made of.
+ */
+public final class FatBinary {
+
+    private static final int FAT_MAGIC = 0xcafebabe;
+
+    private static final int FAT_MAGIC_64 = 0xcafebabf;
+
+    /**
+     * Java class files start with the same magic number, followed by their
+     * version, which is at least 45. No universal binary has that many slices.
+     */
+    private static final int MAX_SLICES = 20;
+
+    private static final int FAT_ARCH_SIZE = 20;
+
+    private static final int FAT_ARCH_64_SIZE = 32;
+
+    private static final int MAX_ALIGN = 15;
+
+    private static final int MH_MAGIC = 0xfeedface;
+
+    private static final int MH_MAGIC_64 = 0xfeedfacf;
+
+    private static final int CPU_TYPE_ARM = 12;
+
+    /**
+     * The alignment <code>lipo</code> gives slices: the page size, which is
+     * 16 KB on ARM and 4 KB elsewhere.
+     */
+    private static final int ARM_PAGE_ALIGN = 14;
+
+    private static final int PAGE_ALIGN = 12;
+
+    private final List<Slice> slices;
+
+    private FatBinary(List<Slice> slices) {
+        this.slices = slices;
+    }
+
+    /**
+     * Reads the header of a universal binary.
+     *
+     * @param file the file to read, positioned anywhere
+     * @return the header, or <code>null</code> if the file is no universal
+     * binary
+     * @throws IOException if the file cannot be read
+     */
+    public static FatBinary read(RandomAccessFile file) throws IOException {
+        long length = file.length();
+        if (length < 8) {
+            return null;
+        }
+
+        file.seek(0);
+        int magic = file.readInt();
+        if (magic != FAT_MAGIC && magic != FAT_MAGIC_64) {
+            return null;
+        }
+        boolean is64 = magic == FAT_MAGIC_64;
+
+        int count = file.readInt();
+        if (count <= 0 || count > MAX_SLICES || 8L + (long) count * (is64 ? FAT_ARCH_64_SIZE : FAT_ARCH_SIZE) > length) {
+            return null;
+        }
+
+        List<Slice> slices = new ArrayList<Slice>(count);
+        for (int i = 0; i < count; i++) {
+            int cpuType = file.readInt();
+            int cpuSubtype = file.readInt();
+            long offset = is64 ? file.readLong() : file.readInt() & 0xffffffffL;
+            long size = is64 ? file.readLong() : file.readInt() & 0xffffffffL;
+            int align = file.readInt();
+            if (is64) {
+                file.readInt();
+            }
+            if (offset < 8 || size <= 0 || offset + size > length || align < 0 || align > MAX_ALIGN) {
+                return null;
+            }
+            slices.add(new Slice(cpuType, cpuSubtype, offset, size, align));
+        }
+        return new FatBinary(Collections.unmodifiableList(slices));
+    }
+
+    /**
+     * Reads the header of a plain, single architecture Mach-O file.
+     *
+     * @param file the file to read, positioned anywhere
+     * @return the whole file as a slice, or <code>null</code> if the file is
+     * no Mach-O file
+     * @throws IOException if the file cannot be read
+     */
+    public static Slice readThin(RandomAccessFile file) throws IOException {
+        long length = file.length();
+        if (length < 12) {
+            return null;
+        }
+
+        file.seek(0);
+        int magic = file.readInt();
+        int cpuType = file.readInt();
+        int cpuSubtype = file.readInt();
+        if (magic == Integer.reverseBytes(MH_MAGIC) || magic == Integer.reverseBytes(MH_MAGIC_64)) {
+            cpuType = Integer.reverseBytes(cpuType);
+            cpuSubtype = Integer.reverseBytes(cpuSubtype);
+        } else if (magic != MH_MAGIC && magic != MH_MAGIC_64) {
+            return null;
+        }
+        int align = (cpuType & 0xff) == CPU_TYPE_ARM ? ARM_PAGE_ALIGN : PAGE_ALIGN;
+        return new Slice(cpuType, cpuSubtype, 0, length, align);
+    }
+
+    public List<Slice> getSlices() {
+        return slices;
+    }
+
+    /**
+     * Writes the given slices of a universal binary. A single slice is written
+     * as a plain Mach-O file, several slices as a universal binary with the
+     * slices aligned as before.
+     *
+     * @param source the universal binary the slices belong to
+     * @param slices the slices to keep
+     * @param out where to write to
+     * @throws IOException if reading or writing fails
+     */
+    public static void write(RandomAccessFile source, List<Slice> slices, OutputStream out) throws IOException {
+        write(Collections.nCopies(slices.size(), source), slices, out);
+    }
+
+    /**
+     * Writes slices taken from several files, like <code>lipo -create</code>.
+     * A single slice is written as a plain Mach-O file.
+     *
+     * @param sources the file each slice belongs to
+     * @param slices the slices, of distinct architectures
+     * @param out where to write to
+     * @throws IOException if reading or writing fails
+     */
+    public static void write(List<RandomAccessFile> sources, List<Slice> slices, OutputStream out) throws IOException {
+        if (slices.size() == 1) {
+            copy(sources.get(0), slices.get(0), out);
+            return;
+        }
+
+        long[] offsets = layout(slices, FAT_ARCH_SIZE);
+        boolean is64 = offsets[slices.size()] > 0xffffffffL;
+        if (is64) {
+            offsets = layout(slices, FAT_ARCH_64_SIZE);
+        }
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(is64 ? FAT_MAGIC_64 : FAT_MAGIC);
+        data.writeInt(slices.size());
+        for (int i = 0; i < slices.size(); i++) {
+            Slice slice = slices.get(i);
+            data.writeInt(slice.getCpuType());
+            data.writeInt(slice.getCpuSubtype());
+            if (is64) {
+                data.writeLong(offsets[i]);
+                data.writeLong(slice.getSize());
+                data.writeInt(slice.getAlign());
+                data.writeInt(0);
+            } else {
+                data.writeInt((int) offsets[i]);
+                data.writeInt((int) slice.getSize());
+                data.writeInt(slice.getAlign());
+            }
+        }
+
+        long written = data.size() & 0xffffffffL;
+        for (int i = 0; i < slices.size(); i++) {
+            for (; written < offsets[i]; written++) {
+                data.write(0);
+            }
+            copy(sources.get(i), slices.get(i), data);
+            written += slices.get(i).getSize();
+        }
+        data.flush();
+    }
+
+    /**
+     * Computes where the slices go, the last element is the end of the file.
+     */
+    private static long[] layout(List<Slice> slices, int archSize) {
+        long[] offsets = new long[slices.size() + 1];
+        long position = 8L + (long) slices.size() * archSize;
+        for (int i = 0; i < slices.size(); i++) {
+            long alignment = 1L << slices.get(i).getAlign();
+            position = (position + alignment - 1) / alignment * alignment;
+            offsets[i] = position;
+            position += slices.get(i).getSize();
+        }
+        offsets[slices.size()] = position;
+        return offsets;
+    }
+
+    private static void copy(RandomAccessFile source, Slice slice, OutputStream out) throws IOException {
+        byte[] buffer = new byte[65536];
+        source.seek(slice.getOffset());
+        long remaining = slice.getSize();
+        while (remaining > 0) {
+            int n = source.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n < 0) {
+                throw new IOException("Unexpected end of universal binary");
+            }
+            out.write(buffer, 0, n);
+            remaining -= n;
+        }
+    }
+
+    /**
+     * One architecture of a universal binary.
+     */
+    public static final class Slice {
+
+        private final int cpuType;
+
+        private final int cpuSubtype;
+
+        private final long offset;
+
+        private final long size;
+
+        private final int align;
+
+        Slice(int cpuType, int cpuSubtype, long offset, long size, int align) {
+            this.cpuType = cpuType;
+            this.cpuSubtype = cpuSubtype;
+            this.offset = offset;
+            this.size = size;
+            this.align = align;
+        }
+
+        public int getCpuType() {
+            return cpuType;
+        }
+
+        public int getCpuSubtype() {
+            return cpuSubtype;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public int getAlign() {
+            return align;
+        }
+
+        public String getArchitecture() {
+            return Architecture.name(cpuType, cpuSubtype);
+        }
+    }
+}
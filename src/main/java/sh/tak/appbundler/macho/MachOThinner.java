@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.macho;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import sh.tak.appbundler.util.Digests;
+
+/**
+ * Removes unwanted architectures from universal Mach-O binaries, like
+ * <code>lipo -thin</code> does, without needing any Apple tools.
+ * <p/>
+ * The slices of a universal binary are complete Mach-O files, including their
+ * code signatures, so they are copied unchanged. Thinned files are cached by
+ * the digest of their content, which makes thinning the same JRE again a
+ * matter of copying files.
+ */
+public class MachOThinner {
+
+    private final Set<String> architectures;
+
+    private final File cacheDirectory;
+
+    private final String cacheSuffix;
+
+    /**
+     * Creates a thinner.
+     *
+     * @param architectures the architectures to keep, like
+     * <code>arm64</code>
+     * @param cacheDirectory where thinned files are cached
+     */
+    public MachOThinner(Set<String> architectures, File cacheDirectory) {
+        this.architectures = new TreeSet<String>(architectures);
+        this.cacheDirectory = cacheDirectory;
+        this.cacheSuffix = "-" + Digests.sha256(this.architectures.toString()).substring(0, 8);
+    }
+
+    /**
+     * Thins a file in place. Files that are no universal binaries, that
+     * contain only wanted architectures or none of them, are left alone.
+     *
+     * @param file the file
+     * @return the number of bytes saved, 0 if the file was left alone
+     * @throws IOException if the file cannot be read or replaced
+     */
+    public long thin(File file) throws IOException {
+        List<FatBinary.Slice> kept = new ArrayList<FatBinary.Slice>();
+        RandomAccessFile source = new RandomAccessFile(file, "r");
+        try {
+            FatBinary binary = FatBinary.read(source);
+            if (binary == null) {
+                return 0;
+            }
+            for (FatBinary.Slice slice : binary.getSlices()) {
+                if (architectures.contains(slice.getArchitecture())) {
+                    kept.add(slice);
+                }
+            }
+            if (kept.isEmpty() || kept.size() == binary.getSlices().size()) {
+                return 0;
+            }
+        } finally {
+            source.close();
+        }
+
+        long before = file.length();
+        File cached = new File(cacheDirectory, Digests.sha256(file) + cacheSuffix);
+        if (!cached.isFile()) {
+            cacheDirectory.mkdirs();
+            File temp = File.createTempFile("thin", ".tmp", cacheDirectory);
+            try {
+                source = new RandomAccessFile(file, "r");
+                try {
+                    OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+                    try {
+                        FatBinary.write(source, kept, out);
+                    } finally {
+                        out.close();
+                    }
+                } finally {
+                    source.close();
+                }
+                Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                temp.delete();
+            }
+        }
+
+        replace(file.toPath(), cached.toPath());
+        return before - file.length();
+    }
+
+    /**
+     * Replaces a file with a copy of another, keeping its permissions and
+     * modification time. The file is replaced rather than overwritten, so
+     * other hard links to it are not affected.
+     */
+    private static void replace(Path file, Path replacement) throws IOException {
+        FileTime lastModified = Files.getLastModifiedTime(file);
+        boolean executable = file.toFile().canExecute();
+
+        Path temp = file.resolveSibling(file.getFileName() + ".thin");
+        Files.copy(replacement, temp, StandardCopyOption.REPLACE_EXISTING);
+        try {
+            temp.toFile().setExecutable(executable, false);
+            Files.setLastModifiedTime(temp, lastModified);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.natives;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.IOUtil;
+import sh.tak.appbundler.macho.FatBinary;
+import sh.tak.appbundler.util.Digests;
+import sh.tak.appbundler.util.RecordedDigests;
+
+/**
+ * Extracts the Mac OS X native libraries (<code>.dylib</code> and
+ * <code>.jnilib</code> files) bundled in jars into one directory, so they do
+ * not have to be unpacked into a temporary directory on every launch.
+ * <p/>
+ * Libraries of the same name for different architectures, like
+ * <code>darwin-x86-64/libjnidispatch.jnilib</code> and
+ * <code>darwin-aarch64/libjnidispatch.jnilib</code>, are combined into one
+ * universal binary. Libraries extracted by an earlier run that are no longer
+ * part of any jar are removed.
+ * <p/>
+ * The list of extracted libraries is kept together with the digests of the
+ * jars they came from, so jars that did not change are neither scanned nor
+ * extracted again.
+ */
+public class NativeLibraryExtractor {
+
+    /**
+     * Libraries that unpack themselves unless told where they already are: a
+     * file name prefix and the system properties to set. <code>$DIR</code>
+     * stands for the directory and <code>$FILE</code> for the file name.
+     */
+    private static final String[][] KNOWN_LIBRARIES = {
+        {"libjnidispatch.", "-Djna.boot.library.path=$DIR", "-Djna.nounpack=true"},
+        {"libsqlitejdbc.", "-Dorg.sqlite.lib.path=$DIR", "-Dorg.sqlite.lib.name=$FILE"},
+        {"liblwjgl", "-Dorg.lwjgl.librarypath=$DIR"},
+    };
+
+    private final File workDirectory;
+
+    private final Log log;
+
+    private final Map<String, List<Candidate>> candidates = new TreeMap<String, List<Candidate>>();
+
+    private RecordedDigests recordedDigests;
+
+    private String transformation;
+
+    private String key;
+
+    /**
+     * Creates an extractor.
+     *
+     * @param workDirectory where to keep temporary files and the list of
+     * extracted libraries
+     * @param log the logger to report to
+     */
+    public NativeLibraryExtractor(File workDirectory, Log log) {
+        this.workDirectory = workDirectory;
+        this.log = log;
+    }
+
+    /**
+     * Takes the digests of the jars from the given store where it has them,
+     * instead of reading the jars again.
+     */
+    public void setRecordedDigests(RecordedDigests recordedDigests) {
+        this.recordedDigests = recordedDigests;
+    }
+
+    /**
+     * Describes how the extracted libraries are changed after extraction, like
+     * the architectures they are thinned to. Libraries extracted under another
+     * description are extracted again.
+     */
+    public void setTransformation(String transformation) {
+        this.transformation = transformation;
+    }
+
+    /**
+     * Extracts the native libraries of the given jars into a directory,
+     * unless the jars and the transformation are the same as when the
+     * libraries were extracted last and all of them are still there.
+     *
+     * @param jars the jars
+     * @param targetDirectory where to put the libraries
+     * @return the file names of the libraries in the target directory
+     * @throws IOException if a jar cannot be read or a library cannot be
+     * extracted
+     */
+    public List<String> extract(List<File> jars, File targetDirectory) throws IOException {
+        StringBuilder sources = new StringBuilder();
+        for (File jar : jars) {
+            String digest = recordedDigests != null ? recordedDigests.get(jar) : null;
+            sources.append(jar.getName()).append(' ').append(digest != null ? digest : Digests.sha256Mapped(jar)).append('\n');
+        }
+        sources.append(transformation);
+        String current = Digests.sha256(sources.toString());
+
+        File listFile = getListFile();
+        if (current.equals(readKey(listFile))) {
+            List<String> previous = readList(listFile);
+            boolean complete = true;
+            for (String library : previous) {
+                complete &= new File(targetDirectory, library).isFile();
+            }
+            if (complete) {
+                log.debug("The jars did not change since their native libraries were extracted");
+                return previous;
+            }
+        }
+
+        for (File jar : jars) {
+            if (scan(jar) > 0) {
+                log.debug("Found native libraries in " + jar.getName());
+            }
+        }
+        key = current;
+        return extract(targetDirectory);
+    }
+
+    /**
+     * Looks for native libraries in a jar.
+     *
+     * @param jar the jar
+     * @return the number of native libraries found
+     * @throws IOException if the jar cannot be read
+     */
+    public int scan(File jar) throws IOException {
+        int found = 0;
+        ZipFile zip = new ZipFile(jar);
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                String lower = name.toLowerCase(Locale.ROOT);
+                if (entry.isDirectory() || !(lower.endsWith(".dylib") || lower.endsWith(".jnilib"))) {
+                    continue;
+                }
+
+                String fileName = name.substring(name.lastIndexOf('/') + 1);
+                List<Candidate> list = candidates.get(fileName);
+                if (list == null) {
+                    list = new ArrayList<Candidate>();
+                    candidates.put(fileName, list);
+                }
+                list.add(new Candidate(jar, name));
+                found++;
+            }
+        } finally {
+            zip.close();
+        }
+        return found;
+    }
+
+    /**
+     * Writes the libraries found into a directory. Libraries whose content
+     * did not change are left alone.
+     *
+     * @param targetDirectory where to put the libraries
+     * @return the file names of the libraries in the target directory
+     * @throws IOException if a library cannot be extracted
+     */
+    public List<String> extract(File targetDirectory) throws IOException {
+        workDirectory.mkdirs();
+        targetDirectory.mkdirs();
+
+        List<String> extracted = new ArrayList<String>();
+        for (Map.Entry<String, List<Candidate>> library : candidates.entrySet()) {
+            if (extract(library.getKey(), library.getValue(), targetDirectory)) {
+                extracted.add(library.getKey());
+            }
+        }
+
+        // remove what an earlier run extracted from jars that are gone now
+        removeStale(targetDirectory, extracted);
+        writeList(getListFile(), key, extracted);
+        return extracted;
+    }
+
+    /**
+     * Removes the libraries an earlier run extracted, for when extraction
+     * has been turned off.
+     *
+     * @param targetDirectory where the libraries were extracted to
+     * @throws IOException if a library cannot be removed
+     */
+    public void clean(File targetDirectory) throws IOException {
+        File listFile = getListFile();
+        if (listFile.isFile()) {
+            removeStale(targetDirectory, new ArrayList<String>());
+            listFile.delete();
+        }
+    }
+
+    private void removeStale(File targetDirectory, List<String> extracted) throws IOException {
+        for (String previous : readList(getListFile())) {
+            File stale = new File(targetDirectory, previous);
+            if (!extracted.contains(previous) && stale.isFile()) {
+                log.debug("Removing " + stale);
+                if (!stale.delete()) {
+                    throw new IOException("Could not remove stale native library " + stale);
+                }
+            }
+        }
+    }
+
+    private File getListFile() {
+        return new File(workDirectory, "native-libraries.list");
+    }
+
+    private boolean extract(String fileName, List<Candidate> sources, File targetDirectory) throws IOException {
+        List<File> temps = new ArrayList<File>();
+        List<RandomAccessFile> files = new ArrayList<RandomAccessFile>();
+        File merged = new File(workDirectory, fileName + ".new");
+        try {
+            // one slice per architecture, the first jar wins
+            Map<String, FatBinary.Slice> slices = new LinkedHashMap<String, FatBinary.Slice>();
+            Map<String, RandomAccessFile> owners = new LinkedHashMap<String, RandomAccessFile>();
+            Map<String, Candidate> origins = new LinkedHashMap<String, Candidate>();
+            for (Candidate source : sources) {
+                File temp = File.createTempFile("native", ".tmp", workDirectory);
+                temps.add(temp);
+                source.copyTo(temp);
+
+                RandomAccessFile file = new RandomAccessFile(temp, "r");
+                files.add(file);
+                List<FatBinary.Slice> found = new ArrayList<FatBinary.Slice>();
+                FatBinary fat = FatBinary.read(file);
+                if (fat != null) {
+                    found.addAll(fat.getSlices());
+                } else if (FatBinary.readThin(file) != null) {
+                    found.add(FatBinary.readThin(file));
+                } else {
+                    log.warn("Skipping " + source + ", it is no Mach-O library");
+                    continue;
+                }
+
+                for (FatBinary.Slice slice : found) {
+                    if (slices.containsKey(slice.getArchitecture())) {
+                        log.warn("Ignoring the " + slice.getArchitecture() + " code of " + source + ", "
+                                + origins.get(slice.getArchitecture()) + " has it as well and is used instead");
+                        continue;
+                    }
+                    slices.put(slice.getArchitecture(), slice);
+                    owners.put(slice.getArchitecture(), file);
+                    origins.put(slice.getArchitecture(), source);
+                }
+            }
+            if (slices.isEmpty()) {
+                return false;
+            }
+            Set<RandomAccessFile> contributors = new LinkedHashSet<RandomAccessFile>(owners.values());
+
+            OutputStream out = new FileOutputStream(merged);
+            try {
+                if (contributors.size() == 1) {
+                    // keep a library that has everything as it is
+                    InputStream in = new FileInputStream(temps.get(files.indexOf(contributors.iterator().next())));
+                    try {
+                        IOUtil.copy(in, out);
+                    } finally {
+                        in.close();
+                    }
+                } else {
+                    FatBinary.write(new ArrayList<RandomAccessFile>(owners.values()), new ArrayList<FatBinary.Slice>(slices.values()), out);
+                }
+            } finally {
+                out.close();
+            }
+
+            File target = new File(targetDirectory, fileName);
+            if (target.isFile() && Digests.sha256(target).equals(Digests.sha256(merged))) {
+                return true;
+            }
+            log.debug("Extracting " + fileName + " (" + slices.keySet() + ")");
+            Files.move(merged.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            target.setExecutable(true, false);
+            return true;
+        } finally {
+            for (RandomAccessFile file : files) {
+                file.close();
+            }
+            for (File temp : temps) {
+                temp.delete();
+            }
+            merged.delete();
+        }
+    }
+
+    /**
+     * The system properties that point the known libraries among the
+     * extracted ones to the directory they were extracted to.
+     *
+     * @param libraries the file names of the extracted libraries
+     * @param directory the directory as the launcher should see it, like
+     * <code>$APP_ROOT/Contents/MacOS</code>
+     * @return the JVM options
+     */
+    public static List<String> getJvmOptions(Collection<String> libraries, String directory) {
+        Set<String> options = new LinkedHashSet<String>();
+        for (String library : libraries) {
+            for (String[] known : KNOWN_LIBRARIES) {
+                if (!library.startsWith(known[0])) {
+                    continue;
+                }
+                for (int i = 1; i < known.length; i++) {
+                    options.add(known[i].replace("$DIR", directory).replace("$FILE", library));
+                }
+            }
+        }
+        return new ArrayList<String>(options);
+    }
+
+    private static String readKey(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line = reader.readLine();
+            return line != null && line.startsWith("# ") ? line.substring(2) : null;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static List<String> readList(File file) throws IOException {
+        List<String> names = new ArrayList<String>();
+        if (!file.isFile()) {
+            return names;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // only plain file names, never a path out of the directory
+                if (line.length() > 0 && !line.startsWith("#") && line.indexOf('/') < 0 && !line.equals("..")) {
+                    names.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return names;
+    }
+
+    private static void writeList(File file, String key, List<String> names) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            // the digest of the jars, when known
+            if (key != null) {
+                writer.write("# " + key + "\n");
+            }
+            for (String name : names) {
+                writer.write(name);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * A native library inside a jar.
+     */
+    private static final class Candidate {
+
+        private final File jar;
+
+        private final String entry;
+
+        Candidate(File jar, String entry) {
+            this.jar = jar;
+            this.entry = entry;
+        }
+
+        void copyTo(File file) throws IOException {
+            ZipFile zip = new ZipFile(jar);
+            try {
+                InputStream in = zip.getInputStream(zip.getEntry(entry));
+                try {
+                    OutputStream out = new FileOutputStream(file);
+                    try {
+                        IOUtil.copy(in, out);
+                    } finally {
+                        out.close();
+                    }
+                } finally {
+                    in.close();
+                }
+            } finally {
+                zip.close();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return jar.getName() + "!/" + entry;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.plist;
+
+/**
+ * Minimal Base64 codec for plist <code>data</code> elements.
+ */
+final class Base64 {
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private Base64() {
+    }
+
+    static String encode(byte[] data) {
+        StringBuilder builder = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int b = (data[i] & 0xff) << 16;
+            if (i + 1 < data.length) {
+                b |= (data[i + 1] & 0xff) << 8;
+            }
+            if (i + 2 < data.length) {
+                b |= data[i + 2] & 0xff;
+            }
+            builder.append(ALPHABET[(b >> 18) & 0x3f]);
+            builder.append(ALPHABET[(b >> 12) & 0x3f]);
+            builder.append(i + 1 < data.length ? ALPHABET[(b >> 6) & 0x3f] : '=');
+            builder.append(i + 2 < data.length ? ALPHABET[b & 0x3f] : '=');
+        }
+        return builder.toString();
+    }
+
+    static byte[] decode(String text) {
+        byte[] buffer = new byte[text.length() * 3 / 4 + 3];
+        int length = 0;
+        int bits = 0;
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int value;
+            if (c >= 'A' && c <= 'Z') {
+                value = c - 'A';
+            } else if (c >= 'a' && c <= 'z') {
+                value = c - 'a' + 26;
+            } else if (c >= '0' && c <= '9') {
+                value = c - '0' + 52;
+            } else if (c == '+') {
+                value = 62;
+            } else if (c == '/') {
+                value = 63;
+            } else {
+                // whitespace and padding
+                continue;
+            }
+            bits = (bits << 6) | value;
+            if (++count == 4) {
+                buffer[length++] = (byte) (bits >> 16);
+                buffer[length++] = (byte) (bits >> 8);
+                buffer[length++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 3) {
+            buffer[length++] = (byte) (bits >> 10);
+            buffer[length++] = (byte) (bits >> 2);
+        } else if (count == 2) {
+            buffer[length++] = (byte) (bits >> 4);
+        }
+        byte[] result = new byte[length];
+        System.arraycopy(buffer, 0, result, 0, length);
+        return result;
+    }
+}
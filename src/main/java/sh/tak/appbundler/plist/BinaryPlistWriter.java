@@ -0,0 +1,325 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.plist;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a property list in Apple's binary <code>bplist00</code> format.
+ * <p/>
+ * The binary format references objects through an offset table, so the
+ * document is collected in memory and written when the writer is closed.
+ * Equal strings and numbers are stored only once.
+ */
+public class BinaryPlistWriter implements PlistWriter {
+
+    /**
+     * Seconds between the Unix epoch and the Core Foundation epoch,
+     * 2001-01-01T00:00:00Z.
+     */
+    private static final long CF_EPOCH_SECONDS = 978307200L;
+
+    private final OutputStream out;
+
+    private final LinkedList<Object> containers = new LinkedList<Object>();
+
+    private String key;
+
+    private Object root;
+
+    private final List<Object> objects = new ArrayList<Object>();
+
+    private final Map<Object, Integer> uniques = new HashMap<Object, Integer>();
+
+    private final Map<Object, int[]> references = new IdentityHashMap<Object, int[]>();
+
+    /**
+     * Creates a writer.
+     *
+     * @param out where to write the document to when the writer is closed
+     */
+    public BinaryPlistWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    public void startDict() throws IOException {
+        Map<String, Object> dict = new LinkedHashMap<String, Object>();
+        add(dict);
+        containers.addLast(dict);
+    }
+
+    public void endDict() throws IOException {
+        containers.removeLast();
+    }
+
+    public void startArray() throws IOException {
+        List<Object> array = new ArrayList<Object>();
+        add(array);
+        containers.addLast(array);
+    }
+
+    public void endArray() throws IOException {
+        containers.removeLast();
+    }
+
+    public void key(String key) throws IOException {
+        this.key = key;
+    }
+
+    public void string(String value) throws IOException {
+        add(value == null ? "" : value);
+    }
+
+    public void bool(boolean value) throws IOException {
+        add(Boolean.valueOf(value));
+    }
+
+    public void integer(long value) throws IOException {
+        add(Long.valueOf(value));
+    }
+
+    public void real(double value) throws IOException {
+        add(Double.valueOf(value));
+    }
+
+    public void date(Date value) throws IOException {
+        add(value);
+    }
+
+    public void data(byte[] value) throws IOException {
+        add(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void add(Object value) {
+        if (containers.isEmpty()) {
+            root = value;
+            return;
+        }
+
+        Object parent = containers.getLast();
+        if (parent instanceof List) {
+            ((List<Object>) parent).add(value);
+        } else {
+            if (key == null) {
+                throw new IllegalStateException("Dictionary value without a key");
+            }
+            ((Map<String, Object>) parent).put(key, value);
+            key = null;
+        }
+    }
+
+    public void close() throws IOException {
+        try {
+            if (root == null) {
+                throw new IllegalStateException("Empty property list");
+            }
+            write();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void write() throws IOException {
+        int top = index(root);
+        int refSize = objects.size() < 0x100 ? 1 : objects.size() < 0x10000 ? 2 : 4;
+
+        CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(out));
+        DataOutputStream data = new DataOutputStream(counter);
+        data.writeBytes("bplist00");
+
+        long[] offsets = new long[objects.size()];
+        for (int i = 0; i < objects.size(); i++) {
+            offsets[i] = counter.count;
+            writeObject(data, objects.get(i), refSize);
+        }
+
+        long offsetTable = counter.count;
+        int offsetSize = offsetTable < 0x100 ? 1 : offsetTable < 0x10000 ? 2 : offsetTable < 0x100000000L ? 4 : 8;
+        for (long offset : offsets) {
+            writeSized(data, offset, offsetSize);
+        }
+
+        // trailer: 5 unused bytes, sort version, sizes, object count, top object, offset table
+        data.write(new byte[6]);
+        data.writeByte(offsetSize);
+        data.writeByte(refSize);
+        data.writeLong(objects.size());
+        data.writeLong(top);
+        data.writeLong(offsetTable);
+        data.flush();
+    }
+
+    /**
+     * Assigns object numbers depth first, sharing numbers between equal
+     * scalar values.
+     */
+    @SuppressWarnings("unchecked")
+    private int index(Object value) {
+        boolean scalar = value instanceof String || value instanceof Boolean || value instanceof Long || value instanceof Double;
+        if (scalar) {
+            Integer existing = uniques.get(value);
+            if (existing != null) {
+                return existing.intValue();
+            }
+        }
+
+        int number = objects.size();
+        objects.add(value);
+        if (scalar) {
+            uniques.put(value, Integer.valueOf(number));
+        }
+
+        if (value instanceof Map) {
+            Map<String, Object> dict = (Map<String, Object>) value;
+            int[] refs = new int[dict.size() * 2];
+            int i = 0;
+            for (Map.Entry<String, Object> entry : dict.entrySet()) {
+                refs[i] = index(entry.getKey());
+                refs[i + dict.size()] = index(entry.getValue());
+                i++;
+            }
+            references.put(value, refs);
+        } else if (value instanceof List) {
+            List<Object> array = (List<Object>) value;
+            int[] refs = new int[array.size()];
+            for (int i = 0; i < refs.length; i++) {
+                refs[i] = index(array.get(i));
+            }
+            references.put(value, refs);
+        }
+        return number;
+    }
+
+    private void writeObject(DataOutputStream data, Object value, int refSize) throws IOException {
+        if (value instanceof Boolean) {
+            data.writeByte(((Boolean) value).booleanValue() ? 0x09 : 0x08);
+        } else if (value instanceof Long) {
+            writeInteger(data, ((Long) value).longValue());
+        } else if (value instanceof Double) {
+            data.writeByte(0x23);
+            data.writeDouble(((Double) value).doubleValue());
+        } else if (value instanceof Date) {
+            data.writeByte(0x33);
+            data.writeDouble(((Date) value).getTime() / 1000.0 - CF_EPOCH_SECONDS);
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            writeMarker(data, 0x40, bytes.length);
+            data.write(bytes);
+        } else if (value instanceof String) {
+            String string = (String) value;
+            if (isAscii(string)) {
+                writeMarker(data, 0x50, string.length());
+                data.writeBytes(string);
+            } else {
+                writeMarker(data, 0x60, string.length());
+                data.writeChars(string);
+            }
+        } else if (value instanceof List) {
+            int[] refs = references.get(value);
+            writeMarker(data, 0xA0, refs.length);
+            writeReferences(data, refs, refSize);
+        } else if (value instanceof Map) {
+            int[] refs = references.get(value);
+            writeMarker(data, 0xD0, refs.length / 2);
+            writeReferences(data, refs, refSize);
+        } else {
+            throw new IllegalStateException("Unsupported plist value " + value.getClass());
+        }
+    }
+
+    private static void writeReferences(DataOutputStream data, int[] refs, int refSize) throws IOException {
+        for (int ref : refs) {
+            writeSized(data, ref, refSize);
+        }
+    }
+
+    private static void writeMarker(DataOutputStream data, int type, int length) throws IOException {
+        if (length < 15) {
+            data.writeByte(type | length);
+        } else {
+            data.writeByte(type | 0x0f);
+            writeInteger(data, length);
+        }
+    }
+
+    private static void writeInteger(DataOutputStream data, long value) throws IOException {
+        if (value < 0 || value > 0xffffffffL) {
+            data.writeByte(0x13);
+            data.writeLong(value);
+        } else if (value > 0xffff) {
+            data.writeByte(0x12);
+            data.writeInt((int) value);
+        } else if (value > 0xff) {
+            data.writeByte(0x11);
+            data.writeShort((int) value);
+        } else {
+            data.writeByte(0x10);
+            data.writeByte((int) value);
+        }
+    }
+
+    private static void writeSized(DataOutputStream data, long value, int size) throws IOException {
+        for (int shift = (size - 1) * 8; shift >= 0; shift -= 8) {
+            data.writeByte((int) (value >>> shift));
+        }
+    }
+
+    private static boolean isAscii(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) > 0x7f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Keeps track of the current offset for the offset table.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
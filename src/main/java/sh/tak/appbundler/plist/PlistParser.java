@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.plist;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads an XML property list and replays it into a {@link PlistWriter}, for
+ * example to convert a rendered template to the binary format.
+ */
+public final class PlistParser {
+
+    private PlistParser() {
+    }
+
+    /**
+     * Parses an XML property list.
+     *
+     * @param in the XML document
+     * @param writer receives the property list; it is not closed
+     * @throws IOException if the document is not a valid property list
+     */
+    public static void parse(Reader in, PlistWriter writer) throws IOException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // never fetch the Apple DTD
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+
+        try {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                        if (reader.getEventType() == XMLStreamConstants.END_ELEMENT) {
+                            String name = reader.getLocalName();
+                            if ("dict".equals(name)) {
+                                writer.endDict();
+                            } else if ("array".equals(name)) {
+                                writer.endArray();
+                            }
+                        }
+                        continue;
+                    }
+
+                    String name = reader.getLocalName();
+                    if ("plist".equals(name)) {
+                        continue;
+                    } else if ("dict".equals(name)) {
+                        writer.startDict();
+                    } else if ("array".equals(name)) {
+                        writer.startArray();
+                    } else if ("key".equals(name)) {
+                        writer.key(reader.getElementText());
+                    } else if ("string".equals(name)) {
+                        writer.string(reader.getElementText());
+                    } else if ("true".equals(name)) {
+                        writer.bool(true);
+                    } else if ("false".equals(name)) {
+                        writer.bool(false);
+                    } else if ("integer".equals(name)) {
+                        writer.integer(Long.parseLong(reader.getElementText().trim()));
+                    } else if ("real".equals(name)) {
+                        writer.real(Double.parseDouble(reader.getElementText().trim()));
+                    } else if ("date".equals(name)) {
+                        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+                        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+                        writer.date(format.parse(reader.getElementText().trim()));
+                    } else if ("data".equals(name)) {
+                        writer.data(Base64.decode(reader.getElementText()));
+                    } else {
+                        throw new IOException("Unsupported property list element <" + name + ">");
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException ex) {
+            throw new IOException("Invalid property list: " + ex.getMessage(), ex);
+        } catch (NumberFormatException ex) {
+            throw new IOException("Invalid number in property list: " + ex.getMessage(), ex);
+        } catch (ParseException ex) {
+            throw new IOException("Invalid date in property list: " + ex.getMessage(), ex);
+        }
+    }
+}
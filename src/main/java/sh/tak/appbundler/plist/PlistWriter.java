@@ -0,0 +1,59 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.plist;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Receives the structure of a property list as a sequence of events and
+ * writes it in a particular format.
+ * <p/>
+ * Inside a dictionary every value must be preceded by a call to
+ * {@link #key(String)}. The document is complete once the top level object
+ * has been ended and {@link #close()} has been called.
+ */
+public interface PlistWriter {
+
+    void startDict() throws IOException;
+
+    void endDict() throws IOException;
+
+    void startArray() throws IOException;
+
+    void endArray() throws IOException;
+
+    void key(String key) throws IOException;
+
+    void string(String value) throws IOException;
+
+    void bool(boolean value) throws IOException;
+
+    void integer(long value) throws IOException;
+
+    void real(double value) throws IOException;
+
+    void date(Date value) throws IOException;
+
+    void data(byte[] value) throws IOException;
+
+    /**
+     * Finishes the document and closes the underlying stream.
+     *
+     * @throws IOException if the document cannot be written
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.plist;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The strings of an <code>array</code> in an <code>Info.plist</code>
+ * template, XML-escaped. Templates iterate over them with
+ * <code>#foreach</code>; written as <code>${name}</code> the list renders as
+ * the whole <code>array</code> element, as templates have always used it.
+ */
+public class StringArray extends AbstractList<String> {
+
+    private final List<String> values;
+
+    private final String indent;
+
+    /**
+     * @param values the strings, not escaped yet
+     * @param indent the indentation of the <code>array</code> element when
+     * it is rendered as a whole
+     */
+    public StringArray(List<String> values, String indent) {
+        this.values = new ArrayList<String>(values.size());
+        for (String value : values) {
+            this.values.add(XmlPlistWriter.escape(value));
+        }
+        this.indent = indent;
+    }
+
+    @Override
+    public String get(int index) {
+        return values.get(index);
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * Renders the <code>array</code> element.
+     *
+     * @return the markup
+     */
+    @Override
+    public String toString() {
+        StringBuilder markup = new StringBuilder(64 * (values.size() + 1));
+        markup.append("<array>\n");
+        for (String value : values) {
+            markup.append(indent).append("  <string>").append(value).append("</string>\n");
+        }
+        return markup.append(indent).append("</array>").toString();
+    }
+}
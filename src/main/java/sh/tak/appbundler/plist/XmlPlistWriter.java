@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.plist;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Writes a property list in Apple's XML format straight to a
+ * <code>Writer</code>, escaping all text content.
+ */
+public class XmlPlistWriter implements PlistWriter {
+
+    private static final String INDENT = "  ";
+
+    private final Writer out;
+
+    private int depth;
+
+    /**
+     * Creates a writer and writes the XML prolog and the opening
+     * <code>plist</code> element.
+     *
+     * @param out where to write the document to, expected to encode UTF-8
+     * @throws IOException if the prolog cannot be written
+     */
+    public XmlPlistWriter(Writer out) throws IOException {
+        this.out = out;
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" \"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">\n");
+        out.write("<plist version=\"1.0\">\n");
+        depth = 1;
+    }
+
+    public void startDict() throws IOException {
+        line("<dict>");
+        depth++;
+    }
+
+    public void endDict() throws IOException {
+        depth--;
+        line("</dict>");
+    }
+
+    public void startArray() throws IOException {
+        line("<array>");
+        depth++;
+    }
+
+    public void endArray() throws IOException {
+        depth--;
+        line("</array>");
+    }
+
+    public void key(String key) throws IOException {
+        element("key", key);
+    }
+
+    public void string(String value) throws IOException {
+        element("string", value);
+    }
+
+    public void bool(boolean value) throws IOException {
+        line(value ? "<true/>" : "<false/>");
+    }
+
+    public void integer(long value) throws IOException {
+        element("integer", Long.toString(value));
+    }
+
+    public void real(double value) throws IOException {
+        element("real", Double.toString(value));
+    }
+
+    public void date(Date value) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        element("date", format.format(value));
+    }
+
+    public void data(byte[] value) throws IOException {
+        element("data", Base64.encode(value));
+    }
+
+    public void close() throws IOException {
+        try {
+            out.write("</plist>\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    private void element(String name, String text) throws IOException {
+        indent();
+        out.write('<');
+        out.write(name);
+        out.write('>');
+        escape(text == null ? "" : text, out);
+        out.write("</");
+        out.write(name);
+        out.write(">\n");
+    }
+
+    private void line(String markup) throws IOException {
+        indent();
+        out.write(markup);
+        out.write('\n');
+    }
+
+    private void indent() throws IOException {
+        for (int i = 0; i < depth; i++) {
+            out.write(INDENT);
+        }
+    }
+
+    /**
+     * Writes text with the XML special characters escaped.
+     *
+     * @param text the text to escape
+     * @param out where to write the escaped text to
+     * @throws IOException if writing fails
+     */
+    public static void escape(String text, Writer out) throws IOException {
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            String replacement;
+            switch (text.charAt(i)) {
+                case '&': replacement = "&amp;"; break;
+                case '<': replacement = "&lt;"; break;
+                case '>': replacement = "&gt;"; break;
+                default: continue;
+            }
+            out.write(text, start, i - start);
+            out.write(replacement);
+            start = i + 1;
+        }
+        out.write(text, start, text.length() - start);
+    }
+
+    /**
+     * Escapes the XML special characters of a string.
+     *
+     * @param text the text to escape, may be <code>null</code>
+     * @return the escaped text, an empty string for <code>null</code>
+     */
+    public static String escape(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilderWriter writer = new StringBuilderWriter(text.length() + 16);
+        try {
+            escape(text, writer);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * An unsynchronized in-memory writer.
+     */
+    private static class StringBuilderWriter extends Writer {
+
+        private final StringBuilder builder;
+
+        StringBuilderWriter(int capacity) {
+            builder = new StringBuilder(capacity);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            builder.append(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            builder.append(str, off, off + len);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return builder.toString();
+        }
+    }
+}
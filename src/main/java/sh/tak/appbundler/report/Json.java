@@ -0,0 +1,268 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.report;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON to write size reports and read previous ones back.
+ * <p/>
+ * Objects are read as {@link Map}s, arrays as {@link List}s, numbers as
+ * {@link Long} or {@link Double}.
+ */
+final class Json {
+
+    private final Reader reader;
+
+    private int next;
+
+    private Json(Reader reader) throws IOException {
+        this.reader = reader;
+        this.next = reader.read();
+    }
+
+    /**
+     * Parses a JSON document.
+     *
+     * @param reader the document
+     * @return the top level value
+     * @throws IOException if the document cannot be read or is not valid JSON
+     */
+    static Object parse(Reader reader) throws IOException {
+        Json json = new Json(reader);
+        Object value = json.value();
+        json.skipWhitespace();
+        if (json.next != -1) {
+            throw json.error("Trailing content");
+        }
+        return value;
+    }
+
+    /**
+     * Writes a string literal.
+     *
+     * @param value the string
+     * @param writer where to write to
+     * @throws IOException if writing fails
+     */
+    static void quote(String value, Writer writer) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+            }
+        }
+        writer.write('"');
+    }
+
+    private Object value() throws IOException {
+        skipWhitespace();
+        switch (next) {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return string();
+            case 't':
+                literal("true");
+                return Boolean.TRUE;
+            case 'f':
+                literal("false");
+                return Boolean.FALSE;
+            case 'n':
+                literal("null");
+                return null;
+            default:
+                if (next == '-' || (next >= '0' && next <= '9')) {
+                    return number();
+                }
+                throw error("Unexpected character");
+        }
+    }
+
+    private Map<String, Object> object() throws IOException {
+        Map<String, Object> object = new LinkedHashMap<String, Object>();
+        read();
+        skipWhitespace();
+        if (next == '}') {
+            read();
+            return object;
+        }
+        while (true) {
+            skipWhitespace();
+            if (next != '"') {
+                throw error("Expected a member name");
+            }
+            String name = string();
+            skipWhitespace();
+            expect(':');
+            object.put(name, value());
+            skipWhitespace();
+            if (next == ',') {
+                read();
+            } else {
+                expect('}');
+                return object;
+            }
+        }
+    }
+
+    private List<Object> array() throws IOException {
+        List<Object> array = new ArrayList<Object>();
+        read();
+        skipWhitespace();
+        if (next == ']') {
+            read();
+            return array;
+        }
+        while (true) {
+            array.add(value());
+            skipWhitespace();
+            if (next == ',') {
+                read();
+            } else {
+                expect(']');
+                return array;
+            }
+        }
+    }
+
+    private String string() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        read();
+        while (next != '"') {
+            if (next == -1) {
+                throw error("Unterminated string");
+            }
+            if (next == '\\') {
+                read();
+                switch (next) {
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        char[] hex = new char[4];
+                        for (int i = 0; i < 4; i++) {
+                            read();
+                            hex[i] = (char) next;
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(new String(hex), 16));
+                        } catch (NumberFormatException ex) {
+                            throw error("Invalid unicode escape");
+                        }
+                        break;
+                    case -1:
+                        throw error("Unterminated string");
+                    default:
+                        sb.append((char) next);
+                }
+            } else {
+                sb.append((char) next);
+            }
+            read();
+        }
+        read();
+        return sb.toString();
+    }
+
+    private Number number() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (next == '-' || next == '+' || next == '.' || next == 'e' || next == 'E' || (next >= '0' && next <= '9')) {
+            sb.append((char) next);
+            read();
+        }
+        String number = sb.toString();
+        try {
+            if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+                return Long.valueOf(number);
+            }
+            return Double.valueOf(number);
+        } catch (NumberFormatException ex) {
+            throw error("Invalid number " + number);
+        }
+    }
+
+    private void literal(String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (next != literal.charAt(i)) {
+                throw error("Expected " + literal);
+            }
+            read();
+        }
+    }
+
+    private void expect(char c) throws IOException {
+        if (next != c) {
+            throw error("Expected '" + c + "'");
+        }
+        read();
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (next == ' ' || next == '\t' || next == '\n' || next == '\r') {
+            read();
+        }
+    }
+
+    private void read() throws IOException {
+        next = reader.read();
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " in JSON document");
+    }
+}
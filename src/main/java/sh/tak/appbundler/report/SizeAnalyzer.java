@@ -0,0 +1,249 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+/**
+ * Attributes every file below a directory to a group of a {@link SizeReport}.
+ * <p/>
+ * Files are matched against the registered files first, then against the
+ * registered directories, the longest one winning. Everything else ends up in
+ * the {@link SizeReport#OTHER} category, grouped by its top level entry. Hard
+ * linked files are counted once, where they are found first. The tree is
+ * walked in name order, directories registered as linked directories last, so
+ * the result does not depend on the order the file system lists files in.
+ * <p/>
+ * The compressed size is estimated with the fastest deflate level, which is
+ * what <code>hdiutil</code> uses for compressed disk images by default.
+ */
+public class SizeAnalyzer {
+
+    private final Map<String, String[]> files = new HashMap<String, String[]>();
+
+    private final List<String[]> directories = new ArrayList<String[]>();
+
+    private final List<String> linkedDirectories = new ArrayList<String>();
+
+    /**
+     * Attributes a single file to a group.
+     *
+     * @param path the path of the file relative to the analyzed directory,
+     * with <code>/</code> as separator
+     * @param category the category of the group
+     * @param name the name of the group
+     */
+    public void addFile(String path, String category, String name) {
+        files.put(path, new String[] {category, name});
+    }
+
+    /**
+     * Attributes all files below a directory to a group.
+     *
+     * @param path the path of the directory relative to the analyzed
+     * directory, with <code>/</code> as separator
+     * @param category the category of the group
+     * @param name the name of the group, or <code>null</code> to make every
+     * entry of the directory a group of its own
+     */
+    public void addDirectory(String path, String category, String name) {
+        directories.add(new String[] {path.endsWith("/") ? path : path + "/", category, name});
+    }
+
+    /**
+     * Attributes all files below a directory that mostly hard-links files
+     * found elsewhere, like a bundle variant, to a group. The directory is
+     * walked after everything else, so a linked file is always counted where
+     * it is linked from and only the files of its own end up in this group.
+     *
+     * @param path the path of the directory relative to the analyzed
+     * directory, with <code>/</code> as separator
+     * @param category the category of the group
+     * @param name the name of the group
+     */
+    public void addLinkedDirectory(String path, String category, String name) {
+        addDirectory(path, category, name);
+        linkedDirectories.add(path.endsWith("/") ? path : path + "/");
+    }
+
+    /**
+     * Analyzes a directory.
+     *
+     * @param root the directory
+     * @param threads the number of files to read at the same time
+     * @return the report
+     * @throws IOException if a file cannot be read
+     */
+    public SizeReport analyze(File root, int threads) throws IOException {
+        final Path rootPath = root.toPath();
+        final List<Path> regularFiles = new ArrayList<Path>();
+        final SizeReport report = new SizeReport();
+        final Set<Object> seen = new HashSet<Object>();
+
+        List<Path> primary = new ArrayList<Path>();
+        List<Path> linked = new ArrayList<Path>();
+        walk(rootPath, rootPath, primary, linked);
+        primary.addAll(linked);
+
+        for (Path file : primary) {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            Object key = attrs.fileKey();
+            if (attrs.isSymbolicLink() || (key != null && !seen.add(key))) {
+                // links take no space of their own
+                String[] group = classify(relativize(rootPath, file));
+                report.add(group[0], group[1], 0, 0);
+            } else {
+                regularFiles.add(file);
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (final Path file : regularFiles) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        String[] group = classify(relativize(rootPath, file));
+                        report.add(group[0], group[1], Files.size(file), compressedSize(file));
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while analyzing " + root, ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException("Error analyzing " + root, ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return report;
+    }
+
+    /**
+     * Lists the files below a directory depth first in name order, those in
+     * linked directories separately.
+     */
+    private void walk(Path root, Path directory, List<Path> primary, List<Path> linked) throws IOException {
+        List<Path> children = new ArrayList<Path>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+        try {
+            for (Path child : stream) {
+                children.add(child);
+            }
+        } finally {
+            stream.close();
+        }
+        Collections.sort(children);
+
+        for (Path child : children) {
+            if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                walk(root, child, primary, linked);
+            } else if (isLinked(relativize(root, child))) {
+                linked.add(child);
+            } else {
+                primary.add(child);
+            }
+        }
+    }
+
+    private boolean isLinked(String path) {
+        for (String directory : linkedDirectories) {
+            if (path.startsWith(directory)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String relativize(Path root, Path file) {
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private String[] classify(String path) {
+        String[] group = files.get(path);
+        if (group != null) {
+            return group;
+        }
+
+        String[] match = null;
+        for (String[] directory : directories) {
+            if (path.startsWith(directory[0]) && (match == null || directory[0].length() > match[0].length())) {
+                match = directory;
+            }
+        }
+        if (match != null) {
+            return new String[] {match[1], match[2] != null ? match[2] : firstSegment(path.substring(match[0].length()))};
+        }
+        return new String[] {SizeReport.OTHER, firstSegment(path)};
+    }
+
+    private static String firstSegment(String path) {
+        int slash = path.indexOf('/');
+        return slash < 0 ? path : path.substring(0, slash);
+    }
+
+    private static long compressedSize(Path file) throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        byte[] input = new byte[65536];
+        byte[] output = new byte[65536];
+        long size = 0;
+        InputStream in = Files.newInputStream(file);
+        try {
+            int n;
+            while ((n = in.read(input)) != -1) {
+                deflater.setInput(input, 0, n);
+                while (!deflater.needsInput()) {
+                    size += deflater.deflate(output);
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                size += deflater.deflate(output);
+            }
+        } finally {
+            in.close();
+            deflater.end();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,439 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.report;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * How many bytes the parts of a bundle take up.
+ * <p/>
+ * Every file in the build directory is attributed to exactly one group, like
+ * a dependency or a directory of the embedded JRE, and every group belongs to
+ * one of the {@link #CATEGORIES}. Besides the size on disk each group carries
+ * an estimate of its compressed size, which is closer to what users download.
+ */
+public class SizeReport {
+
+    public static final String TOTAL = "total";
+
+    public static final String APPLICATION = "application";
+
+    public static final String DEPENDENCIES = "dependencies";
+
+    public static final String CLASSPATH_RESOURCES = "classpathResources";
+
+    public static final String RESOURCES = "resources";
+
+    public static final String JRE = "jre";
+
+    public static final String VARIANTS = "variants";
+
+    public static final String OTHER = "other";
+
+    /**
+     * All categories, in the order they are reported.
+     */
+    public static final List<String> CATEGORIES = Collections.unmodifiableList(Arrays.asList(
+            APPLICATION, DEPENDENCIES, CLASSPATH_RESOURCES, RESOURCES, JRE, VARIANTS, OTHER));
+
+    private static final int FORMAT = 1;
+
+    private final Map<String, Group> groups = new LinkedHashMap<String, Group>();
+
+    private final Map<String, Group> skipped = new LinkedHashMap<String, Group>();
+
+    /**
+     * Adds a file to a group.
+     *
+     * @param category the category of the group
+     * @param name the name of the group
+     * @param bytes the size of the file
+     * @param compressedBytes the estimated compressed size of the file
+     */
+    public synchronized void add(String category, String name, long bytes, long compressedBytes) {
+        group(groups, category, name).add(1, bytes, compressedBytes);
+    }
+
+    /**
+     * Records files that were deliberately left out of the bundle.
+     *
+     * @param category the category the files would have belonged to
+     * @param name what was left out
+     * @param files the number of files
+     * @param bytes their size
+     */
+    public synchronized void addSkipped(String category, String name, long files, long bytes) {
+        group(skipped, category, name).add(files, bytes, 0);
+    }
+
+    private static Group group(Map<String, Group> groups, String category, String name) {
+        String key = category + "/" + name;
+        Group group = groups.get(key);
+        if (group == null) {
+            group = new Group(category, name);
+            groups.put(key, group);
+        }
+        return group;
+    }
+
+    /**
+     * The groups, largest first within each category.
+     *
+     * @return the groups
+     */
+    public synchronized List<Group> getGroups() {
+        List<Group> sorted = new ArrayList<Group>(groups.values());
+        Collections.sort(sorted, new Comparator<Group>() {
+            public int compare(Group a, Group b) {
+                int category = CATEGORIES.indexOf(a.category) - CATEGORIES.indexOf(b.category);
+                if (category != 0) {
+                    return category;
+                }
+                if (a.bytes != b.bytes) {
+                    return a.bytes > b.bytes ? -1 : 1;
+                }
+                return a.name.compareTo(b.name);
+            }
+        });
+        return sorted;
+    }
+
+    public synchronized List<Group> getSkipped() {
+        return new ArrayList<Group>(skipped.values());
+    }
+
+    /**
+     * Sums up all groups of a category.
+     *
+     * @param category the category, or {@link #TOTAL} for all groups
+     * @return the sum
+     */
+    public synchronized Group getCategory(String category) {
+        Group sum = new Group(category, category);
+        for (Group group : groups.values()) {
+            if (TOTAL.equals(category) || group.category.equals(category)) {
+                sum.add(group.files, group.bytes, group.compressedBytes);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Finds a group.
+     *
+     * @param category the category of the group
+     * @param name the name of the group
+     * @return the group, or <code>null</code>
+     */
+    public synchronized Group getGroup(String category, String name) {
+        return groups.get(category + "/" + name);
+    }
+
+    /**
+     * Writes the report as JSON.
+     *
+     * @param writer where to write to
+     * @throws IOException if writing fails
+     */
+    public void writeJson(Writer writer) throws IOException {
+        writer.write("{\n  \"format\": " + FORMAT + ",\n  \"total\": ");
+        writeGroup(getCategory(TOTAL), writer, false);
+        writer.write(",\n  \"categories\": {");
+        boolean first = true;
+        for (String category : CATEGORIES) {
+            writer.write(first ? "\n    " : ",\n    ");
+            first = false;
+            Json.quote(category, writer);
+            writer.write(": ");
+            writeGroup(getCategory(category), writer, false);
+        }
+        writer.write("\n  },\n  \"groups\": [");
+        writeGroups(getGroups(), writer);
+        writer.write("],\n  \"skipped\": [");
+        writeGroups(getSkipped(), writer);
+        writer.write("]\n}\n");
+    }
+
+    private static void writeGroups(List<Group> groups, Writer writer) throws IOException {
+        boolean first = true;
+        for (Group group : groups) {
+            writer.write(first ? "\n    " : ",\n    ");
+            first = false;
+            writeGroup(group, writer, true);
+        }
+        if (!first) {
+            writer.write("\n  ");
+        }
+    }
+
+    private static void writeGroup(Group group, Writer writer, boolean named) throws IOException {
+        writer.write('{');
+        if (named) {
+            writer.write("\"category\": ");
+            Json.quote(group.category, writer);
+            writer.write(", \"name\": ");
+            Json.quote(group.name, writer);
+            writer.write(", ");
+        }
+        writer.write("\"files\": " + group.files + ", \"bytes\": " + group.bytes + ", \"compressedBytes\": " + group.compressedBytes + "}");
+    }
+
+    /**
+     * Reads a report written by {@link #writeJson(Writer)}.
+     *
+     * @param file the JSON file
+     * @return the report
+     * @throws IOException if the file cannot be read or is not a size report
+     */
+    public static SizeReport readJson(File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            Object document = Json.parse(reader);
+            if (!(document instanceof Map) || !Long.valueOf(FORMAT).equals(((Map<?, ?>) document).get("format"))) {
+                throw new IOException(file + " is not a size report");
+            }
+
+            SizeReport report = new SizeReport();
+            readGroups((Map<?, ?>) document, "groups", report.groups);
+            readGroups((Map<?, ?>) document, "skipped", report.skipped);
+            return report;
+        } catch (ClassCastException ex) {
+            throw new IOException(file + " is not a size report", ex);
+        } finally {
+            IOUtil.close(reader);
+        }
+    }
+
+    private static void readGroups(Map<?, ?> document, String key, Map<String, Group> groups) {
+        List<?> list = (List<?>) document.get(key);
+        if (list == null) {
+            return;
+        }
+        for (Object element : list) {
+            Map<?, ?> map = (Map<?, ?>) element;
+            group(groups, (String) map.get("category"), (String) map.get("name")).add(
+                    ((Number) map.get("files")).longValue(),
+                    ((Number) map.get("bytes")).longValue(),
+                    ((Number) map.get("compressedBytes")).longValue());
+        }
+    }
+
+    /**
+     * Writes the report as an HTML page.
+     *
+     * @param writer where to write to
+     * @param title the title of the page
+     * @param baseline an earlier report to compare with, may be
+     * <code>null</code>
+     * @throws IOException if writing fails
+     */
+    public void writeHtml(Writer writer, String title, SizeReport baseline) throws IOException {
+        writer.write("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"UTF-8\">\n<title>");
+        writer.write(html(title));
+        writer.write("</title>\n<style>\n"
+                + "body { font-family: -apple-system, Helvetica, Arial, sans-serif; font-size: 13px; margin: 2em; }\n"
+                + "table { border-collapse: collapse; }\n"
+                + "th, td { padding: 3px 10px; text-align: right; border-bottom: 1px solid #eee; }\n"
+                + "th:nth-child(2), td:nth-child(2) { text-align: left; }\n"
+                + "tr.category td { font-weight: bold; background: #f4f4f4; }\n"
+                + ".bar { display: inline-block; height: 9px; background: #4a90d9; }\n"
+                + ".grew { color: #c00; } .shrank { color: #080; }\n"
+                + "</style>\n</head>\n<body>\n<h1>");
+        writer.write(html(title));
+        writer.write("</h1>\n");
+
+        Group total = getCategory(TOTAL);
+        writer.write("<p>" + total.files + " files, " + formatSize(total.bytes) + ", about "
+                + formatSize(total.compressedBytes) + " compressed");
+        if (baseline != null) {
+            writer.write(", " + delta(total.bytes, baseline.getCategory(TOTAL).bytes) + " since the previous report");
+        }
+        writer.write(".</p>\n<table>\n<tr><th></th><th>Name</th><th>Files</th><th>Size</th><th>Compressed</th>");
+        writer.write(baseline != null ? "<th>Change</th></tr>\n" : "</tr>\n");
+
+        List<Group> sorted = getGroups();
+        for (String category : CATEGORIES) {
+            Group sum = getCategory(category);
+            Group previous = baseline != null ? baseline.getCategory(category) : null;
+            if (sum.files == 0 && (previous == null || previous.files == 0)) {
+                continue;
+            }
+            writeRow(writer, "category", sum, category, total.bytes, previous, baseline != null);
+            for (Group group : sorted) {
+                if (group.category.equals(category)) {
+                    writeRow(writer, null, group, group.name, total.bytes, baseline != null ? baseline.getGroup(category, group.name) : null, baseline != null);
+                }
+            }
+            if (baseline != null) {
+                for (Group removed : baseline.getGroups()) {
+                    if (removed.category.equals(category) && getGroup(category, removed.name) == null) {
+                        writeRow(writer, null, new Group(category, removed.name), removed.name + " (removed)", total.bytes, removed, true);
+                    }
+                }
+            }
+        }
+        writer.write("</table>\n");
+
+        List<Group> skippedGroups = getSkipped();
+        if (!skippedGroups.isEmpty()) {
+            writer.write("<h2>Left out of the bundle</h2>\n<table>\n<tr><th></th><th>Name</th><th>Files</th><th>Size</th></tr>\n");
+            for (Group group : skippedGroups) {
+                writer.write("<tr><td>" + html(group.category) + "</td><td>" + html(group.name) + "</td><td>" + group.files
+                        + "</td><td>" + formatSize(group.bytes) + "</td></tr>\n");
+            }
+            writer.write("</table>\n");
+        }
+        writer.write("</body>\n</html>\n");
+    }
+
+    private static void writeRow(Writer writer, String cssClass, Group group, String name, long total, Group previous, boolean compare) throws IOException {
+        int width = total > 0 ? (int) (200 * group.bytes / total) : 0;
+        writer.write(cssClass != null ? "<tr class=\"" + cssClass + "\">" : "<tr>");
+        writer.write("<td><span class=\"bar\" style=\"width: " + width + "px\"></span></td>");
+        writer.write("<td>" + html(name) + "</td><td>" + group.files + "</td>");
+        writer.write("<td title=\"" + group.bytes + " bytes\">" + formatSize(group.bytes) + "</td>");
+        writer.write("<td title=\"" + group.compressedBytes + " bytes\">" + formatSize(group.compressedBytes) + "</td>");
+        if (compare) {
+            long before = previous != null ? previous.bytes : 0;
+            String css = group.bytes > before ? "grew" : group.bytes < before ? "shrank" : "";
+            writer.write("<td class=\"" + css + "\">" + delta(group.bytes, before) + "</td>");
+        }
+        writer.write("</tr>\n");
+    }
+
+    private static String delta(long now, long before) {
+        if (now == before) {
+            return "&plusmn;0";
+        }
+        return (now > before ? "+" : "-") + formatSize(Math.abs(now - before));
+    }
+
+    private static String html(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    /**
+     * Formats a size for humans.
+     *
+     * @param bytes the size
+     * @return the size with a binary unit, like <code>1.5 MB</code>
+     */
+    public static String formatSize(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        String[] units = {"KB", "MB", "GB", "TB"};
+        double size = bytes;
+        int unit = -1;
+        while (size >= 1024 && unit < units.length - 1) {
+            size /= 1024;
+            unit++;
+        }
+        return String.format(Locale.ROOT, "%.1f %s", size, units[unit]);
+    }
+
+    /**
+     * Parses a size like <code>150M</code>, <code>1.5GB</code> or
+     * <code>4096</code>. Units are binary.
+     *
+     * @param size the size
+     * @return the size in bytes
+     * @throws NumberFormatException if the size cannot be parsed
+     */
+    public static long parseSize(String size) {
+        String value = size.trim().toUpperCase(Locale.ROOT);
+        if (value.endsWith("B")) {
+            value = value.substring(0, value.length() - 1);
+        }
+        long factor = 1;
+        if (value.length() > 0) {
+            int unit = "KMGT".indexOf(value.charAt(value.length() - 1));
+            if (unit >= 0) {
+                factor = 1L << (10 * (unit + 1));
+                value = value.substring(0, value.length() - 1).trim();
+            }
+        }
+        if (value.length() == 0) {
+            throw new NumberFormatException("Invalid size '" + size + "'");
+        }
+        try {
+            return (long) (Double.parseDouble(value) * factor);
+        } catch (NumberFormatException ex) {
+            throw new NumberFormatException("Invalid size '" + size + "'");
+        }
+    }
+
+    /**
+     * A number of files and their size.
+     */
+    public static class Group {
+
+        private final String category;
+
+        private final String name;
+
+        private long files;
+
+        private long bytes;
+
+        private long compressedBytes;
+
+        Group(String category, String name) {
+            this.category = category;
+            this.name = name;
+        }
+
+        void add(long files, long bytes, long compressedBytes) {
+            this.files += files;
+            this.bytes += bytes;
+            this.compressedBytes += compressedBytes;
+        }
+
+        public String getCategory() {
+            return category;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getFiles() {
+            return files;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getCompressedBytes() {
+            return compressedBytes;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.stage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * The stages of creating an Application Bundle and the order they depend on
+ * each other in. The work itself is done by the {@link Steps}.
+ */
+public class BundleStages {
+
+    /**
+     * The work done by the stages.
+     */
+    public interface Steps {
+
+        void copyLauncher() throws MojoExecutionException;
+
+        void makeLauncherExecutable() throws MojoExecutionException;
+
+        void copyIcon() throws MojoExecutionException;
+
+        /**
+         * Copies the project artifact, its dependencies and the
+         * <code>additionalBundledClasspathResources</code>.
+         *
+         * @return the paths within $JAVAROOT to put on the classpath
+         */
+        List<String> copyDependencies() throws MojoExecutionException;
+
+        void copyJre() throws MojoExecutionException;
+
+        void writeInfoPlist(List<String> classPath) throws MojoExecutionException;
+
+        void copyAdditionalResources() throws MojoExecutionException;
+
+        void thinBinaries() throws MojoExecutionException;
+
+        void createVariants(List<String> classPath) throws MojoExecutionException;
+    }
+
+    private final Steps steps;
+
+    private final boolean thinning;
+
+    private final boolean variants;
+
+    /**
+     * @param steps the work to do
+     * @param thinning whether universal binaries are thinned
+     * @param variants whether there are bundle variants
+     */
+    public BundleStages(Steps steps, boolean thinning, boolean variants) {
+        this.steps = steps;
+        this.thinning = thinning;
+        this.variants = variants;
+    }
+
+    /**
+     * Runs all stages.
+     *
+     * @param threads the maximum number of stages to run at the same time
+     * @param log the logger to report stage timings to
+     * @throws MojoExecutionException the failure of the first stage that
+     * failed
+     */
+    public void execute(int threads, Log log) throws MojoExecutionException {
+        // written by the dependencies stage, read by the stages depending on it
+        final List<String> classPath = Collections.synchronizedList(new ArrayList<String>());
+        StageGraph stages = new StageGraph(log);
+
+        // 1. Copy in the native java application stub
+        stages.add("launcher", new Stage() {
+            public void run() throws MojoExecutionException {
+                steps.copyLauncher();
+            }
+        });
+
+        // 2. Copy icon file to the bundle if specified
+        stages.add("icon", new Stage() {
+            public void run() throws MojoExecutionException {
+                steps.copyIcon();
+            }
+        });
+
+        // 3. Resolve and copy in all dependencies from the pom
+        stages.add("dependencies", new Stage() {
+            public void run() throws MojoExecutionException {
+                classPath.addAll(steps.copyDependencies());
+            }
+        });
+
+        // 4. Check if JRE should be embedded. Check JRE path. Copy JRE
+        stages.add("jre", new Stage() {
+            public void run() throws MojoExecutionException {
+                steps.copyJre();
+            }
+        });
+
+        // 5. Create and write the Info.plist file, it names the JRE and the jars
+        stages.add("plist", new Stage() {
+            public void run() throws MojoExecutionException {
+                steps.writeInfoPlist(new ArrayList<String>(classPath));
+            }
+        }, "dependencies", "jre");
+
+        // 6. Copy specified additional resources into the top level directory
+        stages.add("resources", new Stage() {
+            public void run() throws MojoExecutionException {
+                steps.copyAdditionalResources();
+            }
+        });
+
+        // 7. Make the stub executable
+        stages.add("chmod", new Stage() {
+            public void run() throws MojoExecutionException {
+                steps.makeLauncherExecutable();
+            }
+        }, "launcher");
+
+        List<String> variantDependencies = new ArrayList<String>(Arrays.asList("launcher", "icon", "dependencies", "jre", "plist", "chmod"));
+
+        // 8. Remove unwanted architectures from universal binaries
+        if (thinning) {
+            stages.add("thin", new Stage() {
+                public void run() throws MojoExecutionException {
+                    steps.thinBinaries();
+                }
+            }, "launcher", "chmod", "dependencies", "jre", "resources");
+            variantDependencies.add("thin");
+        }
+
+        // 9. Create the bundle variants from the finished main bundle
+        if (variants) {
+            stages.add("variants", new Stage() {
+                public void run() throws MojoExecutionException {
+                    steps.createVariants(new ArrayList<String>(classPath));
+                }
+            }, variantDependencies.toArray(new String[variantDependencies.size()]));
+        }
+
+        stages.execute(threads);
+    }
+}
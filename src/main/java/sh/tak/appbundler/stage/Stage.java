@@ -0,0 +1,32 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.stage;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * One step of building the bundle, run by a {@link StageGraph}.
+ */
+public interface Stage {
+
+    /**
+     * Runs the stage. All stages it depends on have completed successfully
+     * when this is called.
+     *
+     * @throws MojoExecutionException if the stage fails
+     */
+    void run() throws MojoExecutionException;
+}
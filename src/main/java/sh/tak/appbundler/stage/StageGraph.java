@@ -0,0 +1,192 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.stage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Runs a set of stages with dependencies between them, starting every stage
+ * as soon as all of its dependencies have completed. Independent stages run
+ * concurrently, so the total time approaches that of the longest chain of
+ * dependent stages.
+ * <p/>
+ * When a stage fails no further stages are started, and the failure is
+ * rethrown once the running stages have finished.
+ */
+public class StageGraph {
+
+    private final Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+
+    private final Log log;
+
+    /**
+     * Creates an empty graph.
+     *
+     * @param log the logger to report stage timings to
+     */
+    public StageGraph(Log log) {
+        this.log = log;
+    }
+
+    /**
+     * Adds a stage.
+     *
+     * @param name a unique name for the stage
+     * @param stage the work to do
+     * @param dependencies the names of stages that must complete first; they
+     * must have been added before
+     */
+    public void add(String name, Stage stage, String... dependencies) {
+        if (nodes.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate stage " + name);
+        }
+        for (String dependency : dependencies) {
+            if (!nodes.containsKey(dependency)) {
+                throw new IllegalArgumentException("Stage " + name + " depends on unknown stage " + dependency);
+            }
+        }
+        nodes.put(name, new Node(name, stage, Arrays.asList(dependencies)));
+    }
+
+    /**
+     * Runs all stages.
+     *
+     * @param threads the maximum number of stages to run at the same time;
+     * with 1 the stages run one after another
+     * @throws MojoExecutionException the failure of the first stage that
+     * failed
+     */
+    public void execute(int threads) throws MojoExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        CompletionService<Node> completion = new ExecutorCompletionService<Node>(executor);
+        try {
+            List<Node> pending = new ArrayList<Node>(nodes.values());
+            int running = 0;
+            MojoExecutionException failure = null;
+
+            while (true) {
+                if (failure == null) {
+                    running += submitReady(pending, completion);
+                }
+                if (running == 0) {
+                    break;
+                }
+
+                Future<Node> done = completion.take();
+                running--;
+                try {
+                    done.get().completed = true;
+                } catch (ExecutionException ex) {
+                    if (failure == null) {
+                        failure = unwrap(ex);
+                    }
+                }
+            }
+
+            if (failure != null) {
+                throw failure;
+            }
+            if (!pending.isEmpty()) {
+                // only possible when the graph was modified while executing
+                throw new IllegalStateException("Stages could not be scheduled: " + pending);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Thread was interrupted while creating the bundle", ex);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private int submitReady(List<Node> pending, CompletionService<Node> completion) {
+        int submitted = 0;
+        for (int i = 0; i < pending.size(); i++) {
+            final Node node = pending.get(i);
+            if (!isReady(node)) {
+                continue;
+            }
+            pending.remove(i--);
+            completion.submit(new Callable<Node>() {
+                public Node call() throws MojoExecutionException {
+                    long start = System.currentTimeMillis();
+                    node.stage.run();
+                    log.debug("Stage " + node.name + " took " + (System.currentTimeMillis() - start) + " ms");
+                    return node;
+                }
+            });
+            submitted++;
+        }
+        return submitted;
+    }
+
+    private boolean isReady(Node node) {
+        for (String dependency : node.dependencies) {
+            if (!nodes.get(dependency).completed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static MojoExecutionException unwrap(ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof MojoExecutionException) {
+            return (MojoExecutionException) cause;
+        }
+        return new MojoExecutionException("Unexpected error while creating the bundle", cause);
+    }
+
+    /**
+     * A stage and its position in the graph.
+     */
+    private static class Node {
+
+        private final String name;
+
+        private final Stage stage;
+
+        private final List<String> dependencies;
+
+        /**
+         * Only read and written by the thread calling execute().
+         */
+        private boolean completed;
+
+        Node(String name, Stage stage, List<String> dependencies) {
+            this.name = name;
+            this.stage = stage;
+            this.dependencies = dependencies;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.sync;
+
+import java.io.IOException;
+
+/**
+ * Copies files into the build directory and records the copies, so the next
+ * build can tell whether they were changed outside of the build.
+ */
+public interface CopyRecorder {
+
+    /**
+     * Records the size and modification time that the copies have now. Call
+     * this after the last step of the build that changes the copies, like
+     * thinning binaries or normalizing timestamps.
+     *
+     * @throws IOException if a state file cannot be written
+     */
+    void recordCopies() throws IOException;
+}
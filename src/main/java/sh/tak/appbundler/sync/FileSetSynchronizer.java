@@ -0,0 +1,363 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.sync;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.maven.plugin.logging.Log;
+import sh.tak.appbundler.util.Digests;
+import sh.tak.appbundler.util.RecordedDigests;
+
+/**
+ * Incrementally mirrors lists of files from source directories into a target
+ * directory.
+ * <p/>
+ * Only files that are new or whose content changed since the previous run are
+ * copied. A file whose size or modification time changed is re-hashed first,
+ * so touching a file does not rewrite it. Copies that were changed or removed
+ * by something else than the build are copied again. Files that were
+ * synchronized before but are no longer part of the list are removed from the
+ * target directory. File modes are only changed when they differ from the
+ * requested mode.
+ * <p/>
+ * Copies are written next to their destination and then moved into place, so
+ * a hard link to an earlier copy, like the ones of bundle variants, keeps its
+ * content.
+ */
+public class FileSetSynchronizer implements CopyRecorder {
+
+    private final File stateDirectory;
+
+    private final Log log;
+
+    private final boolean verifyContent;
+
+    private RecordedDigests recordedDigests;
+
+    private String transformation;
+
+    private final List<Run> runs = new ArrayList<Run>();
+
+    /**
+     * Creates a synchronizer that compares file contents before rewriting a
+     * file whose size or modification time changed.
+     *
+     * @param stateDirectory where the per-FileSet state files are kept
+     * @param log the logger to report to
+     */
+    public FileSetSynchronizer(File stateDirectory, Log log) {
+        this(stateDirectory, log, true);
+    }
+
+    /**
+     * Creates a synchronizer.
+     *
+     * @param stateDirectory where the per-FileSet state files are kept
+     * @param log the logger to report to
+     * @param verifyContent if false, any change of size or modification time
+     * causes a file to be copied without hashing it first
+     */
+    public FileSetSynchronizer(File stateDirectory, Log log, boolean verifyContent) {
+        this.stateDirectory = stateDirectory;
+        this.log = log;
+        this.verifyContent = verifyContent;
+    }
+
+    /**
+     * Passes the digest of every file in the target directory, whether it was
+     * copied or was already up to date, on to the given store.
+     *
+     * @param recordedDigests where to record the digests, or null
+     */
+    public void setRecordedDigests(RecordedDigests recordedDigests) {
+        this.recordedDigests = recordedDigests;
+    }
+
+    /**
+     * Describes how the copies are changed after they were made, like the
+     * architectures binaries are thinned to. Files copied under another
+     * description are copied again, from the unchanged source.
+     *
+     * @param transformation the description, or null if the copies are left
+     * as they are
+     */
+    public void setTransformation(String transformation) {
+        this.transformation = transformation;
+    }
+
+    /**
+     * Synchronizes the given files.
+     *
+     * @param key identifies the target; the same key must be passed on every
+     * run for the same target directory
+     * @param sourceDirectory the directory the relative paths are resolved
+     * against
+     * @param files the relative paths of all files that make up the FileSet
+     * @param targetDirectory the directory to mirror the files into
+     * @param executable whether the copied files should be executable
+     * @return a summary of the work done
+     * @throws IOException if a file cannot be copied or removed
+     */
+    public Result sync(String key, File sourceDirectory, List<String> files, File targetDirectory, boolean executable) throws IOException {
+        return sync(key, Collections.singletonList(new Source(sourceDirectory, files, executable)), targetDirectory);
+    }
+
+    /**
+     * Synchronizes the files of several FileSets into one target directory.
+     * A path listed by more than one source is taken from the last of them.
+     * Files are only removed when none of the sources lists them any more.
+     *
+     * @param key identifies the target; the same key must be passed on every
+     * run for the same target directory
+     * @param sources the FileSets
+     * @param targetDirectory the directory to mirror the files into
+     * @return a summary of the work done
+     * @throws IOException if a file cannot be copied or removed
+     */
+    public Result sync(String key, List<Source> sources, File targetDirectory) throws IOException {
+        File stateFile = new File(stateDirectory, Digests.sha256(key).substring(0, 16) + ".state");
+        SyncState previous = SyncState.load(stateFile);
+        SyncState current = new SyncState();
+        Result result = new Result();
+
+        Map<String, Source> files = new LinkedHashMap<String, Source>();
+        for (Source source : sources) {
+            for (String path : source.files) {
+                files.remove(path);
+                files.put(path, source);
+            }
+        }
+
+        Set<String> remaining = new HashSet<String>(previous.paths());
+        boolean dirty = false;
+
+        for (Map.Entry<String, Source> file : files.entrySet()) {
+            String path = file.getKey();
+            remaining.remove(path);
+
+            String origin = transformation == null ? file.getValue().origin
+                    : Digests.sha256(file.getValue().origin + " " + transformation).substring(0, 16);
+            boolean executable = file.getValue().executable;
+            File source = new File(file.getValue().directory, path);
+            File destination = new File(targetDirectory, path);
+            SyncState.Entry entry = previous.get(path);
+
+            if (entry != null && !entry.copyMatches(destination) && destination.exists()) {
+                log.debug(destination + " was changed outside of the build");
+            }
+            if (entry != null && entry.copyMatches(destination) && origin.equals(entry.getOrigin())) {
+                if (entry.matches(source)) {
+                    current.put(path, entry);
+                    result.unchanged++;
+                    applyMode(destination, executable);
+                    record(destination, entry);
+                    continue;
+                }
+
+                // size or timestamp changed, only rewrite when the content did
+                String digest = verifyContent ? Digests.sha256(source) : null;
+                if (digest != null && digest.equals(entry.getDigest())) {
+                    SyncState.Entry updated = new SyncState.Entry(source.length(), source.lastModified(), digest, origin,
+                            entry.getCopySize(), entry.getCopyLastModified());
+                    current.put(path, updated);
+                    result.unchanged++;
+                    dirty = true;
+                    applyMode(destination, executable);
+                    record(destination, updated);
+                    continue;
+                }
+            }
+
+            log.debug("Copying " + source);
+            SyncState.Entry copied = copy(source, destination, origin);
+            current.put(path, copied);
+            result.copied++;
+            result.changed.add(path);
+            dirty = true;
+            applyMode(destination, executable);
+            record(destination, copied);
+        }
+
+        for (String path : remaining) {
+            File destination = new File(targetDirectory, path);
+            log.debug("Removing " + destination);
+            if (destination.exists() && !destination.delete()) {
+                throw new IOException("Could not remove stale file " + destination);
+            }
+            pruneEmptyParents(destination.getParentFile(), targetDirectory);
+            result.removed++;
+            result.changed.add(path);
+            dirty = true;
+        }
+
+        if (dirty) {
+            current.store(stateFile);
+        }
+        runs.add(new Run(stateFile, current, targetDirectory));
+        return result;
+    }
+
+    /**
+     * Records the size and modification time that the copies made or checked
+     * by this synchronizer have now. Call this after later steps of the build
+     * changed the copies, like thinning binaries or normalizing timestamps;
+     * the next run would take those changes for changes made outside of the
+     * build and copy the files again otherwise.
+     *
+     * @throws IOException if a state file cannot be written
+     */
+    public void recordCopies() throws IOException {
+        for (Run run : runs) {
+            boolean dirty = false;
+            for (String path : run.state.paths()) {
+                SyncState.Entry entry = run.state.get(path);
+                File copy = new File(run.targetDirectory, path);
+                if (!entry.copyMatches(copy) && copy.isFile()) {
+                    run.state.put(path, entry.withCopy(copy));
+                    dirty = true;
+                }
+            }
+            if (dirty) {
+                run.state.store(run.stateFile);
+            }
+        }
+        runs.clear();
+    }
+
+    /**
+     * Copies a file, computing its digest on the fly.
+     */
+    private SyncState.Entry copy(File source, File destination, String origin) throws IOException {
+        long size = source.length();
+        long lastModified = source.lastModified();
+        String digest = Digests.copy(source, destination);
+        return new SyncState.Entry(size, lastModified, digest, origin).withCopy(destination);
+    }
+
+    /**
+     * Hands the digest of the source on for the copy, as long as the copy is
+     * as recorded and still holds the content of the source.
+     */
+    private void record(File destination, SyncState.Entry entry) {
+        if (recordedDigests != null && entry.getDigest() != null && entry.copyHasSourceContent()) {
+            recordedDigests.record(destination, entry.getCopySize(), entry.getCopyLastModified(), entry.getDigest());
+        }
+    }
+
+    private static void applyMode(File file, boolean executable) {
+        if (file.canExecute() != executable) {
+            file.setExecutable(executable, false);
+        }
+    }
+
+    private static void pruneEmptyParents(File directory, File root) {
+        while (directory != null && !directory.equals(root)) {
+            String[] children = directory.list();
+            if (children == null || children.length > 0 || !directory.delete()) {
+                return;
+            }
+            directory = directory.getParentFile();
+        }
+    }
+
+    /**
+     * The files of one FileSet.
+     */
+    public static class Source {
+
+        private final File directory;
+
+        private final List<String> files;
+
+        private final boolean executable;
+
+        private final String origin;
+
+        /**
+         * Describes a FileSet.
+         *
+         * @param directory the directory the relative paths are resolved
+         * against
+         * @param files the relative paths of all files of the FileSet
+         * @param executable whether the copied files should be executable
+         */
+        public Source(File directory, List<String> files, boolean executable) {
+            this.directory = directory;
+            this.files = files;
+            this.executable = executable;
+            this.origin = Digests.sha256(directory.getAbsolutePath()).substring(0, 16);
+        }
+    }
+
+    /**
+     * The state stored by one call of sync().
+     */
+    private static class Run {
+
+        private final File stateFile;
+
+        private final SyncState state;
+
+        private final File targetDirectory;
+
+        Run(File stateFile, SyncState state, File targetDirectory) {
+            this.stateFile = stateFile;
+            this.state = state;
+            this.targetDirectory = targetDirectory;
+        }
+    }
+
+    /**
+     * Summary of one synchronization run.
+     */
+    public static class Result {
+
+        private int copied;
+
+        private int unchanged;
+
+        private int removed;
+
+        private final List<String> changed = new ArrayList<String>();
+
+        public int getCopied() {
+            return copied;
+        }
+
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        public int getRemoved() {
+            return removed;
+        }
+
+        /**
+         * The paths, relative to the target directory, of the files that were
+         * copied or removed.
+         */
+        public List<String> getChanged() {
+            return changed;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.sync;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.codehaus.plexus.util.IOUtil;
+import sh.tak.appbundler.util.Digests;
+
+/**
+ * A digest over all inputs of a build, used to tell whether the outputs of a
+ * previous build are still up to date.
+ * <p/>
+ * File contents are hashed through a digest cache keyed by path, size and
+ * modification time, so unchanged files are not read again.
+ * <p/>
+ * The fingerprint file holds the fingerprint on its first line, followed by
+ * <code>size lastModified path</code> of every output as the build left it,
+ * so outputs that were changed or removed afterwards are noticed.
+ */
+public class Fingerprint {
+
+    private final MessageDigest digest = Digests.newSha256();
+
+    private final SyncState cache;
+
+    private boolean cacheChanged;
+
+    private final Set<String> hashed = new HashSet<String>();
+
+    /**
+     * Creates an empty fingerprint.
+     *
+     * @param cache digests of previously hashed files
+     */
+    public Fingerprint(SyncState cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Adds a named value.
+     *
+     * @param name the name of the input
+     * @param value the value, its <code>toString()</code> is used; collections
+     * are added element by element
+     * @return this fingerprint
+     */
+    public Fingerprint add(String name, Object value) {
+        if (value instanceof Collection) {
+            Collection<?> values = (Collection<?>) value;
+            update(name + "#size", Integer.toString(values.size()));
+            int i = 0;
+            for (Object element : values) {
+                add(name + "[" + i++ + "]", element);
+            }
+        } else {
+            update(name, value == null ? "\u0000null" : value.toString());
+        }
+        return this;
+    }
+
+    /**
+     * Adds the content of a file.
+     *
+     * @param name the name of the input
+     * @param file the file, may be <code>null</code> or missing
+     * @return this fingerprint
+     * @throws IOException if the file cannot be read
+     */
+    public Fingerprint addFile(String name, File file) throws IOException {
+        if (file == null || !file.isFile()) {
+            return add(name, null);
+        }
+
+        String key = file.getAbsolutePath();
+        hashed.add(key);
+        SyncState.Entry entry = cache.get(key);
+        if (entry == null || !entry.matches(file)) {
+            long size = file.length();
+            long lastModified = file.lastModified();
+            entry = new SyncState.Entry(size, lastModified, Digests.sha256(file));
+            cache.put(key, entry);
+            cacheChanged = true;
+        }
+        return add(name, entry.getDigest());
+    }
+
+    /**
+     * Adds the content of a resource on the classpath.
+     *
+     * @param name the name of the input
+     * @param in the resource, may be <code>null</code>; it is closed
+     * @return this fingerprint
+     * @throws IOException if the resource cannot be read
+     */
+    public Fingerprint addStream(String name, InputStream in) throws IOException {
+        if (in == null) {
+            return add(name, null);
+        }
+        MessageDigest resource = Digests.newSha256();
+        try {
+            byte[] buffer = new byte[65536];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                resource.update(buffer, 0, n);
+            }
+        } finally {
+            IOUtil.close(in);
+        }
+        return add(name, Digests.toHex(resource.digest()));
+    }
+
+    /**
+     * Adds the structure of a directory tree: the relative path, size and
+     * modification time of every file, without reading the files.
+     *
+     * @param name the name of the input
+     * @param directory the root of the tree, may be <code>null</code> or
+     * missing
+     * @return this fingerprint
+     */
+    public Fingerprint addTree(String name, File directory) {
+        if (directory == null || !directory.isDirectory()) {
+            return add(name, null);
+        }
+        addTree(name, directory, "");
+        return this;
+    }
+
+    private void addTree(String name, File directory, String prefix) {
+        String[] children = directory.list();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (String child : children) {
+            File file = new File(directory, child);
+            if (file.isDirectory()) {
+                addTree(name, file, prefix + child + "/");
+            } else {
+                update(name + ":" + prefix + child, file.length() + " " + file.lastModified());
+            }
+        }
+    }
+
+    private void update(String name, String value) {
+        try {
+            byte[] nameBytes = name.getBytes("UTF-8");
+            byte[] valueBytes = value.getBytes("UTF-8");
+            // length prefixes keep adjacent values from running into each other
+            digest.update(Integer.toString(nameBytes.length).getBytes("UTF-8"));
+            digest.update((byte) ':');
+            digest.update(nameBytes);
+            digest.update(Integer.toString(valueBytes.length).getBytes("UTF-8"));
+            digest.update((byte) ':');
+            digest.update(valueBytes);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Drops the digests of the files this fingerprint did not add, like those
+     * of dependencies that are no longer used, so the cache does not grow with
+     * every version.
+     */
+    public void pruneCache() {
+        if (cache.retain(hashed)) {
+            cacheChanged = true;
+        }
+    }
+
+    /**
+     * Tells whether files were hashed that were not in the cache yet, or
+     * digests were dropped from it.
+     *
+     * @return true if the cache should be stored
+     */
+    public boolean isCacheChanged() {
+        return cacheChanged;
+    }
+
+    /**
+     * Completes the fingerprint.
+     *
+     * @return the hex encoded digest
+     */
+    public String finish() {
+        return Digests.toHex(digest.digest());
+    }
+
+    /**
+     * Reads a stored fingerprint.
+     *
+     * @param file the fingerprint file
+     * @return the stored fingerprint, or <code>null</code> if there is none
+     */
+    public static String read(File file) {
+        List<String> lines = readLines(file);
+        return lines.isEmpty() ? null : lines.get(0).trim();
+    }
+
+    /**
+     * Finds an output that is no longer as the build that stored the
+     * fingerprint left it.
+     *
+     * @param file the fingerprint file
+     * @param outputs the outputs of the build
+     * @return a description of the first output that is missing or was
+     * changed, or <code>null</code> if all are as recorded
+     */
+    public static String findChangedOutput(File file, Collection<File> outputs) {
+        Map<String, String> recorded = new HashMap<String, String>();
+        List<String> lines = readLines(file);
+        for (String line : lines.subList(Math.min(1, lines.size()), lines.size())) {
+            String[] fields = line.split(" ", 3);
+            if (fields.length == 3) {
+                recorded.put(fields[2], fields[0] + " " + fields[1]);
+            }
+        }
+        for (File output : outputs) {
+            if (!output.exists()) {
+                return output + " is missing";
+            }
+            String state = recorded.get(output.getAbsolutePath());
+            if (state == null) {
+                return output + " was not recorded";
+            }
+            if (!state.equals(output.length() + " " + output.lastModified())) {
+                return output + " was changed";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores a fingerprint along with the state of the outputs.
+     *
+     * @param file the fingerprint file
+     * @param fingerprint the fingerprint
+     * @param outputs the outputs of the build, as it left them
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(File file, String fingerprint, Collection<File> outputs) throws IOException {
+        StringBuilder content = new StringBuilder(fingerprint).append('\n');
+        for (File output : outputs) {
+            if (output.exists()) {
+                content.append(output.length()).append(' ').append(output.lastModified()).append(' ')
+                        .append(output.getAbsolutePath()).append('\n');
+            }
+        }
+
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.toString().getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static List<String> readLines(File file) {
+        List<String> lines = new ArrayList<String>();
+        if (!file.isFile()) {
+            return lines;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+            } finally {
+                IOUtil.close(reader);
+            }
+        } catch (IOException ex) {
+            lines.clear();
+        }
+        return lines;
+    }
+}
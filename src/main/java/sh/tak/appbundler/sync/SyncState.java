@@ -0,0 +1,288 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.sync;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * The persisted state of one synchronized target directory: for every
+ * relative path the size, modification time and SHA-256 digest of the source
+ * file at the time it was last copied, which source directory it came from,
+ * and the size and modification time of the copy.
+ * <p/>
+ * The state is stored as a plain text file with one
+ * <code>digest size lastModified origin copySize copyLastModified path</code>
+ * line per file.
+ */
+public class SyncState {
+
+    private static final String HEADER = "# appbundle sync state v3";
+
+    private final Map<String, Entry> entries;
+
+    /**
+     * Creates an empty state.
+     */
+    public SyncState() {
+        this.entries = new HashMap<String, Entry>();
+    }
+
+    /**
+     * Loads a state file. A missing or unreadable file yields an empty state,
+     * which simply causes every file to be copied again.
+     *
+     * @param file the state file
+     * @return the loaded state
+     */
+    public static SyncState load(File file) {
+        SyncState state = new SyncState();
+        if (!file.isFile()) {
+            return state;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line = reader.readLine();
+            if (!HEADER.equals(line)) {
+                return state;
+            }
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(" ", 7);
+                if (fields.length != 7) {
+                    return new SyncState();
+                }
+                String digest = "-".equals(fields[0]) ? null : fields[0];
+                String origin = "-".equals(fields[3]) ? null : fields[3];
+                state.put(fields[6], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), digest, origin,
+                        Long.parseLong(fields[4]), Long.parseLong(fields[5])));
+            }
+        } catch (IOException ex) {
+            return new SyncState();
+        } catch (NumberFormatException ex) {
+            return new SyncState();
+        } finally {
+            IOUtil.close(reader);
+        }
+        return state;
+    }
+
+    /**
+     * Writes this state to a file, replacing any previous content.
+     *
+     * @param file the state file
+     * @throws IOException if the file cannot be written
+     */
+    public void store(File file) throws IOException {
+        file.getParentFile().mkdirs();
+
+        File temp = new File(file.getPath() + ".tmp");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+        try {
+            writer.write(HEADER);
+            writer.write('\n');
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                writer.write(entry.getDigest() != null ? entry.getDigest() : "-");
+                writer.write(' ');
+                writer.write(Long.toString(entry.getSize()));
+                writer.write(' ');
+                writer.write(Long.toString(entry.getLastModified()));
+                writer.write(' ');
+                writer.write(entry.getOrigin() != null ? entry.getOrigin() : "-");
+                writer.write(' ');
+                writer.write(Long.toString(entry.getCopySize()));
+                writer.write(' ');
+                writer.write(Long.toString(entry.getCopyLastModified()));
+                writer.write(' ');
+                writer.write(e.getKey());
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not replace sync state " + file);
+            }
+        }
+    }
+
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    public void put(String path, Entry entry) {
+        entries.put(path, entry);
+    }
+
+    public Set<String> paths() {
+        return entries.keySet();
+    }
+
+    /**
+     * Drops the entries of all paths but the given ones.
+     *
+     * @param paths the paths to keep
+     * @return true if entries were dropped
+     */
+    public boolean retain(Collection<String> paths) {
+        return entries.keySet().retainAll(paths);
+    }
+
+    /**
+     * Snapshot of a single source file.
+     */
+    public static class Entry {
+
+        private final long size;
+
+        private final long lastModified;
+
+        private final String digest;
+
+        private final String origin;
+
+        private final long copySize;
+
+        private final long copyLastModified;
+
+        public Entry(long size, long lastModified, String digest) {
+            this(size, lastModified, digest, null);
+        }
+
+        /**
+         * Creates a snapshot.
+         *
+         * @param size the size of the source file
+         * @param lastModified the modification time of the source file
+         * @param digest the hex encoded SHA-256 digest of its content, may be
+         * null
+         * @param origin identifies where the source file came from, must not
+         * contain spaces; may be null
+         */
+        public Entry(long size, long lastModified, String digest, String origin) {
+            this(size, lastModified, digest, origin, -1, -1);
+        }
+
+        /**
+         * Creates a snapshot that also describes the copy.
+         *
+         * @param size the size of the source file
+         * @param lastModified the modification time of the source file
+         * @param digest the hex encoded SHA-256 digest of its content, may be
+         * null
+         * @param origin identifies where the source file came from, must not
+         * contain spaces; may be null
+         * @param copySize the size of the copy, -1 if unknown
+         * @param copyLastModified the modification time of the copy, -1 if
+         * unknown
+         */
+        public Entry(long size, long lastModified, String digest, String origin, long copySize, long copyLastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+            this.origin = origin;
+            this.copySize = copySize;
+            this.copyLastModified = copyLastModified;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        public String getOrigin() {
+            return origin;
+        }
+
+        public long getCopySize() {
+            return copySize;
+        }
+
+        public long getCopyLastModified() {
+            return copyLastModified;
+        }
+
+        /**
+         * The same snapshot of the source, describing the given copy as it is
+         * now.
+         *
+         * @param copy the copy
+         * @return the new snapshot
+         */
+        public Entry withCopy(File copy) {
+            return new Entry(size, lastModified, digest, origin, copy.length(), copy.lastModified());
+        }
+
+        /**
+         * Tells whether the copy still has the recorded size and modification
+         * time, that is nothing changed it after it was recorded.
+         *
+         * @param copy the copy
+         * @return false if the copy changed, is missing or was never recorded
+         */
+        public boolean copyMatches(File copy) {
+            return copySize >= 0 && copy.isFile() && copy.length() == copySize && copy.lastModified() == copyLastModified;
+        }
+
+        /**
+         * Tells whether the copy holds the content of the source, so that the
+         * digest of the source is that of the copy. The build only changes
+         * copies by thinning, which always makes them smaller, and by giving
+         * them other modification times and modes; a copy of the size of its
+         * source is therefore unchanged.
+         *
+         * @return true if the recorded copy has the size of the source
+         */
+        public boolean copyHasSourceContent() {
+            return copySize >= 0 && copySize == size;
+        }
+
+        /**
+         * Tells whether the given file still has the recorded size and
+         * modification time.
+         *
+         * @param file the source file
+         * @return true if size and modification time are unchanged
+         */
+        public boolean matches(File file) {
+            return file.length() == size && file.lastModified() == lastModified;
+        }
+    }
+}
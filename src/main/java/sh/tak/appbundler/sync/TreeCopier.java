@@ -0,0 +1,502 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.sync;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.codehaus.plexus.util.SelectorUtils;
+import sh.tak.appbundler.util.Digests;
+import sh.tak.appbundler.util.RecordedDigests;
+
+/**
+ * Copies a directory tree, leaving out what does not match a set of include
+ * and exclude patterns.
+ * <p/>
+ * The patterns are Ant style paths relative to the source directory. A
+ * directory that matches an exclude pattern is skipped as a whole; its files
+ * are only listed, for the statistics of what was left out, if that was asked
+ * for with {@link #setCountSkipped(boolean)}. Symbolic links are copied as
+ * links, like the ones between the libraries of a JRE. Files in the target
+ * directory that are no longer part of the copy are removed.
+ * <p/>
+ * With a state file, the size and modification time of every source file are
+ * recorded, and a file is only copied again when they changed. The copies may
+ * then be changed afterwards, for example thinned or given another
+ * modification time, without causing another copy, as long as
+ * {@link #recordCopies()} is called once they were; a copy changed by anything
+ * else is copied again. Without a state file, a file is copied again unless
+ * the copy has the size and modification time of the source.
+ * <p/>
+ * With {@link #setRecordedDigests(RecordedDigests)}, files are hashed while
+ * they are copied and the digests are kept in the state file, so unchanged
+ * copies are not read again either.
+ */
+public class TreeCopier implements CopyRecorder {
+
+    /**
+     * The name under which files that match no include pattern are reported.
+     */
+    public static final String NOT_INCLUDED = "(not included)";
+
+    private final List<String> includes;
+
+    private final List<String> excludes;
+
+    private final File stateFile;
+
+    private String transformation;
+
+    private boolean countSkipped;
+
+    private RecordedDigests recordedDigests;
+
+    private SyncState copiedState;
+
+    private Path copiedTarget;
+
+    /**
+     * Creates a copier that compares the copies with their sources.
+     *
+     * @param includes the files to copy, all files if empty or
+     * <code>null</code>
+     * @param excludes the files and directories to leave out, may be
+     * <code>null</code>
+     */
+    public TreeCopier(List<String> includes, List<String> excludes) {
+        this(includes, excludes, null);
+    }
+
+    /**
+     * Creates a copier.
+     *
+     * @param includes the files to copy, all files if empty or
+     * <code>null</code>
+     * @param excludes the files and directories to leave out, may be
+     * <code>null</code>
+     * @param stateFile where the state of the source files is recorded, or
+     * <code>null</code> to compare the copies with their sources
+     */
+    public TreeCopier(List<String> includes, List<String> excludes, File stateFile) {
+        this.includes = normalize(includes);
+        this.excludes = normalize(excludes);
+        this.stateFile = stateFile;
+    }
+
+    /**
+     * Describes how the copies are changed after they were made, like the
+     * architectures binaries are thinned to. Files copied under another
+     * description are copied again. Only used with a state file.
+     *
+     * @param transformation the description, or null if the copies are left
+     * as they are
+     */
+    public void setTransformation(String transformation) {
+        this.transformation = transformation;
+    }
+
+    /**
+     * Lists the files inside excluded directories, so that they are part of
+     * the statistics of the result. Otherwise excluded directories are not
+     * read at all and only counted as directories.
+     *
+     * @param countSkipped whether to list excluded directories
+     */
+    public void setCountSkipped(boolean countSkipped) {
+        this.countSkipped = countSkipped;
+    }
+
+    /**
+     * Hashes the files while they are copied and hands the digests of the
+     * copies that still hold the content of their sources on.
+     *
+     * @param recordedDigests where to record the digests, or null to copy
+     * without hashing
+     */
+    public void setRecordedDigests(RecordedDigests recordedDigests) {
+        this.recordedDigests = recordedDigests;
+    }
+
+    private static List<String> normalize(List<String> patterns) {
+        List<String> normalized = new ArrayList<String>();
+        if (patterns == null) {
+            return normalized;
+        }
+        for (String pattern : patterns) {
+            String p = pattern.trim().replace('/', File.separatorChar).replace('\\', File.separatorChar);
+            if (p.endsWith(File.separator)) {
+                p += "**";
+            }
+            normalized.add(p);
+        }
+        return normalized;
+    }
+
+    /**
+     * Copies a tree.
+     *
+     * @param source the directory to copy
+     * @param target the directory to copy to
+     * @return what was copied and what was left out
+     * @throws IOException if a file cannot be copied or removed
+     */
+    public Result copy(File source, File target) throws IOException {
+        final Path sourceRoot = source.toPath();
+        final Path targetRoot = target.toPath();
+        final Result result = new Result();
+        final Set<Path> copied = new HashSet<Path>();
+        final SyncState previous = stateFile != null ? SyncState.load(stateFile) : null;
+        final SyncState current = new SyncState();
+        final String origin = Digests.sha256(source.getAbsolutePath() + (transformation != null ? " " + transformation : "")).substring(0, 16);
+
+        Files.walkFileTree(sourceRoot, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                String path = sourceRoot.relativize(dir).toString();
+                if (path.length() > 0) {
+                    String pattern = excludingPattern(path, true);
+                    if (pattern != null) {
+                        result.skippedDirectories++;
+                        if (countSkipped) {
+                            result.skip(pattern, dir);
+                        }
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                }
+                Path destination = targetRoot.resolve(path);
+                if (Files.isSymbolicLink(destination)) {
+                    Files.delete(destination);
+                }
+                Files.createDirectories(destination);
+                copied.add(destination);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String path = sourceRoot.relativize(file).toString();
+                String pattern = excludingPattern(path, false);
+                if (pattern != null) {
+                    result.skip(pattern, attrs.size());
+                    return FileVisitResult.CONTINUE;
+                }
+                if (!isIncluded(path)) {
+                    result.skip(NOT_INCLUDED, attrs.size());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                Path destination = targetRoot.resolve(path);
+                copied.add(destination);
+                if (attrs.isSymbolicLink()) {
+                    copyLink(file, destination, result);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                long size = attrs.size();
+                long lastModified = attrs.lastModifiedTime().toMillis();
+                String key = path.replace(File.separatorChar, '/');
+                SyncState.Entry entry = previous != null ? previous.get(key) : null;
+                if (Files.isRegularFile(destination, LinkOption.NOFOLLOW_LINKS)
+                        && isUnchanged(previous == null, entry, origin, destination, size, lastModified)) {
+                    result.unchanged++;
+                } else {
+                    if (Files.isDirectory(destination, LinkOption.NOFOLLOW_LINKS)) {
+                        deleteTree(destination);
+                    }
+                    entry = copyFile(file, destination, size, lastModified, origin);
+                    result.copied++;
+                }
+                if (entry != null) {
+                    current.put(key, entry);
+                    record(destination.toFile(), entry);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        // remove what an earlier copy with other patterns left behind
+        Files.walkFileTree(targetRoot, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!copied.contains(file)) {
+                    Files.delete(file);
+                    result.removed++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                if (!copied.contains(dir)) {
+                    Files.delete(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        if (stateFile != null && (result.copied > 0 || result.removed > 0 || !previous.paths().equals(current.paths()))) {
+            current.store(stateFile);
+        }
+        copiedState = current;
+        copiedTarget = targetRoot;
+        return result;
+    }
+
+    /**
+     * Records the size and modification time that the copies of the last
+     * {@link #copy(File, File)} have now. Does nothing without a state file.
+     *
+     * @throws IOException if the state file cannot be written
+     */
+    public void recordCopies() throws IOException {
+        if (stateFile == null || copiedState == null) {
+            return;
+        }
+        boolean dirty = false;
+        for (String path : copiedState.paths()) {
+            SyncState.Entry entry = copiedState.get(path);
+            File copy = copiedTarget.resolve(path.replace('/', File.separatorChar)).toFile();
+            if (!entry.copyMatches(copy) && copy.isFile()) {
+                copiedState.put(path, entry.withCopy(copy));
+                dirty = true;
+            }
+        }
+        if (dirty) {
+            copiedState.store(stateFile);
+        }
+        copiedState = null;
+    }
+
+    /**
+     * Copies a file, replacing the destination instead of writing through it,
+     * and hashes it on the way if digests are recorded.
+     */
+    private SyncState.Entry copyFile(Path file, Path destination, long size, long lastModified, String origin) throws IOException {
+        if (recordedDigests == null) {
+            Files.copy(file, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES,
+                    LinkOption.NOFOLLOW_LINKS);
+            return new SyncState.Entry(size, lastModified, null, origin).withCopy(destination.toFile());
+        }
+        String digest = Digests.copy(file.toFile(), destination.toFile());
+        try {
+            Files.setPosixFilePermissions(destination, Files.getPosixFilePermissions(file));
+        } catch (UnsupportedOperationException ex) {
+            destination.toFile().setExecutable(file.toFile().canExecute(), false);
+        }
+        return new SyncState.Entry(size, lastModified, digest, origin).withCopy(destination.toFile());
+    }
+
+    /**
+     * Hands the digest of the source on for the copy, as long as the copy is
+     * as recorded and still holds the content of the source.
+     */
+    private void record(File destination, SyncState.Entry entry) {
+        if (recordedDigests != null && entry.getDigest() != null && entry.copyHasSourceContent()) {
+            recordedDigests.record(destination, entry.getCopySize(), entry.getCopyLastModified(), entry.getDigest());
+        }
+    }
+
+    /**
+     * Recreates a symbolic link, unless the copy already points to the same
+     * target.
+     */
+    private static void copyLink(Path link, Path destination, Result result) throws IOException {
+        Path target = Files.readSymbolicLink(link);
+        if (Files.isSymbolicLink(destination)) {
+            if (Files.readSymbolicLink(destination).equals(target)) {
+                result.unchanged++;
+                return;
+            }
+            Files.delete(destination);
+        } else if (Files.isDirectory(destination, LinkOption.NOFOLLOW_LINKS)) {
+            // an earlier copy followed the link
+            deleteTree(destination);
+        } else {
+            Files.deleteIfExists(destination);
+        }
+        Files.createSymbolicLink(destination, target);
+        result.copied++;
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Tells whether neither the source file nor its copy changed since the
+     * copy was made and recorded. A copy without a digest is made again once
+     * digests are recorded.
+     */
+    private boolean isUnchanged(boolean stateless, SyncState.Entry entry, String origin, Path destination, long size, long lastModified)
+            throws IOException {
+        if (stateless) {
+            return Files.size(destination) == size && Files.getLastModifiedTime(destination).toMillis() == lastModified;
+        }
+        return entry != null && origin.equals(entry.getOrigin()) && entry.getSize() == size && entry.getLastModified() == lastModified
+                && entry.copyMatches(destination.toFile()) && (recordedDigests == null || entry.getDigest() != null);
+    }
+
+    /**
+     * Finds the exclude pattern that matches a path. A directory is also
+     * excluded by patterns that exclude everything below it, like
+     * <code>man/**</code>.
+     */
+    private String excludingPattern(String path, boolean directory) {
+        for (String pattern : excludes) {
+            if (SelectorUtils.matchPath(pattern, path, true)) {
+                return pattern;
+            }
+            if (directory && pattern.endsWith(File.separator + "**")
+                    && SelectorUtils.matchPath(pattern.substring(0, pattern.length() - 3), path, true)) {
+                return pattern;
+            }
+        }
+        return null;
+    }
+
+    private boolean isIncluded(String path) {
+        if (includes.isEmpty()) {
+            return true;
+        }
+        for (String pattern : includes) {
+            if (SelectorUtils.matchPath(pattern, path, true)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Summary of one copy.
+     */
+    public static class Result {
+
+        private int copied;
+
+        private int unchanged;
+
+        private int removed;
+
+        private int skippedDirectories;
+
+        private final Map<String, long[]> skipped = new LinkedHashMap<String, long[]>();
+
+        private void skip(String pattern, long bytes) {
+            long[] sum = skipped.get(pattern);
+            if (sum == null) {
+                sum = new long[2];
+                skipped.put(pattern, sum);
+            }
+            sum[0]++;
+            sum[1] += bytes;
+        }
+
+        /**
+         * Accounts for a skipped directory by listing it, without reading the
+         * files.
+         */
+        private void skip(final String pattern, Path directory) throws IOException {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    skip(pattern, attrs.size());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    // only for the statistics, never worth failing the build
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        public int getCopied() {
+            return copied;
+        }
+
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        public int getRemoved() {
+            return removed;
+        }
+
+        /**
+         * The number of excluded directories that were left out as a whole.
+         */
+        public int getSkippedDirectories() {
+            return skippedDirectories;
+        }
+
+        /**
+         * What was left out, by the pattern that excluded it. The files inside
+         * excluded directories are only included if they were counted.
+         *
+         * @return the number of files and bytes for each pattern
+         */
+        public Map<String, long[]> getSkipped() {
+            return skipped;
+        }
+
+        public long getSkippedFiles() {
+            long files = 0;
+            for (long[] sum : skipped.values()) {
+                files += sum[0];
+            }
+            return files;
+        }
+
+        public long getSkippedBytes() {
+            long bytes = 0;
+            for (long[] sum : skipped.values()) {
+                bytes += sum[1];
+            }
+            return bytes;
+        }
+    }
+}
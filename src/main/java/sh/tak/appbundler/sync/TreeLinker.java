@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.sync;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Mirrors a directory tree by hard-linking its files, so the content is
+ * stored only once on disk.
+ * <p/>
+ * Files are copied instead where the file system does not support hard
+ * links. Symbolic links are recreated as symbolic links.
+ */
+public final class TreeLinker {
+
+    private TreeLinker() {
+    }
+
+    /**
+     * Makes <code>target</code> mirror <code>source</code>.
+     *
+     * @param source the directory to mirror
+     * @param target the mirror, created if necessary
+     * @param excluded relative paths, separated by '/', which are neither
+     * linked nor removed from the mirror
+     * @return the number of files that were linked or copied
+     * @throws IOException if the mirror cannot be updated
+     */
+    public static int mirror(Path source, Path target, Set<String> excluded) throws IOException {
+        return mirrorTree(source, target, source, excluded);
+    }
+
+    /**
+     * Updates the mirror of some files and directories of <code>source</code>
+     * only, leaving the rest of <code>target</code> alone. A path that no
+     * longer exists in the source is removed from the mirror.
+     *
+     * @param source the directory that is mirrored
+     * @param target the mirror
+     * @param excluded relative paths, separated by '/', which are neither
+     * linked nor removed from the mirror
+     * @param paths the relative paths, separated by '/', of the files and
+     * directories to update
+     * @return the number of files that were linked or copied
+     * @throws IOException if the mirror cannot be updated
+     */
+    public static int mirror(Path source, Path target, Set<String> excluded, Collection<String> paths) throws IOException {
+        int linked = 0;
+        for (String path : paths) {
+            if (excluded.contains(path)) {
+                continue;
+            }
+            Path from = source.resolve(path);
+            Path to = target.resolve(path);
+            boolean exists = Files.exists(from, LinkOption.NOFOLLOW_LINKS);
+            if (Files.exists(to, LinkOption.NOFOLLOW_LINKS)
+                    && (!exists || Files.isDirectory(to, LinkOption.NOFOLLOW_LINKS) != Files.isDirectory(from, LinkOption.NOFOLLOW_LINKS))) {
+                deleteTree(to);
+            }
+            if (exists) {
+                Files.createDirectories(to.getParent());
+                linked += mirrorTree(source, target, from, excluded);
+            }
+        }
+        return linked;
+    }
+
+    private static int mirrorTree(final Path source, final Path target, Path start, final Set<String> excluded) throws IOException {
+        final Set<String> mirrored = new HashSet<String>();
+        final int[] linked = new int[1];
+
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                mirrored.add(relativize(source, dir));
+                Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String path = relativize(source, file);
+                if (excluded.contains(path)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                mirrored.add(path);
+
+                Path link = target.resolve(source.relativize(file).toString());
+                if (Files.exists(link, LinkOption.NOFOLLOW_LINKS)) {
+                    if (!attrs.isSymbolicLink() && Files.isSameFile(file, link)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    Files.delete(link);
+                }
+
+                if (attrs.isSymbolicLink()) {
+                    Files.createSymbolicLink(link, Files.readSymbolicLink(file));
+                } else {
+                    try {
+                        Files.createLink(link, file);
+                    } catch (UnsupportedOperationException ex) {
+                        Files.copy(file, link, StandardCopyOption.COPY_ATTRIBUTES);
+                    } catch (IOException ex) {
+                        // e.g. the target is on another volume
+                        Files.copy(file, link, StandardCopyOption.COPY_ATTRIBUTES);
+                    }
+                }
+                linked[0]++;
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        // remove whatever is no longer part of the source
+        Path mirror = target.resolve(source.relativize(start).toString());
+        if (!Files.exists(mirror, LinkOption.NOFOLLOW_LINKS)) {
+            return linked[0];
+        }
+        Files.walkFileTree(mirror, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String path = relativize(target, file);
+                if (!mirrored.contains(path) && !excluded.contains(path)) {
+                    Files.delete(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+                if (ex != null) {
+                    throw ex;
+                }
+                if (!mirrored.contains(relativize(target, dir)) && isEmpty(dir)) {
+                    Files.delete(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return linked[0];
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+                if (ex != null) {
+                    throw ex;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static String relativize(Path root, Path path) {
+        return root.relativize(path).toString().replace('\\', '/');
+    }
+
+    private static boolean isEmpty(Path dir) throws IOException {
+        String[] children = dir.toFile().list();
+        return children != null && children.length == 0;
+    }
+}
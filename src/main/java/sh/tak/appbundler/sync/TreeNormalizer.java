@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.sync;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+import sh.tak.appbundler.util.RecordedDigests;
+
+/**
+ * Normalizes the metadata of a directory tree so that it no longer depends on
+ * when and by whom it was built.
+ * <p/>
+ * Every file, directory and symbolic link gets the same modification time.
+ * Directories and executable files get mode <code>755</code>, all other files
+ * <code>644</code>. Permissions are left alone on file systems without POSIX
+ * permissions.
+ */
+public final class TreeNormalizer {
+
+    private static final Set<PosixFilePermission> DIRECTORY_OR_EXECUTABLE = PosixFilePermissions.fromString("rwxr-xr-x");
+
+    private static final Set<PosixFilePermission> REGULAR = PosixFilePermissions.fromString("rw-r--r--");
+
+    private TreeNormalizer() {
+    }
+
+    /**
+     * Normalizes a tree.
+     *
+     * @param root the root of the tree, which is normalized as well
+     * @param timestamp the modification time to set, in milliseconds since the
+     * epoch
+     * @return the number of entries normalized
+     * @throws IOException if the tree cannot be walked or a file cannot be
+     * changed
+     */
+    public static int normalize(Path root, long timestamp) throws IOException {
+        return normalize(root, timestamp, null);
+    }
+
+    /**
+     * Normalizes a tree, keeping the digests recorded for its files valid.
+     *
+     * @param root the root of the tree, which is normalized as well
+     * @param timestamp the modification time to set, in milliseconds since the
+     * epoch
+     * @param recorded the digests recorded for files of the tree, may be null
+     * @return the number of entries normalized
+     * @throws IOException if the tree cannot be walked or a file cannot be
+     * changed
+     */
+    public static int normalize(Path root, final long timestamp, final RecordedDigests recorded) throws IOException {
+        final FileTime time = FileTime.fromMillis(timestamp);
+        final boolean posix = Files.getFileStore(root).supportsFileAttributeView("posix");
+        final int[] count = new int[1];
+
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isSymbolicLink()) {
+                    setLinkTime(file, time);
+                } else {
+                    if (posix) {
+                        boolean executable = Files.getPosixFilePermissions(file).contains(PosixFilePermission.OWNER_EXECUTE);
+                        setPermissions(file, executable ? DIRECTORY_OR_EXECUTABLE : REGULAR);
+                    }
+                    if (recorded != null) {
+                        recorded.retime(file.toFile(), timestamp);
+                    }
+                    Files.setLastModifiedTime(file, time);
+                }
+                count[0]++;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                // after the children, so that nothing touches the directory afterwards
+                if (posix) {
+                    setPermissions(dir, DIRECTORY_OR_EXECUTABLE);
+                }
+                Files.setLastModifiedTime(dir, time);
+                count[0]++;
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return count[0];
+    }
+
+    private static void setPermissions(Path path, Set<PosixFilePermission> permissions) throws IOException {
+        if (!Files.getPosixFilePermissions(path).equals(permissions)) {
+            Files.setPosixFilePermissions(path, permissions);
+        }
+    }
+
+    private static void setLinkTime(Path link, FileTime time) {
+        try {
+            Files.getFileAttributeView(link, BasicFileAttributeView.class, LinkOption.NOFOLLOW_LINKS).setTimes(time, null, null);
+        } catch (IOException ex) {
+            // not every platform can change the time of a link itself
+        } catch (UnsupportedOperationException ex) {
+            // same as above
+        }
+    }
+}
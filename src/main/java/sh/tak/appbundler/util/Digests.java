@@ -0,0 +1,187 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Helpers for computing SHA-256 digests of files and strings.
+ */
+public final class Digests {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Files from this size on are mapped into memory instead of being read,
+     * below it setting up the mapping costs more than copying.
+     */
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+
+    /**
+     * Files larger than this are mapped piece by piece.
+     */
+    private static final long MAP_WINDOW = 256L * 1024 * 1024;
+
+    private Digests() {
+    }
+
+    /**
+     * Creates a new SHA-256 message digest.
+     *
+     * @return a fresh digest instance
+     */
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Computes the SHA-256 digest of a file's contents.
+     *
+     * @param file the file to hash
+     * @return the lower case hex encoded digest
+     * @throws IOException if the file cannot be read
+     */
+    public static String sha256(File file) throws IOException {
+        MessageDigest digest = newSha256();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[65536];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Computes the SHA-256 digest of a file's contents like
+     * {@link #sha256(File)}, but maps large files into memory so they are
+     * hashed straight from the page cache.
+     *
+     * @param file the file to hash
+     * @return the lower case hex encoded digest
+     * @throws IOException if the file cannot be read
+     */
+    public static String sha256Mapped(File file) throws IOException {
+        if (file.length() < MAP_THRESHOLD) {
+            return sha256(file);
+        }
+
+        MessageDigest digest = newSha256();
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            for (long position = 0; position < size; position += MAP_WINDOW) {
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position)));
+            }
+        } finally {
+            channel.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Copies a file and computes the SHA-256 digest of what was written on
+     * the fly. The copy gets the modification time of the source. It is
+     * written next to the destination and then moved into place, so hard
+     * links to a previous copy keep their content.
+     *
+     * @param source the file to copy
+     * @param destination the file to write, parent directories are created
+     * @return the lower case hex encoded digest
+     * @throws IOException if the file cannot be copied
+     */
+    public static String copy(File source, File destination) throws IOException {
+        File directory = destination.getAbsoluteFile().getParentFile();
+        directory.mkdirs();
+
+        File temp = new File(directory, "." + destination.getName() + ".tmp");
+        MessageDigest digest = newSha256();
+        try {
+            InputStream in = new FileInputStream(source);
+            try {
+                OutputStream out = new FileOutputStream(temp);
+                try {
+                    byte[] buffer = new byte[65536];
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        digest.update(buffer, 0, n);
+                        out.write(buffer, 0, n);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+
+            temp.setLastModified(source.lastModified());
+            Files.move(temp.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            temp.delete();
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Computes the SHA-256 digest of the UTF-8 encoding of a string.
+     *
+     * @param value the string to hash
+     * @return the lower case hex encoded digest
+     */
+    public static String sha256(String value) {
+        try {
+            return toHex(newSha256().digest(value.getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Hex encodes a byte array.
+     *
+     * @param bytes the bytes to encode
+     * @return the lower case hex representation
+     */
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import org.apache.commons.lang.SystemUtils;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.cli.CommandLineException;
+import org.codehaus.plexus.util.cli.Commandline;
+
+/**
+ * Creates a disk image from a directory, with <code>hdiutil</code> on Mac OS
+ * X and with <code>genisoimage</code> on Linux.
+ */
+public class DiskImageCreator {
+
+    private final Log log;
+
+    private boolean internetEnable;
+
+    private boolean applicationsSymlink;
+
+    private long reproducibleTimestamp = -1;
+
+    /**
+     * @param log the logger
+     */
+    public DiskImageCreator(Log log) {
+        this.log = log;
+    }
+
+    /**
+     * Makes images created by <code>hdiutil</code> internet-enabled.
+     */
+    public void setInternetEnable(boolean internetEnable) {
+        this.internetEnable = internetEnable;
+    }
+
+    /**
+     * Puts a symbolic link to <code>/Applications</code> into images created
+     * by <code>hdiutil</code>.
+     */
+    public void setApplicationsSymlink(boolean applicationsSymlink) {
+        this.applicationsSymlink = applicationsSymlink;
+    }
+
+    /**
+     * Makes the image independent of when and by whom it was created, as far
+     * as the tool allows.
+     *
+     * @param timestamp the time to record, in milliseconds since the epoch
+     */
+    public void setReproducibleTimestamp(long timestamp) {
+        this.reproducibleTimestamp = timestamp;
+    }
+
+    /**
+     * Tells whether disk images can be created on this operating system.
+     */
+    public static boolean isSupported() {
+        return SystemUtils.IS_OS_MAC_OSX || SystemUtils.IS_OS_MAC || SystemUtils.IS_OS_LINUX;
+    }
+
+    /**
+     * Creates the disk image.
+     *
+     * @param sourceFolder the directory to put into the image
+     * @param volumeName the name of the volume
+     * @param diskImageFile the image to create
+     * @return <code>false</code> if disk images cannot be created on this
+     * operating system
+     * @throws IOException If the tool cannot be run.
+     */
+    public boolean create(File sourceFolder, String volumeName, File diskImageFile) throws IOException {
+        if (SystemUtils.IS_OS_MAC_OSX || SystemUtils.IS_OS_MAC) {
+            createWithHdiutil(sourceFolder, diskImageFile);
+            return true;
+        }
+        if (SystemUtils.IS_OS_LINUX) {
+            createWithGenisoimage(sourceFolder, volumeName, diskImageFile);
+            return true;
+        }
+        return false;
+    }
+
+    private void createWithHdiutil(File sourceFolder, File diskImageFile) throws IOException {
+        if (reproducibleTimestamp >= 0) {
+            log.warn("hdiutil stamps the Disk Image with the current time, only the bundle is reproducible");
+        }
+
+        File symlink = new File(sourceFolder, "Applications");
+        // user wants /Applications symlink in the resulting disk image
+        if (applicationsSymlink) {
+            run(command("ln", "-s", "/Applications", sourceFolder.getAbsolutePath()), "creating the /Applications symlink");
+        }
+        try {
+            run(command("hdiutil", "create", "-srcfolder", sourceFolder.getAbsolutePath(), diskImageFile.getAbsolutePath()),
+                    "creating " + diskImageFile);
+        } finally {
+            if (applicationsSymlink && Files.isSymbolicLink(symlink.toPath())) {
+                Files.delete(symlink.toPath());
+            }
+        }
+
+        if (internetEnable) {
+            log.info("Enabling the Disk Image file for internet");
+            run(command("hdiutil", "internet-enable", "-yes", diskImageFile.getAbsolutePath()), "internet enabling " + diskImageFile);
+        }
+    }
+
+    private void createWithGenisoimage(File sourceFolder, String volumeName, File diskImageFile) throws IOException {
+        Commandline genisoimage = command("genisoimage", "-V", volumeName, "-D", "-R", "-no-pad");
+        if (reproducibleTimestamp < 0) {
+            genisoimage.createArgument().setValue("-apple");
+        } else {
+            // the Apple extensions carry dates of their own that are not rewritten below
+            log.debug("Leaving out the Apple extensions of the Disk Image, the image is reproducible");
+            // no trace of the building user or time zone in the image
+            genisoimage.createArgument().setValue("-uid");
+            genisoimage.createArgument().setValue("0");
+            genisoimage.createArgument().setValue("-gid");
+            genisoimage.createArgument().setValue("0");
+            genisoimage.addEnvironment("TZ", "UTC");
+            genisoimage.addEnvironment("SOURCE_DATE_EPOCH", Long.toString(reproducibleTimestamp / 1000L));
+        }
+        genisoimage.createArgument().setValue("-o");
+        genisoimage.createArgument().setValue(diskImageFile.getAbsolutePath());
+        genisoimage.createArgument().setValue(sourceFolder.getAbsolutePath());
+        run(genisoimage, "creating " + diskImageFile + ", genisoimage probably missing");
+
+        if (reproducibleTimestamp >= 0 && diskImageFile.isFile()) {
+            IsoVolumeDates.set(diskImageFile, reproducibleTimestamp);
+            // Rock Ridge also records access and change times, which no build can set
+            IsoVolumeDates.setRecordDates(diskImageFile, reproducibleTimestamp);
+        }
+    }
+
+    private static Commandline command(String executable, String... arguments) {
+        Commandline command = new Commandline();
+        command.setExecutable(executable);
+        for (String argument : arguments) {
+            command.createArgument().setValue(argument);
+        }
+        return command;
+    }
+
+    private static void run(Commandline command, String what) throws IOException {
+        try {
+            command.execute().waitFor();
+        } catch (CommandLineException ex) {
+            throw new IOException("Error " + what, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Thread was interrupted while " + what);
+        }
+    }
+}
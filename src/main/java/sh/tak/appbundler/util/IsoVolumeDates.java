@@ -0,0 +1,332 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Rewrites the dates of an ISO 9660 image.
+ * <p/>
+ * Tools like <code>genisoimage</code> stamp the volume descriptors with the
+ * time the image was created. The dates of the files come from the files
+ * themselves, but the Rock Ridge extensions record their access and change
+ * times besides the modification time, and those cannot be normalized on
+ * disk. Replacing the volume dates and the dates of every directory record
+ * makes the image independent of the time it was built.
+ */
+public final class IsoVolumeDates {
+
+    private static final int SECTOR_SIZE = 2048;
+
+    private static final int FIRST_DESCRIPTOR_SECTOR = 16;
+
+    private static final int TYPE_PRIMARY = 1;
+
+    private static final int TYPE_SUPPLEMENTARY = 2;
+
+    private static final int TYPE_TERMINATOR = 255;
+
+    /**
+     * Offsets of the creation, modification, expiration and effective dates
+     * within a primary or supplementary volume descriptor.
+     */
+    private static final int[] DATE_OFFSETS = {813, 830, 847, 864};
+
+    private static final int DATE_LENGTH = 17;
+
+    /**
+     * Offset of the root directory record within a volume descriptor.
+     */
+    private static final int ROOT_RECORD = 156;
+
+    private static final int RECORD_DATE = 18;
+
+    private static final int RECORD_DATE_LENGTH = 7;
+
+    private static final int RECORD_FLAGS = 25;
+
+    private static final int RECORD_NAME_LENGTH = 32;
+
+    private static final int FLAG_DIRECTORY = 2;
+
+    /**
+     * Rock Ridge timestamps are written in the long form if this flag is set.
+     */
+    private static final int TF_LONG_FORM = 0x80;
+
+    private IsoVolumeDates() {
+    }
+
+    /**
+     * Sets every volume date that is set in the image to the given time.
+     * Dates that are unset, like a missing expiration date, stay unset.
+     *
+     * @param image the ISO 9660 image
+     * @param timestamp the time to set, in milliseconds since the epoch
+     * @return the number of volume descriptors changed
+     * @throws IOException if the image cannot be read or written or is not an
+     * ISO 9660 image
+     */
+    public static int set(File image, long timestamp) throws IOException {
+        byte[] date = format(timestamp);
+        int changed = 0;
+
+        RandomAccessFile file = new RandomAccessFile(image, "rw");
+        try {
+            byte[] descriptor = new byte[SECTOR_SIZE];
+            for (long sector = FIRST_DESCRIPTOR_SECTOR; (sector + 1) * SECTOR_SIZE <= file.length(); sector++) {
+                file.seek(sector * SECTOR_SIZE);
+                file.readFully(descriptor);
+
+                if (descriptor[1] != 'C' || descriptor[2] != 'D' || descriptor[3] != '0' || descriptor[4] != '0' || descriptor[5] != '1') {
+                    throw new IOException(image + " is not an ISO 9660 image");
+                }
+
+                int type = descriptor[0] & 0xff;
+                if (type == TYPE_TERMINATOR) {
+                    return changed;
+                }
+                if (type != TYPE_PRIMARY && type != TYPE_SUPPLEMENTARY) {
+                    continue;
+                }
+
+                boolean dirty = false;
+                for (int offset : DATE_OFFSETS) {
+                    if (isSet(descriptor, offset)) {
+                        System.arraycopy(date, 0, descriptor, offset, DATE_LENGTH);
+                        dirty = true;
+                    }
+                }
+                if (dirty) {
+                    file.seek(sector * SECTOR_SIZE);
+                    file.write(descriptor);
+                    changed++;
+                }
+            }
+        } finally {
+            file.close();
+        }
+        throw new IOException(image + " has no volume descriptor set terminator");
+    }
+
+    /**
+     * Sets the recording date of every directory record, and every Rock Ridge
+     * timestamp, in the directory trees of the primary and supplementary
+     * volume descriptors to the given time.
+     *
+     * @param image the ISO 9660 image
+     * @param timestamp the time to set, in milliseconds since the epoch
+     * @return the number of directory records changed
+     * @throws IOException if the image cannot be read or written or is not an
+     * ISO 9660 image
+     */
+    public static int setRecordDates(File image, long timestamp) throws IOException {
+        byte[] date = formatRecordDate(timestamp);
+        byte[] longDate = format(timestamp);
+        int changed = 0;
+
+        RandomAccessFile file = new RandomAccessFile(image, "rw");
+        try {
+            Set<Long> visited = new HashSet<Long>();
+            byte[] descriptor = new byte[SECTOR_SIZE];
+            for (long sector = FIRST_DESCRIPTOR_SECTOR; (sector + 1) * SECTOR_SIZE <= file.length(); sector++) {
+                file.seek(sector * SECTOR_SIZE);
+                file.readFully(descriptor);
+                if (descriptor[1] != 'C' || descriptor[2] != 'D' || descriptor[3] != '0' || descriptor[4] != '0' || descriptor[5] != '1') {
+                    throw new IOException(image + " is not an ISO 9660 image");
+                }
+                int type = descriptor[0] & 0xff;
+                if (type == TYPE_TERMINATOR) {
+                    return changed;
+                }
+                if (type != TYPE_PRIMARY && type != TYPE_SUPPLEMENTARY) {
+                    continue;
+                }
+
+                // the root record of the descriptor is a copy of the "." record of the root directory
+                System.arraycopy(date, 0, descriptor, ROOT_RECORD + RECORD_DATE, RECORD_DATE_LENGTH);
+                file.seek(sector * SECTOR_SIZE);
+                file.write(descriptor);
+                changed += setDirectoryDates(file, image, readInt(descriptor, ROOT_RECORD + 2), readInt(descriptor, ROOT_RECORD + 10),
+                        date, longDate, visited);
+            }
+        } finally {
+            file.close();
+        }
+        throw new IOException(image + " has no volume descriptor set terminator");
+    }
+
+    /**
+     * Sets the dates of the records of a directory and of all directories
+     * below it.
+     */
+    private static int setDirectoryDates(RandomAccessFile file, File image, long extent, long length, byte[] date, byte[] longDate,
+            Set<Long> visited) throws IOException {
+        List<long[]> directories = new ArrayList<long[]>();
+        directories.add(new long[] {extent, length});
+        int changed = 0;
+        while (!directories.isEmpty()) {
+            long[] directory = directories.remove(directories.size() - 1);
+            if (!visited.add(directory[0])) {
+                continue;
+            }
+            if (directory[1] > Integer.MAX_VALUE || (directory[0] * SECTOR_SIZE) + directory[1] > file.length()) {
+                throw new IOException(image + " has a directory outside of the image");
+            }
+            byte[] records = new byte[(int) directory[1]];
+            file.seek(directory[0] * SECTOR_SIZE);
+            file.readFully(records);
+
+            int position = 0;
+            while (position < records.length) {
+                int recordLength = records[position] & 0xff;
+                if (recordLength == 0) {
+                    // records do not cross sectors, the rest of this one is empty
+                    position = (position / SECTOR_SIZE + 1) * SECTOR_SIZE;
+                    continue;
+                }
+                if (recordLength < RECORD_NAME_LENGTH + 1 || position + recordLength > records.length) {
+                    throw new IOException(image + " has an invalid directory record");
+                }
+                System.arraycopy(date, 0, records, position + RECORD_DATE, RECORD_DATE_LENGTH);
+                changed++;
+
+                int nameLength = records[position + RECORD_NAME_LENGTH] & 0xff;
+                int systemUse = position + RECORD_NAME_LENGTH + 1 + nameLength + (nameLength % 2 == 0 ? 1 : 0);
+                setRockRidgeDates(file, image, records, systemUse, position + recordLength, date, longDate);
+
+                // "." and ".." are named by the bytes 0 and 1
+                byte name = records[position + RECORD_NAME_LENGTH + 1];
+                boolean self = nameLength == 1 && (name == 0 || name == 1);
+                if ((records[position + RECORD_FLAGS] & FLAG_DIRECTORY) != 0 && !self) {
+                    directories.add(new long[] {readInt(records, position + 2), readInt(records, position + 10)});
+                }
+                position += recordLength;
+            }
+
+            file.seek(directory[0] * SECTOR_SIZE);
+            file.write(records);
+        }
+        return changed;
+    }
+
+    /**
+     * Sets the timestamps of the Rock Ridge <code>TF</code> entries in a
+     * system use area, following continuation areas.
+     */
+    private static void setRockRidgeDates(RandomAccessFile file, File image, byte[] area, int start, int end, byte[] date, byte[] longDate)
+            throws IOException {
+        int position = start;
+        while (position + 4 <= end) {
+            int entryLength = area[position + 2] & 0xff;
+            if (entryLength < 4 || position + entryLength > end) {
+                return;
+            }
+            char first = (char) area[position];
+            char second = (char) area[position + 1];
+            if (first == 'T' && second == 'F' && entryLength >= 5) {
+                int flags = area[position + 4] & 0xff;
+                byte[] stamp = (flags & TF_LONG_FORM) != 0 ? longDate : date;
+                int offset = position + 5;
+                for (int bit = 0; bit < 7; bit++) {
+                    if ((flags & (1 << bit)) != 0 && offset + stamp.length <= position + entryLength) {
+                        System.arraycopy(stamp, 0, area, offset, stamp.length);
+                        offset += stamp.length;
+                    }
+                }
+            } else if (first == 'C' && second == 'E' && entryLength >= 28) {
+                long block = readInt(area, position + 4);
+                long offset = readInt(area, position + 12);
+                long length = readInt(area, position + 20);
+                if (offset + length > SECTOR_SIZE || (block * SECTOR_SIZE) + offset + length > file.length()) {
+                    throw new IOException(image + " has a continuation area outside of the image");
+                }
+                byte[] continuation = new byte[(int) length];
+                file.seek(block * SECTOR_SIZE + offset);
+                file.readFully(continuation);
+                setRockRidgeDates(file, image, continuation, 0, continuation.length, date, longDate);
+                file.seek(block * SECTOR_SIZE + offset);
+                file.write(continuation);
+            } else if (first == 'S' && second == 'T') {
+                return;
+            }
+            position += entryLength;
+        }
+    }
+
+    /**
+     * Reads the little endian half of a both-endian 32 bit number.
+     */
+    private static long readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xffL) | (bytes[offset + 1] & 0xffL) << 8 | (bytes[offset + 2] & 0xffL) << 16 | (bytes[offset + 3] & 0xffL) << 24;
+    }
+
+    /**
+     * Formats a time as the seven bytes of a directory record: years since
+     * 1900, month, day, hour, minute, second and time zone offset, in UTC.
+     */
+    private static byte[] formatRecordDate(long timestamp) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.ROOT);
+        calendar.setTimeInMillis(timestamp);
+        return new byte[] {
+            (byte) (calendar.get(Calendar.YEAR) - 1900),
+            (byte) (calendar.get(Calendar.MONTH) + 1),
+            (byte) calendar.get(Calendar.DAY_OF_MONTH),
+            (byte) calendar.get(Calendar.HOUR_OF_DAY),
+            (byte) calendar.get(Calendar.MINUTE),
+            (byte) calendar.get(Calendar.SECOND),
+            0
+        };
+    }
+
+    /**
+     * An unset date is sixteen ASCII zeros followed by a zero time zone.
+     */
+    private static boolean isSet(byte[] descriptor, int offset) {
+        for (int i = 0; i < DATE_LENGTH - 1; i++) {
+            byte b = descriptor[offset + i];
+            if (b != '0' && b != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Formats a time as <code>YYYYMMDDHHMMSScc</code> in UTC, followed by the
+     * time zone offset byte.
+     */
+    private static byte[] format(long timestamp) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        byte[] date = new byte[DATE_LENGTH];
+        byte[] digits = (format.format(new Date(timestamp)) + "00").getBytes("US-ASCII");
+        System.arraycopy(digits, 0, date, 0, digits.length);
+        date[DATE_LENGTH - 1] = 0;
+        return date;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.util;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The digests of files that were computed while the files were written, so
+ * they do not have to be read again.
+ * <p/>
+ * A digest is handed out only as long as the file still has the size and
+ * modification time it had when the digest was recorded. A file that was
+ * changed afterwards, for example by thinning, is hashed again; a file that
+ * only got another modification time through {@link #retime(File, long)}
+ * keeps its digest.
+ */
+public class RecordedDigests {
+
+    private final ConcurrentMap<String, Record> records = new ConcurrentHashMap<String, Record>();
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    /**
+     * Records the digest of a file as it is now.
+     *
+     * @param file the file that was written
+     * @param sha256 the hex encoded SHA-256 digest of its content
+     */
+    public void record(File file, String sha256) {
+        records.put(file.getAbsolutePath(), new Record(file.length(), file.lastModified(), sha256));
+    }
+
+    /**
+     * Records the digest of a file if it still has the given size and
+     * modification time, which are those of the content the digest belongs
+     * to.
+     *
+     * @param file the file
+     * @param size the size of the content
+     * @param lastModified the modification time of the content
+     * @param sha256 the hex encoded SHA-256 digest of the content
+     */
+    public void record(File file, long size, long lastModified, String sha256) {
+        if (file.length() == size && file.lastModified() == lastModified) {
+            records.put(file.getAbsolutePath(), new Record(size, lastModified, sha256));
+        }
+    }
+
+    /**
+     * Keeps the digest of a file valid when only its modification time is
+     * about to be changed. Does nothing if the file changed since its digest
+     * was recorded.
+     *
+     * @param file the file
+     * @param lastModified the modification time the file will have
+     */
+    public void retime(File file, long lastModified) {
+        String path = file.getAbsolutePath();
+        Record record = records.get(path);
+        if (record != null && file.length() == record.size && file.lastModified() == record.lastModified) {
+            records.put(path, new Record(record.size, lastModified, record.sha256));
+        }
+    }
+
+    /**
+     * The recorded digest of a file.
+     *
+     * @param file the file
+     * @return the digest, or null if none was recorded or the file changed
+     * since
+     */
+    public String get(File file) {
+        Record record = records.get(file.getAbsolutePath());
+        if (record == null || file.length() != record.size || file.lastModified() != record.lastModified) {
+            return null;
+        }
+        hits.incrementAndGet();
+        return record.sha256;
+    }
+
+    /**
+     * How many digests {@link #get(File)} handed out.
+     *
+     * @return the number of reused digests
+     */
+    public int getHits() {
+        return hits.get();
+    }
+
+    private static final class Record {
+
+        private final long size;
+
+        private final long lastModified;
+
+        private final String sha256;
+
+        Record(long size, long lastModified, String sha256) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.sha256 = sha256;
+        }
+    }
+}
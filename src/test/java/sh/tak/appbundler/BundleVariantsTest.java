@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static sh.tak.appbundler.TestFiles.read;
+import static sh.tak.appbundler.TestFiles.write;
+
+public class BundleVariantsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File main;
+
+    private File pro;
+
+    private File lite;
+
+    private File liteIcon;
+
+    private BundleVariants variants;
+
+    private RecordingWriter writer;
+
+    @Before
+    public void setUp() throws IOException, MojoExecutionException {
+        main = new File(folder.getRoot(), "App.app");
+        write(new File(main, "Contents/Info.plist"), "main");
+        write(new File(main, "Contents/Java/app.jar"), "jar");
+        write(new File(main, "Contents/Resources/GenericJavaApp.icns"), "main icon");
+        liteIcon = write(new File(folder.getRoot(), "src/Lite.icns"), "lite icon");
+
+        pro = new File(folder.getRoot(), "Pro.app");
+        lite = new File(folder.getRoot(), "Lite.app");
+        variants = new BundleVariants(main, "GenericJavaApp.icns", new SystemStreamLog());
+        variants.add(new Bundle("Pro", "com.example.Pro", null, null), pro, null);
+        variants.add(new Bundle("Lite", "com.example.Lite", null, "Lite.icns"), lite, liteIcon);
+        writer = new RecordingWriter();
+    }
+
+    @Test
+    public void linksTheMainBundleIntoEachVariant() throws IOException, MojoExecutionException {
+        variants.create(writer);
+
+        for (File variant : Arrays.asList(pro, lite)) {
+            assertTrue(Files.isSameFile(new File(main, "Contents/Java/app.jar").toPath(), new File(variant, "Contents/Java/app.jar").toPath()));
+        }
+        assertEquals("main", read(new File(main, "Contents/Info.plist")));
+        assertEquals("Info.plist of Pro", read(new File(pro, "Contents/Info.plist")));
+        assertEquals("Info.plist of Lite", read(new File(lite, "Contents/Info.plist")));
+    }
+
+    @Test
+    public void keepsTheMainIconOutOfVariantsWithAnIconOfTheirOwn() throws IOException, MojoExecutionException {
+        variants.create(writer);
+
+        assertEquals("main icon", read(new File(pro, "Contents/Resources/GenericJavaApp.icns")));
+        assertFalse(new File(lite, "Contents/Resources/GenericJavaApp.icns").exists());
+        File icon = new File(lite, "Contents/Resources/Lite.icns");
+        assertEquals("lite icon", read(icon));
+        assertFalse(Files.isSameFile(liteIcon.toPath(), icon.toPath()));
+    }
+
+    @Test
+    public void writesTheInfoPlistOfEveryVariant() throws MojoExecutionException {
+        variants.create(writer);
+
+        Collections.sort(writer.written);
+        assertEquals(Arrays.asList("Lite", "Pro"), writer.written);
+    }
+
+    @Test
+    public void updatesOnlyTheChangedPaths() throws IOException, MojoExecutionException {
+        variants.create(writer);
+        writer.written.clear();
+
+        // replaced like the build replaces copies
+        new File(main, "Contents/Java/app.jar").delete();
+        write(new File(main, "Contents/Java/app.jar"), "new jar");
+        write(new File(main, "Contents/Java/other.jar"), "other");
+
+        variants.update(Arrays.asList("Contents/Java/app.jar"), null);
+        assertEquals("new jar", read(new File(pro, "Contents/Java/app.jar")));
+        assertEquals("new jar", read(new File(lite, "Contents/Java/app.jar")));
+        assertFalse(new File(pro, "Contents/Java/other.jar").exists());
+        assertTrue(writer.written.isEmpty());
+    }
+
+    @Test
+    public void rejectsDuplicateNames() {
+        try {
+            variants.add(new Bundle("Pro", "com.example.Pro", null, null), pro, null);
+            fail("a second variant in the same directory was accepted");
+        } catch (MojoExecutionException ex) {
+            assertEquals("Duplicate bundle name Pro", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void reportsTheFailureOfAWriter() {
+        try {
+            variants.create(new BundleVariants.InfoPlistWriter() {
+                public void write(File infoPlist, Bundle variant) throws MojoExecutionException {
+                    throw new MojoExecutionException("Could not write " + variant.getBundleName());
+                }
+            });
+            fail("the failure of the writer was not reported");
+        } catch (MojoExecutionException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("Could not write "));
+        }
+    }
+
+    private static final class RecordingWriter implements BundleVariants.InfoPlistWriter {
+
+        private final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+
+        public void write(File infoPlist, Bundle variant) throws MojoExecutionException {
+            try {
+                TestFiles.write(infoPlist, "Info.plist of " + variant.getBundleName());
+            } catch (IOException ex) {
+                throw new MojoExecutionException("Could not write " + infoPlist, ex);
+            }
+            written.add(variant.getBundleName());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static sh.tak.appbundler.TestFiles.write;
+
+public class CreateApplicationBundleMojoTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void searchesTheBaseDirectoryFirst() throws IOException {
+        File basedir = folder.getRoot();
+        File icon = write(new File(basedir, "icon.icns"), "base");
+        write(new File(basedir, "target/classes/icon.icns"), "classes");
+
+        assertEquals(icon, CreateApplicationBundleMojo.searchFile("icon.icns", basedir));
+    }
+
+    @Test
+    public void searchesTheClassesOfTheProjectNotOfTheWorkingDirectory() throws IOException {
+        File basedir = new File(folder.getRoot(), "module");
+        File icon = write(new File(basedir, "target/classes/icon.icns"), "classes");
+
+        assertEquals(icon, CreateApplicationBundleMojo.searchFile("icon.icns", basedir));
+        assertNull(CreateApplicationBundleMojo.searchFile("icon.icns", folder.getRoot()));
+    }
+}
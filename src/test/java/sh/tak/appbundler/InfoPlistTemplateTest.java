@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import sh.tak.appbundler.plist.StringArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static sh.tak.appbundler.TestFiles.read;
+import static sh.tak.appbundler.TestFiles.write;
+
+public class InfoPlistTemplateTest {
+
+    private static final String TEMPLATE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<plist version=\"1.0\">\n"
+            + "<dict>\n"
+            + "<key>CFBundleName</key>\n"
+            + "<string>${bundleName}</string>\n"
+            + "<key>JVMClassPaths</key>\n"
+            + "<array>\n"
+            + "#foreach ($path in $classpath)\n"
+            + "<string>$path</string>\n"
+            + "#end\n"
+            + "</array>\n"
+            + "<key>JVMOptions</key>\n"
+            + "${jvmOptions}\n"
+            + "</dict>\n"
+            + "</plist>\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesXmlAsMerged() throws IOException, MojoExecutionException {
+        File infoPlist = new File(folder.getRoot(), "Info.plist");
+        template(InfoPlistTemplate.FORMAT_XML).write(infoPlist, values());
+
+        // Velocity versions differ in the line breaks they keep around directives
+        assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<plist version=\"1.0\">\n"
+                + "<dict>\n"
+                + "<key>CFBundleName</key>\n"
+                + "<string>My &lt;App&gt;</string>\n"
+                + "<key>JVMClassPaths</key>\n"
+                + "<array>\n"
+                + "<string>lib/a.jar</string>\n"
+                + "<string>lib/b &amp; c.jar</string>\n"
+                + "</array>\n"
+                + "<key>JVMOptions</key>\n"
+                + "<array>\n"
+                + "  <string>-Xmx1g</string>\n"
+                + "</array>\n"
+                + "</dict>\n"
+                + "</plist>\n", read(infoPlist).replaceAll("\n+", "\n"));
+    }
+
+    @Test
+    public void convertsToTheBinaryFormat() throws IOException, MojoExecutionException {
+        File infoPlist = new File(folder.getRoot(), "Info.plist");
+        template(InfoPlistTemplate.FORMAT_BINARY).write(infoPlist, values());
+
+        byte[] bytes = Files.readAllBytes(infoPlist.toPath());
+        assertEquals("bplist00", new String(bytes, 0, 8, "US-ASCII"));
+        assertTrue(new String(bytes, "ISO-8859-1").contains("lib/b & c.jar"));
+    }
+
+    @Test
+    public void writesFromSeveralThreadsAtOnce() throws Exception {
+        final InfoPlistTemplate template = template(InfoPlistTemplate.FORMAT_XML);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 16; i++) {
+                final File infoPlist = new File(folder.getRoot(), "Variant" + i + ".plist");
+                final Map<String, Object> values = values();
+                values.put("bundleName", "Variant" + i);
+                results.add(executor.submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        template.write(infoPlist, values);
+                        return read(infoPlist);
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                String written = results.get(i).get();
+                assertTrue(written, written.contains("<string>Variant" + i + "</string>"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private InfoPlistTemplate template(String format) throws IOException, MojoExecutionException {
+        File templateFile = write(new File(folder.getRoot(), "Info.plist.template"), TEMPLATE);
+        return new InfoPlistTemplate(templateFile.getName(), templateFile, format, null, new CreateApplicationBundleMojo());
+    }
+
+    private static Map<String, Object> values() {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("bundleName", "My &lt;App&gt;");
+        values.put("classpath", new StringArray(Arrays.asList("lib/a.jar", "lib/b & c.jar"), ""));
+        values.put("jvmOptions", new StringArray(Arrays.asList("-Xmx1g"), ""));
+        return values;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Creates and reads the files the tests work on.
+ */
+public final class TestFiles {
+
+    private TestFiles() {
+    }
+
+    /**
+     * Writes a UTF-8 text file, creating its parent directories.
+     *
+     * @param file the file
+     * @param content the text
+     * @return the file
+     * @throws IOException if the file cannot be written
+     */
+    public static File write(File file, String content) throws IOException {
+        return write(file, content.getBytes("UTF-8"));
+    }
+
+    /**
+     * Writes a file, creating its parent directories.
+     *
+     * @param file the file
+     * @param content the bytes
+     * @return the file
+     * @throws IOException if the file cannot be written
+     */
+    public static File write(File file, byte[] content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    /**
+     * Writes a file of the given size, filled with a pattern.
+     *
+     * @param file the file
+     * @param size the size in bytes
+     * @return the file
+     * @throws IOException if the file cannot be written
+     */
+    public static File write(File file, int size) throws IOException {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) i;
+        }
+        return write(file, content);
+    }
+
+    /**
+     * Reads a UTF-8 text file.
+     *
+     * @param file the file
+     * @return the text
+     * @throws IOException if the file cannot be read
+     */
+    public static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+    }
+
+    /**
+     * Writes a zip file or jar.
+     *
+     * @param file the file
+     * @param entries the entry names and their content, in order
+     * @return the file
+     * @throws IOException if the file cannot be written
+     */
+    public static File zip(File file, Map<String, byte[]> entries) throws IOException {
+        file.getParentFile().mkdirs();
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+        } finally {
+            zip.close();
+        }
+        return file;
+    }
+}
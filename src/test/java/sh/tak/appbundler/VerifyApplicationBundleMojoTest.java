@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import sh.tak.appbundler.delta.BundleManifest;
+import sh.tak.appbundler.sync.TreeCopier;
+import sh.tak.appbundler.sync.TreeNormalizer;
+import sh.tak.appbundler.util.RecordedDigests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static sh.tak.appbundler.TestFiles.read;
+import static sh.tak.appbundler.TestFiles.write;
+
+public class VerifyApplicationBundleMojoTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File bundle;
+
+    private File manifest;
+
+    @Before
+    public void setUp() throws IOException {
+        bundle = new File(folder.getRoot(), "Demo.app");
+        manifest = new File(folder.getRoot(), "demo-integrity.manifest");
+        write(new File(bundle, "Contents/Info.plist"), "<plist/>");
+        write(new File(bundle, "Contents/Java/app.jar"), 3000);
+        write(new File(bundle, "Contents/Resources/readme.txt"), "read me");
+    }
+
+    @Test
+    public void acceptsTheBundleTheManifestWasWrittenFor() throws IOException {
+        writeManifest(BundleManifest.create(bundle, 2, null, false));
+
+        assertEquals(Arrays.<String>asList(), VerifyApplicationBundleMojo.verify(bundle, manifest, 2));
+    }
+
+    @Test
+    public void reportsChangedMissingAndAdditionalFiles() throws IOException {
+        writeManifest(BundleManifest.create(bundle, 2, null, false));
+        write(new File(bundle, "Contents/Resources/readme.txt"), "read me!");
+        new File(bundle, "Contents/Info.plist").delete();
+        write(new File(bundle, "Contents/Resources/extra.txt"), "extra");
+
+        List<String> problems = VerifyApplicationBundleMojo.verify(bundle, manifest, 2);
+        assertEquals(3, problems.size());
+        assertTrue(problems.contains("Contents/Info.plist is missing"));
+        assertTrue(problems.contains("Contents/Resources/readme.txt has 8 bytes instead of 7"));
+        assertTrue(problems.contains("Contents/Resources/extra.txt is not part of the bundle"));
+    }
+
+    @Test
+    public void rejectsADamagedManifest() throws IOException {
+        writeManifest(BundleManifest.create(bundle, 2, null, false));
+        write(manifest, read(manifest).replace("readme.txt", "readme.TXT"));
+
+        try {
+            VerifyApplicationBundleMojo.verify(bundle, manifest, 2);
+            fail("the damaged manifest was accepted");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("does not match its digest"));
+        }
+    }
+
+    @Test
+    public void rejectsAManifestCutShort() throws IOException {
+        writeManifest(BundleManifest.create(bundle, 2, null, false));
+        String content = read(manifest);
+        write(manifest, content.substring(0, content.lastIndexOf("# sha256 ")));
+
+        try {
+            VerifyApplicationBundleMojo.verify(bundle, manifest, 2);
+            fail("the truncated manifest was accepted");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("does not end with its digest"));
+        }
+    }
+
+    @Test
+    public void acceptsManifestsWrittenFromDigestsRecordedWhileCopying() throws IOException {
+        File jre = new File(folder.getRoot(), "jre");
+        write(new File(jre, "lib/libjava.dylib"), 5000);
+        write(new File(jre, "bin/java"), "launcher");
+        File stateFile = new File(folder.getRoot(), "state/jre.state");
+        File plugIns = new File(bundle, "Contents/PlugIns/JRE/Contents/Home/jre");
+
+        RecordedDigests digests = new RecordedDigests();
+        TreeCopier copier = new TreeCopier(null, null, stateFile);
+        copier.setRecordedDigests(digests);
+        copier.copy(jre, plugIns);
+        TreeNormalizer.normalize(bundle.toPath(), 1577836800000L, digests);
+        copier.recordCopies();
+        writeManifest(BundleManifest.create(bundle, 2, digests, false));
+        assertEquals(2, digests.getHits());
+        assertEquals(Arrays.<String>asList(), VerifyApplicationBundleMojo.verify(bundle, manifest, 2));
+
+        // the next build hands out the digests of the unchanged copies again
+        RecordedDigests next = new RecordedDigests();
+        copier.setRecordedDigests(next);
+        assertEquals(0, copier.copy(jre, plugIns).getCopied());
+        writeManifest(BundleManifest.create(bundle, 2, next, false));
+        assertEquals(2, next.getHits());
+        assertEquals(Arrays.<String>asList(), VerifyApplicationBundleMojo.verify(bundle, manifest, 2));
+    }
+
+    private void writeManifest(BundleManifest bundleManifest) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(manifest), "UTF-8");
+        try {
+            bundleManifest.write(writer);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.delta;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import sh.tak.appbundler.util.Digests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static sh.tak.appbundler.TestFiles.read;
+import static sh.tak.appbundler.TestFiles.write;
+import static sh.tak.appbundler.TestFiles.zip;
+
+public class DeltaApplierTest {
+
+    private static final String CONTENT = "content";
+
+    private static final String SHA256 = Digests.sha256(CONTENT);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+
+    private File oldBundle;
+
+    private File newBundle;
+
+    private File delta;
+
+    @Before
+    public void setUp() throws IOException {
+        root = folder.getRoot();
+        oldBundle = new File(root, "Old.app");
+        newBundle = new File(root, "New.app");
+        delta = new File(root, "delta.zip");
+        write(new File(oldBundle, "Contents/Info.plist"), "plist");
+    }
+
+    @Test
+    public void createsTheNewBundle() throws IOException {
+        write(new File(root, "Next.app/Contents/Info.plist"), "plist");
+        write(new File(root, "Next.app/Contents/Resources/new.txt"), "new");
+        Files.createSymbolicLink(new File(root, "Next.app/Contents/Resources/link.txt").toPath(), Paths.get("new.txt"));
+        Files.createSymbolicLink(new File(root, "Next.app/Contents/Plist").toPath(), Paths.get("Info.plist"));
+
+        BundleManifest next = BundleManifest.create(new File(root, "Next.app"));
+        new DeltaWriter().write(BundleManifest.create(oldBundle), next, new File(root, "Next.app"), delta);
+        DeltaApplier.apply(oldBundle, delta, newBundle);
+
+        assertEquals(new ArrayList<String>(), DeltaApplier.verify(newBundle, next));
+        assertEquals("new", read(new File(newBundle, "Contents/Resources/link.txt")));
+    }
+
+    @Test
+    public void rejectsPathsOutsideTheBundle() throws IOException {
+        for (String path : Arrays.asList("../evil.txt", "Contents/../../evil.txt", "/tmp/evil.txt", "Contents//evil.txt", "./evil.txt")) {
+            writeDelta(Arrays.asList(file(path)), Arrays.asList("N\t" + SHA256 + "\t" + path), null, true);
+            try {
+                DeltaApplier.apply(oldBundle, delta, newBundle);
+                fail(path + " was accepted");
+            } catch (IOException ex) {
+                assertTrue(ex.getMessage(), ex.getMessage().startsWith("The delta contains"));
+            }
+            assertFalse(new File(root, "evil.txt").exists());
+            FileUtils.deleteDirectory(newBundle);
+        }
+    }
+
+    @Test
+    public void rejectsSourcesOutsideTheOldBundle() throws IOException {
+        write(new File(root, "secret.txt"), CONTENT);
+        for (String source : Arrays.asList("../secret.txt", "Contents/../../secret.txt", new File(root, "secret.txt").getAbsolutePath(), "Contents/a\tb", "")) {
+            writeDelta(Arrays.asList(file("Contents/copy.txt")), Arrays.asList("C\t" + SHA256 + "\tContents/copy.txt"), SHA256 + "\t" + source, true);
+            try {
+                DeltaApplier.apply(oldBundle, delta, newBundle);
+                fail(source + " was read");
+            } catch (IOException ex) {
+                assertTrue(ex.getMessage(), ex.getMessage().startsWith("The delta contains"));
+            }
+            FileUtils.deleteDirectory(newBundle);
+        }
+    }
+
+    @Test
+    public void doesNotFollowLinksOutOfTheOldBundle() throws IOException {
+        write(new File(root, "secret.txt"), CONTENT);
+        Files.createSymbolicLink(new File(oldBundle, "Contents/secret.txt").toPath(), new File(root, "secret.txt").toPath());
+        writeDelta(Arrays.asList(file("Contents/copy.txt")), Arrays.asList("C\t" + SHA256 + "\tContents/copy.txt"),
+                SHA256 + "\tContents/secret.txt", true);
+        try {
+            DeltaApplier.apply(oldBundle, delta, newBundle);
+            fail("a link out of the old bundle was followed");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("The delta refers to a file outside of"));
+        }
+    }
+
+    @Test
+    public void rejectsLinksPointingOutOfTheBundle() throws IOException {
+        for (String target : Arrays.asList("../../..", "/tmp", "../../../evil.txt")) {
+            writeDelta(Arrays.asList("D\t755\tContents", "L\t" + target + "\tContents/link"), new ArrayList<String>(), null, true);
+            try {
+                DeltaApplier.apply(oldBundle, delta, newBundle);
+                fail(target + " was accepted");
+            } catch (IOException ex) {
+                assertTrue(ex.getMessage(), ex.getMessage().startsWith("The delta contains a link"));
+            }
+            FileUtils.deleteDirectory(newBundle);
+        }
+    }
+
+    @Test
+    public void neverWritesThroughALink() throws IOException {
+        // the link would redirect the file below it into Resources
+        writeDelta(Arrays.asList("D\t755\tContents", "D\t755\tContents/Resources", "L\tResources\tContents/MacOS", file("Contents/MacOS/tool")),
+                Arrays.asList("N\t" + SHA256 + "\tContents/MacOS/tool"), null, true);
+        try {
+            DeltaApplier.apply(oldBundle, delta, newBundle);
+            fail("a link replaced a directory");
+        } catch (IOException ex) {
+            // the link is created last and collides with the directory
+            assertTrue(ex.getMessage(), ex instanceof FileAlreadyExistsException);
+        }
+        assertLeftNothingBehind();
+    }
+
+    @Test
+    public void reusesTheEntriesOfRebuiltJars() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        entries.put("a/Library.class", pattern(20000, 1));
+        entries.put("a/Other.class", pattern(20000, 2));
+        jar(new File(oldBundle, "Contents/Java/app.jar"), entries, 1000000000000L);
+        entries.put("a/Other.class", pattern(20000, 3));
+        File next = new File(root, "Next.app");
+        write(new File(next, "Contents/Info.plist"), "plist");
+        jar(new File(next, "Contents/Java/app.jar"), entries, 1500000000000L);
+
+        BundleManifest manifest = BundleManifest.create(next);
+        DeltaWriter writer = new DeltaWriter();
+        writer.write(BundleManifest.create(oldBundle), manifest, next, delta);
+        assertEquals(1, writer.getAssembledJars());
+        assertTrue(writer.getCopiedBytes() > 20000);
+        assertTrue(writer.getLiteralBytes() < 30000);
+
+        DeltaApplier.apply(oldBundle, delta, newBundle);
+        assertEquals(new ArrayList<String>(), DeltaApplier.verify(newBundle, manifest));
+    }
+
+    @Test
+    public void rejectsMalformedSources() throws IOException {
+        writeDelta(Arrays.asList(file("Contents/copy.txt")), Arrays.asList("C\t" + SHA256 + "\tContents/copy.txt"), SHA256, true);
+        try {
+            DeltaApplier.apply(oldBundle, delta, newBundle);
+            fail("sources without paths were accepted");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("Invalid line in the sources of the delta"));
+        }
+        assertLeftNothingBehind();
+    }
+
+    @Test
+    public void rejectsMalformedJarPlans() throws IOException {
+        for (String plan : Arrays.asList("O\t" + SHA256 + "\t0", "L\t0\tmany", "L\t0\t-1", "X\t0\t1")) {
+            Map<String, byte[]> extra = new LinkedHashMap<String, byte[]>();
+            extra.put("jars/" + SHA256, (plan + "\n").getBytes("UTF-8"));
+            extra.put("literals/" + SHA256, CONTENT.getBytes("UTF-8"));
+            writeDelta(Arrays.asList(file("Contents/app.jar")), Arrays.asList("J\t" + SHA256 + "\tContents/app.jar"), null, true, extra);
+            try {
+                DeltaApplier.apply(oldBundle, delta, newBundle);
+                fail(plan + " was accepted");
+            } catch (IOException ex) {
+                assertTrue(ex.getMessage(), ex.getMessage().startsWith("Invalid "));
+            }
+            assertLeftNothingBehind();
+        }
+    }
+
+    @Test
+    public void rejectsAnUnsealedManifest() throws IOException {
+        writeDelta(Arrays.asList(file("Contents/file.txt")), Arrays.asList("N\t" + SHA256 + "\tContents/file.txt"), null, false);
+        try {
+            DeltaApplier.apply(oldBundle, delta, newBundle);
+            fail("an unsealed manifest was accepted");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("not sealed"));
+        }
+        assertFalse(newBundle.exists());
+    }
+
+    private static String file(String path) {
+        return "F\t" + SHA256 + "\t" + CONTENT.length() + "\t644\t" + path;
+    }
+
+    private void assertLeftNothingBehind() {
+        assertFalse(newBundle.exists());
+        for (String name : root.list()) {
+            assertFalse(name, name.startsWith(".New.app"));
+        }
+    }
+
+    private static byte[] pattern(int size, int seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes a jar whose entries all have the given modification time.
+     */
+    private static void jar(File file, Map<String, byte[]> entries, long time) throws IOException {
+        file.getParentFile().mkdirs();
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                zipEntry.setTime(time);
+                zip.putNextEntry(zipEntry);
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    private void writeDelta(List<String> lines, List<String> instructions, String sources, boolean sealed) throws IOException {
+        writeDelta(lines, instructions, sources, sealed, new LinkedHashMap<String, byte[]>());
+    }
+
+    private void writeDelta(List<String> lines, List<String> instructions, String sources, boolean sealed, Map<String, byte[]> extra)
+            throws IOException {
+        StringBuilder manifest = new StringBuilder("# appbundle manifest v1\n");
+        for (String line : lines) {
+            manifest.append(line).append('\n');
+        }
+        if (sealed) {
+            String seal = Digests.sha256(manifest.toString());
+            manifest.append("# sha256 ").append(seal).append('\n');
+        }
+
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        entries.put("manifest", manifest.toString().getBytes("UTF-8"));
+        StringBuilder text = new StringBuilder();
+        for (String instruction : instructions) {
+            text.append(instruction).append('\n');
+        }
+        entries.put("instructions", text.toString().getBytes("UTF-8"));
+        entries.put("sources", (sources != null ? sources + "\n" : "").getBytes("UTF-8"));
+        entries.put("data/" + SHA256, CONTENT.getBytes("UTF-8"));
+        entries.putAll(extra);
+        zip(delta, entries);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.macho;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static sh.tak.appbundler.macho.MachOFiles.CPU_TYPE_ARM64;
+import static sh.tak.appbundler.macho.MachOFiles.CPU_TYPE_X86_64;
+import static sh.tak.appbundler.macho.MachOFiles.machO;
+import static sh.tak.appbundler.macho.MachOFiles.universal;
+
+public class FatBinaryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<RandomAccessFile> open = new ArrayList<RandomAccessFile>();
+
+    @After
+    public void tearDown() throws IOException {
+        for (RandomAccessFile file : open) {
+            file.close();
+        }
+    }
+
+    @Test
+    public void readsTheSlicesOfAUniversalBinary() throws IOException {
+        FatBinary binary = FatBinary.read(open(universal()));
+
+        assertNotNull(binary);
+        assertEquals(2, binary.getSlices().size());
+        FatBinary.Slice intel = binary.getSlices().get(0);
+        assertEquals("x86_64", intel.getArchitecture());
+        assertEquals(4096L, intel.getOffset());
+        assertEquals(100L, intel.getSize());
+        assertEquals(12, intel.getAlign());
+        FatBinary.Slice arm = binary.getSlices().get(1);
+        assertEquals("arm64", arm.getArchitecture());
+        assertEquals(16384L, arm.getOffset());
+        assertEquals(200L, arm.getSize());
+        assertEquals(14, arm.getAlign());
+    }
+
+    @Test
+    public void classFilesAreNoUniversalBinaries() throws IOException {
+        // 0xcafebabe, minor version 0, major version 52 (Java 8)
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(0xcafebabe);
+        data.writeShort(0);
+        data.writeShort(52);
+        data.write(new byte[4096]);
+
+        assertNull(FatBinary.read(open(bytes.toByteArray())));
+    }
+
+    @Test
+    public void rejectsMoreSlicesThanAnyUniversalBinaryHas() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(0xcafebabe);
+        data.writeInt(21);
+        data.write(new byte[21 * 20 + 4096]);
+
+        assertNull(FatBinary.read(open(bytes.toByteArray())));
+    }
+
+    @Test
+    public void rejectsSlicesBeyondTheEndOfTheFile() throws IOException {
+        byte[] universal = universal();
+        assertNull(FatBinary.read(open(Arrays.copyOf(universal, universal.length - 1))));
+    }
+
+    @Test
+    public void readsPlainMachOFilesOfEitherByteOrder() throws IOException {
+        FatBinary.Slice arm = FatBinary.readThin(open(machO(CPU_TYPE_ARM64, 0, 64, true)));
+        assertEquals("arm64", arm.getArchitecture());
+        assertEquals(0L, arm.getOffset());
+        assertEquals(64L, arm.getSize());
+        assertEquals(14, arm.getAlign());
+
+        FatBinary.Slice intel = FatBinary.readThin(open(machO(CPU_TYPE_X86_64, 3, 64, false)));
+        assertEquals("x86_64", intel.getArchitecture());
+        assertEquals(12, intel.getAlign());
+
+        assertNull(FatBinary.readThin(open(universal())));
+        assertNull(FatBinary.read(open(machO(CPU_TYPE_ARM64, 0, 64, true))));
+    }
+
+    @Test
+    public void writesTheSlicesItWasGiven() throws IOException {
+        RandomAccessFile source = open(universal());
+        FatBinary binary = FatBinary.read(source);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FatBinary.write(source, binary.getSlices(), out);
+        assertArrayEquals(universal(), out.toByteArray());
+
+        out = new ByteArrayOutputStream();
+        FatBinary.write(source, binary.getSlices().subList(1, 2), out);
+        assertArrayEquals(machO(CPU_TYPE_ARM64, 0, 200, true), out.toByteArray());
+    }
+
+    @Test
+    public void combinesSlicesOfSeveralFiles() throws IOException {
+        RandomAccessFile intel = open(machO(CPU_TYPE_X86_64, 3, 100, true));
+        RandomAccessFile arm = open(machO(CPU_TYPE_ARM64, 0, 200, true));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FatBinary.write(Arrays.asList(intel, arm), Arrays.asList(FatBinary.readThin(intel), FatBinary.readThin(arm)), out);
+        assertArrayEquals(universal(), out.toByteArray());
+    }
+
+    private RandomAccessFile open(byte[] content) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(folder.newFile(), "rw");
+        out.write(content);
+        open.add(out);
+        return out;
+    }
+}
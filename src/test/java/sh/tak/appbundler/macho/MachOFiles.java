@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.macho;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Mach-O files for the tests. They have valid headers but no code.
+ */
+public final class MachOFiles {
+
+    public static final int CPU_TYPE_X86_64 = 0x01000007;
+
+    public static final int CPU_TYPE_ARM64 = 0x0100000c;
+
+    private MachOFiles() {
+    }
+
+    /**
+     * A universal binary with a 100 byte x86_64 slice at 4 KB and a 200 byte
+     * arm64 slice at 16 KB, laid out like <code>lipo</code> does.
+     *
+     * @return the binary
+     * @throws IOException never
+     */
+    public static byte[] universal() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(0xcafebabe);
+        data.writeInt(2);
+        data.writeInt(CPU_TYPE_X86_64);
+        data.writeInt(3);
+        data.writeInt(4096);
+        data.writeInt(100);
+        data.writeInt(12);
+        data.writeInt(CPU_TYPE_ARM64);
+        data.writeInt(0);
+        data.writeInt(16384);
+        data.writeInt(200);
+        data.writeInt(14);
+        data.write(new byte[4096 - data.size()]);
+        data.write(machO(CPU_TYPE_X86_64, 3, 100, true));
+        data.write(new byte[16384 - data.size()]);
+        data.write(machO(CPU_TYPE_ARM64, 0, 200, true));
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A 64 bit Mach-O header followed by a recognizable filler.
+     *
+     * @param cpuType the CPU type
+     * @param cpuSubtype the CPU subtype
+     * @param size the size of the whole file
+     * @param littleEndian the byte order of the header
+     * @return the binary
+     */
+    public static byte[] machO(int cpuType, int cpuSubtype, int size, boolean littleEndian) {
+        byte[] bytes = new byte[size];
+        int[] header = {0xfeedfacf, cpuType, cpuSubtype};
+        for (int i = 0; i < header.length; i++) {
+            int value = littleEndian ? Integer.reverseBytes(header[i]) : header[i];
+            bytes[i * 4] = (byte) (value >>> 24);
+            bytes[i * 4 + 1] = (byte) (value >>> 16);
+            bytes[i * 4 + 2] = (byte) (value >>> 8);
+            bytes[i * 4 + 3] = (byte) value;
+        }
+        for (int i = 12; i < size; i++) {
+            bytes[i] = (byte) (cpuType + i);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.macho;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import sh.tak.appbundler.TestFiles;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static sh.tak.appbundler.macho.MachOFiles.CPU_TYPE_ARM64;
+import static sh.tak.appbundler.macho.MachOFiles.machO;
+import static sh.tak.appbundler.macho.MachOFiles.universal;
+
+public class MachOThinnerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File cache;
+
+    @Before
+    public void setUp() {
+        cache = new File(folder.getRoot(), "cache");
+    }
+
+    @Test
+    public void keepsOnlyTheWantedArchitecture() throws IOException {
+        File library = write("libfoo.dylib", universal());
+        library.setLastModified(1577836800000L);
+        long before = library.length();
+
+        long saved = new MachOThinner(Collections.singleton("arm64"), cache).thin(library);
+
+        byte[] expected = machO(CPU_TYPE_ARM64, 0, 200, true);
+        assertArrayEquals(expected, Files.readAllBytes(library.toPath()));
+        assertEquals(before - expected.length, saved);
+        assertEquals(1577836800000L, library.lastModified());
+        assertEquals(1, cache.list().length);
+    }
+
+    @Test
+    public void leavesOtherFilesAlone() throws IOException {
+        MachOThinner thinner = new MachOThinner(Collections.singleton("arm64"), cache);
+
+        byte[] classFile = {(byte) 0xca, (byte) 0xfe, (byte) 0xba, (byte) 0xbe, 0, 0, 0, 52, 0, 0, 0, 0};
+        byte[] thin = machO(CPU_TYPE_ARM64, 0, 200, true);
+        for (byte[] content : Arrays.asList(classFile, thin, "text".getBytes("US-ASCII"))) {
+            File file = write("file", content);
+            assertEquals(0L, thinner.thin(file));
+            assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        }
+    }
+
+    @Test
+    public void leavesBinariesWithAllOrNoneOfTheArchitecturesAlone() throws IOException {
+        byte[] universal = universal();
+        File file = write("libfoo.dylib", universal);
+
+        assertEquals(0L, new MachOThinner(new HashSet<String>(Arrays.asList("arm64", "x86_64")), cache).thin(file));
+        assertEquals(0L, new MachOThinner(Collections.singleton("ppc"), cache).thin(file));
+        assertArrayEquals(universal, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void thinningTwiceChangesNothing() throws IOException {
+        File library = write("libfoo.dylib", universal());
+        MachOThinner thinner = new MachOThinner(Collections.singleton("x86_64"), cache);
+
+        assertTrue(thinner.thin(library) > 0);
+        byte[] thinned = Files.readAllBytes(library.toPath());
+        assertEquals(0L, thinner.thin(library));
+        assertArrayEquals(thinned, Files.readAllBytes(library.toPath()));
+    }
+
+    @Test
+    public void doesNotWriteThroughHardLinks() throws IOException {
+        File library = write("libfoo.dylib", universal());
+        File link = new File(folder.getRoot(), "variant.dylib");
+        Files.createLink(link.toPath(), library.toPath());
+
+        new MachOThinner(Collections.singleton("arm64"), cache).thin(library);
+
+        assertArrayEquals(universal(), Files.readAllBytes(link.toPath()));
+    }
+
+    private File write(String name, byte[] content) throws IOException {
+        return TestFiles.write(new File(folder.getRoot(), name), content);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.natives;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import sh.tak.appbundler.TestFiles;
+import sh.tak.appbundler.macho.FatBinary;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static sh.tak.appbundler.macho.MachOFiles.CPU_TYPE_ARM64;
+import static sh.tak.appbundler.macho.MachOFiles.CPU_TYPE_X86_64;
+import static sh.tak.appbundler.macho.MachOFiles.machO;
+
+public class NativeLibraryExtractorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File target;
+
+    private WarningLog log;
+
+    private NativeLibraryExtractor extractor;
+
+    @Before
+    public void setUp() throws IOException {
+        target = new File(folder.getRoot(), "MacOS");
+        log = new WarningLog();
+        extractor = new NativeLibraryExtractor(new File(folder.getRoot(), "work"), log);
+    }
+
+    @Test
+    public void combinesArchitecturesIntoOneLibrary() throws IOException {
+        extractor.scan(jar("intel.jar", "darwin-x86-64/libfoo.dylib", machO(CPU_TYPE_X86_64, 3, 100, true)));
+        extractor.scan(jar("arm.jar", "darwin-aarch64/libfoo.dylib", machO(CPU_TYPE_ARM64, 0, 200, true)));
+
+        assertEquals(Arrays.asList("libfoo.dylib"), extractor.extract(target));
+
+        RandomAccessFile file = new RandomAccessFile(new File(target, "libfoo.dylib"), "r");
+        try {
+            List<String> architectures = new ArrayList<String>();
+            for (FatBinary.Slice slice : FatBinary.read(file).getSlices()) {
+                architectures.add(slice.getArchitecture());
+            }
+            assertEquals(Arrays.asList("x86_64", "arm64"), architectures);
+        } finally {
+            file.close();
+        }
+        assertTrue(log.warnings.isEmpty());
+    }
+
+    @Test
+    public void warnsAboutTheSameArchitectureInTwoJars() throws IOException {
+        byte[] first = machO(CPU_TYPE_ARM64, 0, 100, true);
+        extractor.scan(jar("first.jar", "darwin/libfoo.dylib", first));
+        extractor.scan(jar("second.jar", "native/libfoo.dylib", machO(CPU_TYPE_ARM64, 0, 200, true)));
+
+        extractor.extract(target);
+
+        assertArrayEquals(first, Files.readAllBytes(new File(target, "libfoo.dylib").toPath()));
+        assertEquals(1, log.warnings.size());
+        String warning = log.warnings.get(0);
+        assertTrue(warning, warning.contains("first.jar!/darwin/libfoo.dylib"));
+        assertTrue(warning, warning.contains("second.jar!/native/libfoo.dylib"));
+    }
+
+    @Test
+    public void skipsJarsThatDidNotChange() throws IOException {
+        List<File> jars = Arrays.asList(jar("arm.jar", "darwin/libfoo.dylib", machO(CPU_TYPE_ARM64, 0, 100, true)));
+        assertEquals(Arrays.asList("libfoo.dylib"), extractor.extract(jars, target));
+
+        // like thinning does after the extraction
+        File library = TestFiles.write(new File(target, "libfoo.dylib"), "changed by the build");
+        assertEquals(Arrays.asList("libfoo.dylib"), newExtractor(null).extract(jars, target));
+        assertEquals("changed by the build", TestFiles.read(library));
+
+        newExtractor("thin [arm64]").extract(jars, target);
+        assertArrayEquals(machO(CPU_TYPE_ARM64, 0, 100, true), Files.readAllBytes(library.toPath()));
+    }
+
+    @Test
+    public void extractsAgainWhenAJarChanges() throws IOException {
+        List<File> jars = Arrays.asList(jar("arm.jar", "darwin/libfoo.dylib", machO(CPU_TYPE_ARM64, 0, 100, true)));
+        extractor.extract(jars, target);
+
+        jar("arm.jar", "darwin/libbar.dylib", machO(CPU_TYPE_ARM64, 0, 200, true));
+        assertEquals(Arrays.asList("libbar.dylib"), newExtractor(null).extract(jars, target));
+        assertFalse(new File(target, "libfoo.dylib").exists());
+    }
+
+    @Test
+    public void extractsAgainWhenALibraryIsMissing() throws IOException {
+        List<File> jars = Arrays.asList(jar("arm.jar", "darwin/libfoo.dylib", machO(CPU_TYPE_ARM64, 0, 100, true)));
+        extractor.extract(jars, target);
+
+        new File(target, "libfoo.dylib").delete();
+        newExtractor(null).extract(jars, target);
+        assertTrue(new File(target, "libfoo.dylib").isFile());
+    }
+
+    private NativeLibraryExtractor newExtractor(String transformation) {
+        NativeLibraryExtractor extractor = new NativeLibraryExtractor(new File(folder.getRoot(), "work"), log);
+        extractor.setTransformation(transformation);
+        return extractor;
+    }
+
+    private File jar(String name, String entry, byte[] content) throws IOException {
+        return TestFiles.zip(new File(folder.getRoot(), name), Collections.singletonMap(entry, content));
+    }
+
+    private static final class WarningLog extends SystemStreamLog {
+
+        private final List<String> warnings = new ArrayList<String>();
+
+        @Override
+        public void warn(CharSequence content) {
+            warnings.add(content.toString());
+            super.warn(content);
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.plist;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinaryPlistWriterTest {
+
+    @Test
+    public void roundTripsTheBuiltInTemplate() throws IOException {
+        String template = PlistParserTest.renderTemplate();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryPlistWriter writer = new BinaryPlistWriter(out);
+        PlistParser.parse(new StringReader(template), writer);
+        writer.close();
+
+        assertEquals(PlistParserTest.parse(template), decode(out.toByteArray()));
+    }
+
+    @Test
+    public void writesAllValueTypes() throws IOException {
+        byte[] data = new byte[20];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 13);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryPlistWriter writer = new BinaryPlistWriter(out);
+        writer.startDict();
+        writer.key("ascii");
+        writer.string("a string longer than fifteen characters");
+        writer.key("unicode");
+        writer.string("日本語");
+        writer.key("yes");
+        writer.bool(true);
+        writer.key("no");
+        writer.bool(false);
+        writer.key("small");
+        writer.integer(7);
+        writer.key("short");
+        writer.integer(0x1234);
+        writer.key("int");
+        writer.integer(0x12345678L);
+        writer.key("negative");
+        writer.integer(-1);
+        writer.key("real");
+        writer.real(-2.25);
+        writer.key("date");
+        writer.date(new Date(978307210000L));
+        writer.key("data");
+        writer.data(data);
+        writer.key("array");
+        writer.startArray();
+        writer.startDict();
+        writer.endDict();
+        writer.endArray();
+        writer.endDict();
+        writer.close();
+
+        Map<String, Object> dict = decodeDict(out.toByteArray());
+        assertEquals(Arrays.asList("ascii", "unicode", "yes", "no", "small", "short", "int", "negative", "real", "date", "data", "array"),
+                new ArrayList<String>(dict.keySet()));
+        assertEquals("a string longer than fifteen characters", dict.get("ascii"));
+        assertEquals("日本語", dict.get("unicode"));
+        assertEquals(Boolean.TRUE, dict.get("yes"));
+        assertEquals(Boolean.FALSE, dict.get("no"));
+        assertEquals(Long.valueOf(7), dict.get("small"));
+        assertEquals(Long.valueOf(0x1234), dict.get("short"));
+        assertEquals(Long.valueOf(0x12345678L), dict.get("int"));
+        assertEquals(Long.valueOf(-1), dict.get("negative"));
+        assertEquals(Double.valueOf(-2.25), dict.get("real"));
+        assertEquals(new Date(978307210000L), dict.get("date"));
+        assertArrayEquals(data, (byte[]) dict.get("data"));
+        assertEquals(Arrays.asList(new LinkedHashMap<String, Object>()), dict.get("array"));
+    }
+
+    @Test
+    public void storesEqualValuesOnce() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryPlistWriter writer = new BinaryPlistWriter(out);
+        writer.startArray();
+        for (int i = 0; i < 3; i++) {
+            writer.string("same");
+            writer.integer(1);
+        }
+        writer.endArray();
+        writer.close();
+
+        byte[] bytes = out.toByteArray();
+        // the array, one string and one integer
+        assertEquals(3L, ByteBuffer.wrap(bytes, bytes.length - 24, 8).getLong());
+        assertEquals(Arrays.asList("same", 1L, "same", 1L, "same", 1L), decode(bytes));
+    }
+
+    @Test
+    public void usesWiderReferencesForLargeDocuments() throws IOException {
+        List<Object> expected = new ArrayList<Object>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryPlistWriter writer = new BinaryPlistWriter(out);
+        writer.startArray();
+        for (int i = 0; i < 300; i++) {
+            writer.string("value " + i);
+            expected.add("value " + i);
+        }
+        writer.endArray();
+        writer.close();
+
+        byte[] bytes = out.toByteArray();
+        assertEquals(2, bytes[bytes.length - 26]);
+        assertEquals(2, bytes[bytes.length - 25]);
+        assertEquals(expected, decode(bytes));
+    }
+
+    @Test
+    public void rejectsAnEmptyDocument() throws IOException {
+        try {
+            new BinaryPlistWriter(new ByteArrayOutputStream()).close();
+            fail("an empty property list was written");
+        } catch (IllegalStateException ex) {
+            assertEquals("Empty property list", ex.getMessage());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> decodeDict(byte[] bytes) {
+        return (Map<String, Object>) decode(bytes);
+    }
+
+    /**
+     * Decodes a <code>bplist00</code> document into maps, lists and boxed
+     * values.
+     */
+    private static Object decode(byte[] bytes) {
+        assertEquals("bplist00", new String(bytes, 0, 8, Charset.forName("US-ASCII")));
+
+        ByteBuffer trailer = ByteBuffer.wrap(bytes, bytes.length - 32, 32);
+        trailer.position(trailer.position() + 6);
+        int offsetSize = trailer.get();
+        int refSize = trailer.get();
+        int count = (int) trailer.getLong();
+        int top = (int) trailer.getLong();
+        int offsetTable = (int) trailer.getLong();
+
+        long[] offsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = sized(bytes, offsetTable + i * offsetSize, offsetSize);
+        }
+        return new Decoder(bytes, offsets, refSize).object(top);
+    }
+
+    private static long sized(byte[] bytes, int position, int size) {
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | (bytes[position + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static class Decoder {
+
+        private final byte[] bytes;
+
+        private final long[] offsets;
+
+        private final int refSize;
+
+        Decoder(byte[] bytes, long[] offsets, int refSize) {
+            this.bytes = bytes;
+            this.offsets = offsets;
+            this.refSize = refSize;
+        }
+
+        Object object(int number) {
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            in.position((int) offsets[number]);
+            int marker = in.get() & 0xff;
+            int type = marker >> 4;
+            int info = marker & 0x0f;
+
+            switch (type) {
+                case 0x0:
+                    assertTrue("unexpected marker " + marker, info == 0x8 || info == 0x9);
+                    return Boolean.valueOf(info == 0x9);
+                case 0x1:
+                    return Long.valueOf(integer(in, info));
+                case 0x2:
+                    assertEquals(3, info);
+                    return Double.valueOf(in.getDouble());
+                case 0x3:
+                    assertEquals(3, info);
+                    return new Date(Math.round((in.getDouble() + 978307200L) * 1000));
+                case 0x4: {
+                    byte[] data = new byte[length(in, info)];
+                    in.get(data);
+                    return data;
+                }
+                case 0x5: {
+                    byte[] ascii = new byte[length(in, info)];
+                    in.get(ascii);
+                    return new String(ascii, Charset.forName("US-ASCII"));
+                }
+                case 0x6: {
+                    byte[] utf16 = new byte[length(in, info) * 2];
+                    in.get(utf16);
+                    return new String(utf16, Charset.forName("UTF-16BE"));
+                }
+                case 0xA: {
+                    int length = length(in, info);
+                    List<Object> array = new ArrayList<Object>();
+                    for (int i = 0; i < length; i++) {
+                        array.add(object(ref(in)));
+                    }
+                    return array;
+                }
+                case 0xD: {
+                    int length = length(in, info);
+                    int[] keys = new int[length];
+                    for (int i = 0; i < length; i++) {
+                        keys[i] = ref(in);
+                    }
+                    Map<String, Object> dict = new LinkedHashMap<String, Object>();
+                    for (int i = 0; i < length; i++) {
+                        dict.put((String) object(keys[i]), object(ref(in)));
+                    }
+                    return dict;
+                }
+                default:
+                    fail("unexpected marker " + marker);
+                    return null;
+            }
+        }
+
+        private int ref(ByteBuffer in) {
+            int position = in.position();
+            in.position(position + refSize);
+            return (int) sized(bytes, position, refSize);
+        }
+
+        private static int length(ByteBuffer in, int info) {
+            if (info != 0x0f) {
+                return info;
+            }
+            int marker = in.get() & 0xff;
+            assertEquals(0x1, marker >> 4);
+            return (int) integer(in, marker & 0x0f);
+        }
+
+        private static long integer(ByteBuffer in, int info) {
+            switch (info) {
+                case 0:
+                    return in.get() & 0xff;
+                case 1:
+                    return in.getShort() & 0xffff;
+                case 2:
+                    return in.getInt() & 0xffffffffL;
+                case 3:
+                    return in.getLong();
+                default:
+                    fail("unexpected integer size " + info);
+                    return 0;
+            }
+        }
+    }
+}
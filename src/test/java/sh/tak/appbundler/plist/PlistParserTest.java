@@ -0,0 +1,259 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.plist;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PlistParserTest {
+
+    static final String TEMPLATE = "sh/tak/appbundler/Info.plist.template";
+
+    @Test
+    public void parsesAllValueTypes() throws IOException {
+        Map<String, Object> dict = parseDict("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" \"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">\n"
+                + "<plist version=\"1.0\"><dict>"
+                + "<key>string</key><string>a &amp; b</string>"
+                + "<key>empty</key><string></string>"
+                + "<key>yes</key><true/>"
+                + "<key>no</key><false/>"
+                + "<key>integer</key><integer> -42 </integer>"
+                + "<key>real</key><real>1.5</real>"
+                + "<key>date</key><date>2001-01-01T00:00:10Z</date>"
+                + "<key>data</key><data>AAEC/w==</data>"
+                + "<key>array</key><array><string>x</string><array/><dict/></array>"
+                + "</dict></plist>");
+
+        assertEquals(Arrays.asList("string", "empty", "yes", "no", "integer", "real", "date", "data", "array"),
+                new ArrayList<String>(dict.keySet()));
+        assertEquals("a & b", dict.get("string"));
+        assertEquals("", dict.get("empty"));
+        assertEquals(Boolean.TRUE, dict.get("yes"));
+        assertEquals(Boolean.FALSE, dict.get("no"));
+        assertEquals(Long.valueOf(-42), dict.get("integer"));
+        assertEquals(Double.valueOf(1.5), dict.get("real"));
+        assertEquals(new Date(978307210000L), dict.get("date"));
+        assertArrayEquals(new byte[] {0, 1, 2, (byte) 0xff}, (byte[]) dict.get("data"));
+        assertEquals(Arrays.asList("x", new ArrayList<Object>(), new LinkedHashMap<String, Object>()), dict.get("array"));
+    }
+
+    @Test
+    public void roundTripsThroughXmlPlistWriter() throws IOException {
+        String template = renderTemplate();
+        Object expected = parse(template);
+
+        String xml = rewrite(template);
+        assertEquals(expected, parse(xml));
+        assertEquals(xml, rewrite(xml));
+    }
+
+    @Test
+    public void parsesTheBuiltInTemplate() throws IOException {
+        Map<String, Object> dict = parseDict(renderTemplate());
+
+        assertEquals("JavaAppLauncher", dict.get("CFBundleExecutable"));
+        assertEquals("My <App>", dict.get("CFBundleName"));
+        assertEquals(Boolean.TRUE, dict.get("NSHighResolutionCapable"));
+        assertEquals(Arrays.asList("lib/a.jar", "lib/b & c.jar"), dict.get("JVMClassPaths"));
+        assertEquals(Arrays.asList("-Xdock:name=My <App>"), dict.get("JVMOptions"));
+        assertEquals(new ArrayList<Object>(), dict.get("JVMArguments"));
+    }
+
+    @Test
+    public void rejectsUnknownElements() {
+        try {
+            parse("<plist><dict><key>a</key><map/></dict></plist>");
+            fail("an unknown element was accepted");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("<map>"));
+        }
+    }
+
+    @Test
+    public void rejectsMalformedDocuments() {
+        try {
+            parse("");
+            fail("an empty document was accepted");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("Invalid property list"));
+        }
+        try {
+            parse("<plist><integer>one</integer></plist>");
+            fail("an invalid number was accepted");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("Invalid number"));
+        }
+    }
+
+    /**
+     * Renders the built-in <code>Info.plist</code> template the way the mojo
+     * fills it in, without Velocity.
+     */
+    static String renderTemplate() throws IOException {
+        InputStream in = PlistParserTest.class.getClassLoader().getResourceAsStream(TEMPLATE);
+        assertTrue("missing " + TEMPLATE, in != null);
+        StringBuilder template = new StringBuilder();
+        Reader reader = new InputStreamReader(in, "UTF-8");
+        try {
+            char[] buffer = new char[4096];
+            int n;
+            while ((n = reader.read(buffer)) > 0) {
+                template.append(buffer, 0, n);
+            }
+        } finally {
+            reader.close();
+        }
+
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        values.put("cfBundleExecutable", "JavaAppLauncher");
+        values.put("iconFile", "GenericJavaApp.icns");
+        values.put("mainClass", "com.example.Main");
+        values.put("bundleName", XmlPlistWriter.escape("My <App>"));
+        values.put("version", "1.0");
+        values.put("jrePath", "");
+        values.put("jreFullPath", "");
+        values.put("jvmVersion", "1.6+");
+        values.put("workingDirectory", "$APP_ROOT");
+        values.put("classpath", new StringArray(Arrays.asList("lib/a.jar", "lib/b & c.jar"), "    ").toString());
+        values.put("jvmOptions", new StringArray(Arrays.asList("-Xdock:name=My <App>"), "    ").toString());
+
+        String rendered = template.toString();
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            rendered = rendered.replace("${" + value.getKey() + "}", value.getValue());
+        }
+        assertTrue(rendered, !rendered.contains("${"));
+        return rendered;
+    }
+
+    private static String rewrite(String xml) throws IOException {
+        StringWriter out = new StringWriter();
+        XmlPlistWriter writer = new XmlPlistWriter(out);
+        PlistParser.parse(new StringReader(xml), writer);
+        writer.close();
+        return out.toString();
+    }
+
+    static Object parse(String xml) throws IOException {
+        ObjectPlistWriter writer = new ObjectPlistWriter();
+        PlistParser.parse(new StringReader(xml), writer);
+        writer.close();
+        return writer.getRoot();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> parseDict(String xml) throws IOException {
+        return (Map<String, Object>) parse(xml);
+    }
+
+    /**
+     * Collects a property list as maps, lists and boxed values.
+     */
+    static class ObjectPlistWriter implements PlistWriter {
+
+        private final LinkedList<Object> containers = new LinkedList<Object>();
+
+        private String key;
+
+        private Object root;
+
+        Object getRoot() {
+            return root;
+        }
+
+        public void startDict() {
+            Map<String, Object> dict = new LinkedHashMap<String, Object>();
+            add(dict);
+            containers.addLast(dict);
+        }
+
+        public void endDict() {
+            containers.removeLast();
+        }
+
+        public void startArray() {
+            List<Object> array = new ArrayList<Object>();
+            add(array);
+            containers.addLast(array);
+        }
+
+        public void endArray() {
+            containers.removeLast();
+        }
+
+        public void key(String key) {
+            this.key = key;
+        }
+
+        public void string(String value) {
+            add(value);
+        }
+
+        public void bool(boolean value) {
+            add(Boolean.valueOf(value));
+        }
+
+        public void integer(long value) {
+            add(Long.valueOf(value));
+        }
+
+        public void real(double value) {
+            add(Double.valueOf(value));
+        }
+
+        public void date(Date value) {
+            add(value);
+        }
+
+        public void data(byte[] value) {
+            add(value);
+        }
+
+        public void close() {
+            assertTrue("unbalanced containers", containers.isEmpty());
+        }
+
+        @SuppressWarnings("unchecked")
+        private void add(Object value) {
+            if (containers.isEmpty()) {
+                root = value;
+            } else if (containers.getLast() instanceof List) {
+                ((List<Object>) containers.getLast()).add(value);
+            } else {
+                assertTrue("value without a key", key != null);
+                ((Map<String, Object>) containers.getLast()).put(key, value);
+                key = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.plist;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class StringArrayTest {
+
+    @Test
+    public void escapesTheValues() {
+        StringArray array = new StringArray(Arrays.asList("lib/a.jar", "-Xdock:name=A & <B>"), "  ");
+
+        assertEquals(Arrays.asList("lib/a.jar", "-Xdock:name=A &amp; &lt;B&gt;"), array);
+    }
+
+    @Test
+    public void rendersTheWholeArray() {
+        assertEquals("<array>\n"
+                + "    <string>lib/a.jar</string>\n"
+                + "    <string>b &amp; c.jar</string>\n"
+                + "  </array>", new StringArray(Arrays.asList("lib/a.jar", "b & c.jar"), "  ").toString());
+        assertEquals("<array>\n</array>", new StringArray(Collections.<String>emptyList(), "").toString());
+    }
+}
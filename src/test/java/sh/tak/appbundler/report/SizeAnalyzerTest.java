@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import sh.tak.appbundler.TestFiles;
+
+import static org.junit.Assert.assertEquals;
+
+public class SizeAnalyzerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void countsLinkedFilesWhereTheyAreLinkedFrom() throws IOException {
+        // sorts before the main bundle
+        write("A Lite.app/Contents/Info.plist", 10);
+        write("My App.app/Contents/Info.plist", 20);
+        write("My App.app/Contents/Java/app.jar", 1000);
+        write("My App.app/Contents/PlugIns/JRE/lib/libjvm.dylib", 5000);
+        link("A Lite.app/Contents/Java/app.jar", "My App.app/Contents/Java/app.jar");
+        link("A Lite.app/Contents/PlugIns/JRE/lib/libjvm.dylib", "My App.app/Contents/PlugIns/JRE/lib/libjvm.dylib");
+
+        SizeReport report = analyzer().analyze(folder.getRoot(), 2);
+
+        assertEquals(1000L, report.getGroup(SizeReport.APPLICATION, "app.jar").getBytes());
+        assertEquals(5000L, report.getCategory(SizeReport.JRE).getBytes());
+        SizeReport.Group variant = report.getGroup(SizeReport.VARIANTS, "Lite");
+        assertEquals(10L, variant.getBytes());
+        assertEquals(3L, variant.getFiles());
+        assertEquals(6030L, report.getCategory(SizeReport.TOTAL).getBytes());
+    }
+
+    @Test
+    public void countsFilesLinkedWithinTheBundleOnceInNameOrder() throws IOException {
+        write("My App.app/Contents/Java/b.jar", 100);
+        link("My App.app/Contents/Java/a.jar", "My App.app/Contents/Java/b.jar");
+
+        SizeAnalyzer analyzer = new SizeAnalyzer();
+        analyzer.addFile("My App.app/Contents/Java/a.jar", SizeReport.DEPENDENCIES, "a");
+        analyzer.addFile("My App.app/Contents/Java/b.jar", SizeReport.DEPENDENCIES, "b");
+        SizeReport report = analyzer.analyze(folder.getRoot(), 1);
+
+        assertEquals(100L, report.getGroup(SizeReport.DEPENDENCIES, "a").getBytes());
+        assertEquals(0L, report.getGroup(SizeReport.DEPENDENCIES, "b").getBytes());
+    }
+
+    private static SizeAnalyzer analyzer() {
+        SizeAnalyzer analyzer = new SizeAnalyzer();
+        analyzer.addDirectory("My App.app/Contents/", SizeReport.APPLICATION, null);
+        analyzer.addDirectory("My App.app/Contents/PlugIns/JRE", SizeReport.JRE, null);
+        analyzer.addFile("My App.app/Contents/Java/app.jar", SizeReport.APPLICATION, "app.jar");
+        analyzer.addLinkedDirectory("A Lite.app", SizeReport.VARIANTS, "Lite");
+        return analyzer;
+    }
+
+    private void write(String path, int size) throws IOException {
+        TestFiles.write(new File(folder.getRoot(), path), size);
+    }
+
+    private void link(String path, String existing) throws IOException {
+        File file = new File(folder.getRoot(), path);
+        file.getParentFile().mkdirs();
+        Files.createLink(file.toPath(), new File(folder.getRoot(), existing).toPath());
+    }
+}
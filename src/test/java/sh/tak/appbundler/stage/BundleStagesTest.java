@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.stage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BundleStagesTest {
+
+    @Test
+    public void runsEveryStageAfterWhatItDependsOn() throws MojoExecutionException {
+        RecordingSteps steps = new RecordingSteps(null);
+        new BundleStages(steps, true, true).execute(4, new SystemStreamLog());
+
+        assertEquals(9, steps.order.size());
+        assertBefore(steps.order, "copyLauncher", "makeLauncherExecutable");
+        assertBefore(steps.order, "copyDependencies", "writeInfoPlist");
+        assertBefore(steps.order, "copyJre", "writeInfoPlist");
+        for (String step : Arrays.asList("copyLauncher", "makeLauncherExecutable", "copyDependencies", "copyJre", "copyAdditionalResources")) {
+            assertBefore(steps.order, step, "thinBinaries");
+        }
+        assertEquals("createVariants", steps.order.get(8));
+
+        assertEquals(Arrays.asList("app.jar", "lib/extra.jar"), steps.infoPlistClassPath);
+        assertEquals(Arrays.asList("app.jar", "lib/extra.jar"), steps.variantClassPath);
+    }
+
+    @Test
+    public void leavesOutThinningAndVariantsUnlessConfigured() throws MojoExecutionException {
+        RecordingSteps steps = new RecordingSteps(null);
+        new BundleStages(steps, false, false).execute(1, new SystemStreamLog());
+
+        assertEquals(7, steps.order.size());
+        assertFalse(steps.order.contains("thinBinaries"));
+        assertFalse(steps.order.contains("createVariants"));
+    }
+
+    @Test
+    public void stopsAtTheFirstFailure() {
+        RecordingSteps steps = new RecordingSteps("copyJre");
+        try {
+            new BundleStages(steps, true, true).execute(1, new SystemStreamLog());
+            fail("the failure of copyJre was not reported");
+        } catch (MojoExecutionException ex) {
+            assertEquals("copyJre failed", ex.getMessage());
+        }
+
+        assertFalse(steps.order.contains("writeInfoPlist"));
+        assertFalse(steps.order.contains("thinBinaries"));
+        assertFalse(steps.order.contains("createVariants"));
+    }
+
+    private static void assertBefore(List<String> order, String first, String then) {
+        assertTrue(first + " ran after " + then + ": " + order, order.indexOf(first) < order.indexOf(then));
+    }
+
+    private static final class RecordingSteps implements BundleStages.Steps {
+
+        private final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+        private final String failing;
+
+        private volatile List<String> infoPlistClassPath;
+
+        private volatile List<String> variantClassPath;
+
+        RecordingSteps(String failing) {
+            this.failing = failing;
+        }
+
+        private void ran(String step) throws MojoExecutionException {
+            if (step.equals(failing)) {
+                throw new MojoExecutionException(step + " failed");
+            }
+            order.add(step);
+        }
+
+        public void copyLauncher() throws MojoExecutionException {
+            ran("copyLauncher");
+        }
+
+        public void makeLauncherExecutable() throws MojoExecutionException {
+            ran("makeLauncherExecutable");
+        }
+
+        public void copyIcon() throws MojoExecutionException {
+            ran("copyIcon");
+        }
+
+        public List<String> copyDependencies() throws MojoExecutionException {
+            ran("copyDependencies");
+            return Arrays.asList("app.jar", "lib/extra.jar");
+        }
+
+        public void copyJre() throws MojoExecutionException {
+            ran("copyJre");
+        }
+
+        public void writeInfoPlist(List<String> classPath) throws MojoExecutionException {
+            ran("writeInfoPlist");
+            infoPlistClassPath = classPath;
+        }
+
+        public void copyAdditionalResources() throws MojoExecutionException {
+            ran("copyAdditionalResources");
+        }
+
+        public void thinBinaries() throws MojoExecutionException {
+            ran("thinBinaries");
+        }
+
+        public void createVariants(List<String> classPath) throws MojoExecutionException {
+            ran("createVariants");
+            variantClassPath = classPath;
+        }
+    }
+}
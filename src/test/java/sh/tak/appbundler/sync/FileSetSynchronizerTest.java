@@ -0,0 +1,231 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.sync;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static sh.tak.appbundler.TestFiles.read;
+import static sh.tak.appbundler.TestFiles.write;
+
+public class FileSetSynchronizerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File first;
+
+    private File second;
+
+    private File target;
+
+    private FileSetSynchronizer synchronizer;
+
+    @Before
+    public void setUp() {
+        first = new File(folder.getRoot(), "first");
+        second = new File(folder.getRoot(), "second");
+        target = new File(folder.getRoot(), "target");
+        synchronizer = new FileSetSynchronizer(new File(folder.getRoot(), "state"), new SystemStreamLog());
+    }
+
+    @Test
+    public void copiesNewFilesAndSkipsUnchangedOnes() throws IOException {
+        write(new File(first, "a.txt"), "a");
+
+        FileSetSynchronizer.Result result = synchronizer.sync("key", first, Arrays.asList("a.txt"), target, false);
+        assertEquals(1, result.getCopied());
+        assertEquals("a", read(new File(target, "a.txt")));
+
+        result = synchronizer.sync("key", first, Arrays.asList("a.txt"), target, false);
+        assertEquals(0, result.getCopied());
+        assertEquals(1, result.getUnchanged());
+    }
+
+    @Test
+    public void removesFilesNoLongerListed() throws IOException {
+        write(new File(first, "a.txt"), "a");
+        write(new File(first, "dir/b.txt"), "b");
+        synchronizer.sync("key", first, Arrays.asList("a.txt", "dir/b.txt"), target, false);
+
+        FileSetSynchronizer.Result result = synchronizer.sync("key", first, Arrays.asList("a.txt"), target, false);
+        assertEquals(1, result.getRemoved());
+        assertFalse(new File(target, "dir").exists());
+        assertTrue(new File(target, "a.txt").isFile());
+    }
+
+    @Test
+    public void reportsTheCopiedAndRemovedPaths() throws IOException {
+        write(new File(first, "a.txt"), "a");
+        write(new File(first, "dir/b.txt"), "b");
+        FileSetSynchronizer.Result result = synchronizer.sync("key", first, Arrays.asList("a.txt", "dir/b.txt"), target, false);
+        assertEquals(Arrays.asList("a.txt", "dir/b.txt"), result.getChanged());
+
+        write(new File(first, "c.txt"), "c");
+        result = synchronizer.sync("key", first, Arrays.asList("a.txt", "c.txt"), target, false);
+        assertEquals(Arrays.asList("c.txt", "dir/b.txt"), result.getChanged());
+    }
+
+    @Test
+    public void keepsFileMovedToAnotherFileSetOfTheSameTarget() throws IOException {
+        write(new File(first, "a.txt"), "a");
+        write(new File(second, "moved.txt"), "moved");
+        synchronizer.sync("key", sources(Arrays.asList("a.txt"), Arrays.asList("moved.txt")), target);
+
+        // the file now belongs to the first FileSet
+        write(new File(first, "moved.txt"), "moved");
+        FileSetSynchronizer.Result result = synchronizer.sync("key",
+                sources(Arrays.asList("a.txt", "moved.txt"), Collections.<String>emptyList()), target);
+
+        assertEquals(0, result.getRemoved());
+        assertEquals("moved", read(new File(target, "moved.txt")));
+    }
+
+    @Test
+    public void copiesAgainWhenTheSourceDirectoryChanges() throws IOException {
+        write(new File(first, "same.txt"), "one");
+        write(new File(second, "same.txt"), "two");
+        new File(second, "same.txt").setLastModified(new File(first, "same.txt").lastModified());
+
+        synchronizer.sync("key", sources(Arrays.asList("same.txt"), Collections.<String>emptyList()), target);
+        FileSetSynchronizer.Result result = synchronizer.sync("key",
+                sources(Collections.<String>emptyList(), Arrays.asList("same.txt")), target);
+
+        assertEquals(1, result.getCopied());
+        assertEquals("two", read(new File(target, "same.txt")));
+    }
+
+    @Test
+    public void copiesAgainWhenTheTransformationChanges() throws IOException {
+        write(new File(first, "libfoo.dylib"), "universal");
+        synchronizer.setTransformation("thin [arm64]");
+        synchronizer.sync("key", sources(Arrays.asList("libfoo.dylib"), Collections.<String>emptyList()), target);
+        write(new File(target, "libfoo.dylib"), "arm64");
+        synchronizer.recordCopies();
+
+        FileSetSynchronizer.Result result = synchronizer.sync("key",
+                sources(Arrays.asList("libfoo.dylib"), Collections.<String>emptyList()), target);
+        assertEquals(1, result.getUnchanged());
+        assertEquals("arm64", read(new File(target, "libfoo.dylib")));
+
+        synchronizer.setTransformation("thin [x86_64]");
+        result = synchronizer.sync("key", sources(Arrays.asList("libfoo.dylib"), Collections.<String>emptyList()), target);
+        assertEquals(1, result.getCopied());
+        assertEquals("universal", read(new File(target, "libfoo.dylib")));
+    }
+
+    @Test
+    public void repairsCopiesChangedOutsideOfTheBuild() throws IOException {
+        write(new File(first, "a.txt"), "a");
+        synchronizer.sync("key", first, Arrays.asList("a.txt"), target, false);
+        write(new File(target, "a.txt"), "edited");
+
+        FileSetSynchronizer.Result result = synchronizer.sync("key", first, Arrays.asList("a.txt"), target, false);
+        assertEquals(1, result.getCopied());
+        assertEquals("a", read(new File(target, "a.txt")));
+
+        new File(target, "a.txt").delete();
+        result = synchronizer.sync("key", first, Arrays.asList("a.txt"), target, false);
+        assertEquals(1, result.getCopied());
+        assertEquals("a", read(new File(target, "a.txt")));
+    }
+
+    @Test
+    public void keepsCopiesChangedByTheBuildOnceRecorded() throws IOException {
+        write(new File(first, "a.txt"), "a");
+        synchronizer.sync("key", first, Arrays.asList("a.txt"), target, false);
+
+        // like normalizing the timestamps of a reproducible build
+        new File(target, "a.txt").setLastModified(315532800000L);
+        synchronizer.recordCopies();
+
+        FileSetSynchronizer.Result result = synchronizer.sync("key", first, Arrays.asList("a.txt"), target, false);
+        assertEquals(0, result.getCopied());
+        assertEquals(1, result.getUnchanged());
+        assertEquals(315532800000L, new File(target, "a.txt").lastModified());
+    }
+
+    @Test
+    public void neverWritesThroughHardLinks() throws IOException {
+        write(new File(first, "a.txt"), "a");
+        synchronizer.sync("key", first, Arrays.asList("a.txt"), target, false);
+        File link = new File(folder.getRoot(), "variant.txt");
+        Files.createLink(link.toPath(), new File(target, "a.txt").toPath());
+
+        write(new File(first, "a.txt"), "changed");
+        synchronizer.sync("key", first, Arrays.asList("a.txt"), target, false);
+
+        assertEquals("changed", read(new File(target, "a.txt")));
+        assertEquals("a", read(link));
+        assertEquals(1, target.list().length);
+    }
+
+    @Test
+    public void comparesExplodedClassesByTimestampOnly() throws IOException {
+        // how the classes directory is synchronized into Contents/Java/Classes
+        FileSetSynchronizer classes = new FileSetSynchronizer(new File(folder.getRoot(), "state"), new SystemStreamLog(), false);
+        File compiled = write(new File(first, "com/example/Main.class"), "class");
+        classes.sync(target.getAbsolutePath(), first, Arrays.asList("com/example/Main.class"), target, false);
+
+        // recompiled to the same bytes, still copied since nothing is hashed
+        compiled.setLastModified(compiled.lastModified() - 10000);
+        FileSetSynchronizer.Result result = classes.sync(target.getAbsolutePath(), first, Arrays.asList("com/example/Main.class"), target, false);
+        assertEquals(1, result.getCopied());
+
+        // the content is verified for resources
+        write(new File(second, "a.txt"), "a");
+        synchronizer.sync("key", second, Arrays.asList("a.txt"), target, false);
+        new File(second, "a.txt").setLastModified(new File(second, "a.txt").lastModified() - 10000);
+        result = synchronizer.sync("key", second, Arrays.asList("a.txt"), target, false);
+        assertEquals(0, result.getCopied());
+    }
+
+    @Test
+    public void removesDeletedClassesAndTheirPackages() throws IOException {
+        FileSetSynchronizer classes = new FileSetSynchronizer(new File(folder.getRoot(), "state"), new SystemStreamLog(), false);
+        write(new File(first, "com/example/Main.class"), "main");
+        write(new File(first, "com/example/util/Helper.class"), "helper");
+        classes.sync(target.getAbsolutePath(), first, Arrays.asList("com/example/Main.class", "com/example/util/Helper.class"), target, false);
+
+        new File(first, "com/example/util/Helper.class").delete();
+        FileSetSynchronizer.Result result = classes.sync(target.getAbsolutePath(), first, Arrays.asList("com/example/Main.class"), target, false);
+
+        assertEquals(1, result.getRemoved());
+        assertEquals(Arrays.asList("com/example/util/Helper.class"), result.getChanged());
+        assertFalse(new File(target, "com/example/util").exists());
+        assertEquals("main", read(new File(target, "com/example/Main.class")));
+    }
+
+    private List<FileSetSynchronizer.Source> sources(List<String> fromFirst, List<String> fromSecond) {
+        List<FileSetSynchronizer.Source> sources = new ArrayList<FileSetSynchronizer.Source>();
+        sources.add(new FileSetSynchronizer.Source(first, fromFirst, false));
+        sources.add(new FileSetSynchronizer.Source(second, fromSecond, false));
+        return sources;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.sync;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static sh.tak.appbundler.TestFiles.write;
+
+public class FingerprintTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File fingerprintFile;
+
+    private File plist;
+
+    private File jar;
+
+    private List<File> outputs;
+
+    @Before
+    public void setUp() throws IOException {
+        fingerprintFile = new File(folder.getRoot(), "app.dmg.fingerprint");
+        plist = write(new File(folder.getRoot(), "Demo.app/Contents/Info.plist"), "<plist/>");
+        jar = write(new File(folder.getRoot(), "Demo.app/Contents/Java/app.jar"), 100);
+        outputs = Arrays.asList(plist, jar);
+    }
+
+    @Test
+    public void acceptsOutputsAsTheBuildLeftThem() throws IOException {
+        Fingerprint.write(fingerprintFile, "abc", outputs);
+
+        assertEquals("abc", Fingerprint.read(fingerprintFile));
+        assertNull(Fingerprint.findChangedOutput(fingerprintFile, outputs));
+    }
+
+    @Test
+    public void noticesChangedAndMissingOutputs() throws IOException {
+        Fingerprint.write(fingerprintFile, "abc", outputs);
+
+        // the same size, another modification time
+        write(plist, "<PLIST>");
+        plist.setLastModified(315532800000L);
+        assertEquals(plist + " was changed", Fingerprint.findChangedOutput(fingerprintFile, outputs));
+
+        Fingerprint.write(fingerprintFile, "abc", outputs);
+        long lastModified = jar.lastModified();
+        write(jar, 99);
+        jar.setLastModified(lastModified);
+        assertEquals(jar + " was changed", Fingerprint.findChangedOutput(fingerprintFile, outputs));
+
+        jar.delete();
+        assertEquals(jar + " is missing", Fingerprint.findChangedOutput(fingerprintFile, outputs));
+    }
+
+    @Test
+    public void rebuildsAfterFingerprintsWithoutOutputs() throws IOException {
+        // as written by earlier versions
+        write(fingerprintFile, "abc\n");
+
+        assertEquals("abc", Fingerprint.read(fingerprintFile));
+        assertEquals(plist + " was not recorded", Fingerprint.findChangedOutput(fingerprintFile, outputs));
+    }
+
+    @Test
+    public void dropsTheDigestsOfFilesNoLongerUsed() throws IOException {
+        File cacheFile = new File(folder.getRoot(), "state/fingerprint.cache");
+        File old = write(new File(folder.getRoot(), "repository/lib-1.0.jar"), "old");
+        File current = write(new File(folder.getRoot(), "repository/lib-1.1.jar"), "new");
+
+        SyncState cache = SyncState.load(cacheFile);
+        Fingerprint first = new Fingerprint(cache);
+        first.addFile("dependency.file", old);
+        first.pruneCache();
+        cache.store(cacheFile);
+
+        cache = SyncState.load(cacheFile);
+        Fingerprint second = new Fingerprint(cache);
+        second.addFile("dependency.file", current);
+        second.pruneCache();
+        assertTrue(second.isCacheChanged());
+        cache.store(cacheFile);
+
+        cache = SyncState.load(cacheFile);
+        assertEquals(1, cache.paths().size());
+        assertTrue(cache.paths().contains(current.getAbsolutePath()));
+
+        // nothing to store when the same files are hashed again
+        Fingerprint third = new Fingerprint(cache);
+        third.addFile("dependency.file", current);
+        third.pruneCache();
+        assertFalse(third.isCacheChanged());
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.sync;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import sh.tak.appbundler.util.Digests;
+import sh.tak.appbundler.util.RecordedDigests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static sh.tak.appbundler.TestFiles.read;
+import static sh.tak.appbundler.TestFiles.write;
+
+public class TreeCopierTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File source;
+
+    private File target;
+
+    private File stateFile;
+
+    @Before
+    public void setUp() throws IOException {
+        source = new File(folder.getRoot(), "source");
+        target = new File(folder.getRoot(), "target");
+        stateFile = new File(folder.getRoot(), "state/jre.state");
+        write(new File(source, "lib/libjava.dylib"), "library");
+        write(new File(source, "bin/java"), "launcher");
+        write(new File(source, "man/java.1"), "manual");
+    }
+
+    @Test
+    public void leavesOutExcludedDirectories() throws IOException {
+        TreeCopier.Result result = new TreeCopier(null, Arrays.asList("man/"), stateFile).copy(source, target);
+
+        assertEquals(2, result.getCopied());
+        assertEquals(1, result.getSkippedDirectories());
+        assertEquals(0L, result.getSkippedFiles());
+        assertTrue(new File(target, "lib/libjava.dylib").isFile());
+        assertFalse(new File(target, "man").exists());
+    }
+
+    @Test
+    public void countsTheFilesOfExcludedDirectoriesOnRequest() throws IOException {
+        TreeCopier copier = new TreeCopier(null, Arrays.asList("man/"), stateFile);
+        copier.setCountSkipped(true);
+        TreeCopier.Result result = copier.copy(source, target);
+
+        assertEquals(1L, result.getSkippedFiles());
+        assertEquals(6L, result.getSkippedBytes());
+        assertEquals(1L, result.getSkipped().get("man" + File.separator + "**")[0]);
+    }
+
+    @Test
+    public void copiesSymbolicLinksAsLinks() throws IOException {
+        Files.createSymbolicLink(new File(source, "lib/libjvm.dylib").toPath(), new File("libjava.dylib").toPath());
+        Files.createSymbolicLink(new File(source, "Home").toPath(), new File("lib").toPath());
+
+        TreeCopier copier = new TreeCopier(null, null, stateFile);
+        TreeCopier.Result result = copier.copy(source, target);
+        assertEquals(5, result.getCopied());
+        assertEquals(new File("libjava.dylib").toPath(), Files.readSymbolicLink(new File(target, "lib/libjvm.dylib").toPath()));
+        assertEquals(new File("lib").toPath(), Files.readSymbolicLink(new File(target, "Home").toPath()));
+
+        result = copier.copy(source, target);
+        assertEquals(0, result.getCopied());
+        assertEquals(5, result.getUnchanged());
+    }
+
+    @Test
+    public void replacesFollowedLinksOfEarlierCopies() throws IOException {
+        // what copying with links followed left behind
+        write(new File(target, "Home/libjava.dylib"), "library");
+        Files.createSymbolicLink(new File(source, "Home").toPath(), new File("lib").toPath());
+
+        new TreeCopier(null, null, stateFile).copy(source, target);
+
+        assertTrue(Files.isSymbolicLink(new File(target, "Home").toPath()));
+        assertEquals("library", read(new File(target, "lib/libjava.dylib")));
+    }
+
+    @Test
+    public void keepsChangesMadeByTheBuildOnceRecorded() throws IOException {
+        TreeCopier copier = new TreeCopier(null, null, stateFile);
+        copier.copy(source, target);
+
+        // thinning changes the size, normalizing the modification time
+        File library = new File(target, "lib/libjava.dylib");
+        write(library, "thin");
+        library.setLastModified(315532800000L);
+        copier.recordCopies();
+
+        TreeCopier.Result result = copier.copy(source, target);
+        assertEquals(0, result.getCopied());
+        assertEquals(3, result.getUnchanged());
+        assertEquals("thin", read(library));
+    }
+
+    @Test
+    public void repairsCopiesChangedOutsideOfTheBuild() throws IOException {
+        TreeCopier copier = new TreeCopier(null, null, stateFile);
+        copier.copy(source, target);
+        copier.recordCopies();
+
+        File library = new File(target, "lib/libjava.dylib");
+        write(library, "damaged");
+        library.setLastModified(315532800000L);
+
+        TreeCopier.Result result = copier.copy(source, target);
+        assertEquals(1, result.getCopied());
+        assertEquals(2, result.getUnchanged());
+        assertEquals("library", read(library));
+    }
+
+    @Test
+    public void recordsDigestsWhileCopying() throws IOException {
+        TreeCopier copier = new TreeCopier(null, null, stateFile);
+        RecordedDigests digests = new RecordedDigests();
+        copier.setRecordedDigests(digests);
+        new File(source, "bin/java").setExecutable(true, false);
+        copier.copy(source, target);
+
+        File library = new File(target, "lib/libjava.dylib");
+        assertEquals(Digests.sha256(library), digests.get(library));
+        assertTrue(new File(target, "bin/java").canExecute());
+
+        // an unchanged copy keeps its digest, even with another modification time
+        library.setLastModified(315532800000L);
+        copier.recordCopies();
+        RecordedDigests next = new RecordedDigests();
+        copier.setRecordedDigests(next);
+        assertEquals(0, copier.copy(source, target).getCopied());
+        assertEquals(Digests.sha256(library), next.get(library));
+    }
+
+    @Test
+    public void recordsNoDigestsOfThinnedCopies() throws IOException {
+        TreeCopier copier = new TreeCopier(null, null, stateFile);
+        copier.setRecordedDigests(new RecordedDigests());
+        copier.copy(source, target);
+
+        File library = new File(target, "lib/libjava.dylib");
+        write(library, "thin");
+        copier.recordCopies();
+
+        RecordedDigests next = new RecordedDigests();
+        copier.setRecordedDigests(next);
+        assertEquals(0, copier.copy(source, target).getCopied());
+        assertNull(next.get(library));
+    }
+
+    @Test
+    public void copiesChangedSourcesAgain() throws IOException {
+        TreeCopier copier = new TreeCopier(null, null, stateFile);
+        copier.copy(source, target);
+
+        File library = new File(source, "lib/libjava.dylib");
+        write(library, "new library");
+
+        TreeCopier.Result result = copier.copy(source, target);
+        assertEquals(1, result.getCopied());
+        assertEquals(2, result.getUnchanged());
+        assertEquals("new library", read(new File(target, "lib/libjava.dylib")));
+    }
+
+    @Test
+    public void copiesMissingFilesAgain() throws IOException {
+        TreeCopier copier = new TreeCopier(null, null, stateFile);
+        copier.copy(source, target);
+        new File(target, "bin/java").delete();
+
+        TreeCopier.Result result = copier.copy(source, target);
+        assertEquals(1, result.getCopied());
+        assertEquals("launcher", read(new File(target, "bin/java")));
+    }
+
+    @Test
+    public void copiesEverythingFromAnotherSource() throws IOException {
+        new TreeCopier(null, null, stateFile).copy(source, target);
+
+        File other = new File(folder.getRoot(), "other");
+        FileUtils.copyDirectoryStructure(source, other);
+        for (String path : Arrays.asList("lib/libjava.dylib", "bin/java", "man/java.1")) {
+            new File(other, path).setLastModified(new File(source, path).lastModified());
+        }
+
+        TreeCopier.Result result = new TreeCopier(null, null, stateFile).copy(other, target);
+        assertEquals(3, result.getCopied());
+    }
+
+    @Test
+    public void removesWhatIsNoLongerCopied() throws IOException {
+        new TreeCopier(null, null, stateFile).copy(source, target);
+
+        TreeCopier.Result result = new TreeCopier(null, Arrays.asList("man/**"), stateFile).copy(source, target);
+        assertEquals(1, result.getRemoved());
+        assertFalse(new File(target, "man").exists());
+        assertEquals(2, result.getUnchanged());
+    }
+
+    @Test
+    public void copiesEverythingAgainWhenTheTransformationChanges() throws IOException {
+        TreeCopier copier = new TreeCopier(null, null, stateFile);
+        copier.setTransformation("thin [arm64]");
+        copier.copy(source, target);
+        assertEquals(3, copier.copy(source, target).getUnchanged());
+
+        copier.setTransformation("thin [x86_64]");
+        assertEquals(3, copier.copy(source, target).getCopied());
+    }
+
+    @Test
+    public void comparesWithTheCopiesWithoutStateFile() throws IOException {
+        TreeCopier copier = new TreeCopier(null, null);
+        copier.copy(source, target);
+        assertEquals(3, copier.copy(source, target).getUnchanged());
+
+        new File(target, "bin/java").setLastModified(315532800000L);
+        assertEquals(1, copier.copy(source, target).getCopied());
+    }
+}
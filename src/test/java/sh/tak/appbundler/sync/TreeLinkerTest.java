@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.sync;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static sh.tak.appbundler.TestFiles.read;
+import static sh.tak.appbundler.TestFiles.write;
+
+public class TreeLinkerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File source;
+
+    private File target;
+
+    private Set<String> excluded;
+
+    @Before
+    public void setUp() throws IOException {
+        source = new File(folder.getRoot(), "source");
+        target = new File(folder.getRoot(), "target");
+        excluded = Collections.singleton("Info.plist");
+
+        write(new File(source, "a.txt"), "a");
+        write(new File(source, "dir/b.txt"), "b");
+        write(new File(source, "Info.plist"), "main");
+        TreeLinker.mirror(source.toPath(), target.toPath(), excluded);
+        write(new File(target, "Info.plist"), "variant");
+    }
+
+    @Test
+    public void linksEverythingButTheExcludedPaths() throws IOException {
+        assertTrue(Files.isSameFile(new File(source, "a.txt").toPath(), new File(target, "a.txt").toPath()));
+        assertTrue(Files.isSameFile(new File(source, "dir/b.txt").toPath(), new File(target, "dir/b.txt").toPath()));
+
+        new File(source, "a.txt").delete();
+        assertEquals(0, TreeLinker.mirror(source.toPath(), target.toPath(), excluded));
+        assertFalse(new File(target, "a.txt").exists());
+        assertEquals("variant", read(new File(target, "Info.plist")));
+    }
+
+    @Test
+    public void updatesOnlyTheGivenPaths() throws IOException {
+        // replaced like the build replaces copies, so the links go stale
+        replace(new File(source, "a.txt"), "a2");
+        replace(new File(source, "dir/b.txt"), "b2");
+
+        assertEquals(1, TreeLinker.mirror(source.toPath(), target.toPath(), excluded, Arrays.asList("a.txt", "Info.plist")));
+        assertEquals("a2", read(new File(target, "a.txt")));
+        assertEquals("b", read(new File(target, "dir/b.txt")));
+        assertEquals("variant", read(new File(target, "Info.plist")));
+    }
+
+    @Test
+    public void linksNewDirectoriesAndRemovesVanishedPaths() throws IOException {
+        write(new File(source, "new/deep/c.txt"), "c");
+        new File(source, "dir/b.txt").delete();
+        new File(source, "dir").delete();
+
+        assertEquals(1, TreeLinker.mirror(source.toPath(), target.toPath(), excluded, Arrays.asList("new", "dir")));
+        assertEquals("c", read(new File(target, "new/deep/c.txt")));
+        assertFalse(new File(target, "dir").exists());
+        assertTrue(new File(target, "a.txt").isFile());
+    }
+
+    @Test
+    public void replacesAFileByADirectory() throws IOException {
+        new File(source, "a.txt").delete();
+        write(new File(source, "a.txt/inner.txt"), "inner");
+
+        TreeLinker.mirror(source.toPath(), target.toPath(), excluded, Arrays.asList("a.txt"));
+        assertEquals("inner", read(new File(target, "a.txt/inner.txt")));
+    }
+
+    private static void replace(File file, String content) throws IOException {
+        file.delete();
+        write(file, content);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.apache.commons.lang.SystemUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import sh.tak.appbundler.sync.TreeNormalizer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static sh.tak.appbundler.TestFiles.write;
+
+public class DiskImageCreatorTest {
+
+    /**
+     * 2020-01-01T00:00:00Z
+     */
+    private static final long TIMESTAMP = 1577836800000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void createsTheSameImageTwice() throws IOException, InterruptedException {
+        assumeTrue(SystemUtils.IS_OS_LINUX && isOnPath("genisoimage"));
+
+        File first = build("first.dmg");
+        // everything the clock reaches, like change times, differs in the second build
+        Thread.sleep(1100);
+        File second = build("second.dmg");
+
+        assertTrue(first.length() > 0);
+        assertArrayEquals(Files.readAllBytes(first.toPath()), Files.readAllBytes(second.toPath()));
+    }
+
+    /**
+     * Writes and normalizes a bundle like a reproducible build and creates
+     * the image of it.
+     */
+    private File build(String name) throws IOException {
+        File source = new File(folder.getRoot(), "source");
+        FileUtils.deleteDirectory(source);
+        write(new File(source, "Demo.app/Contents/Info.plist"), "<plist/>");
+        write(new File(source, "Demo.app/Contents/Java/app.jar"), 5000);
+        File launcher = write(new File(source, "Demo.app/Contents/MacOS/JavaAppLauncher"), "launcher");
+        launcher.setExecutable(true, false);
+        TreeNormalizer.normalize(source.toPath(), TIMESTAMP);
+
+        DiskImageCreator creator = new DiskImageCreator(new SystemStreamLog());
+        creator.setReproducibleTimestamp(TIMESTAMP);
+        File image = new File(folder.getRoot(), name);
+        assertTrue(creator.create(source, "Demo", image));
+        return image;
+    }
+
+    private static boolean isOnPath(String executable) {
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return false;
+        }
+        for (String directory : path.split(File.pathSeparator)) {
+            if (new File(directory, executable).canExecute()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
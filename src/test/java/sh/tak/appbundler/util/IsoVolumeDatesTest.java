@@ -0,0 +1,286 @@
+/*
+ * Copyright 2014, Takashi AOKI, John Vasquez, Wolfgang Fahl, and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sh.tak.appbundler.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IsoVolumeDatesTest {
+
+    private static final int SECTOR = 2048;
+
+    private static final int[] DATES = {813, 830, 847, 864};
+
+    /**
+     * 2020-01-01T00:00:00Z
+     */
+    private static final long TIMESTAMP = 1577836800000L;
+
+    /**
+     * 2024-06-15T12:30:45+02:00 as stored in directory records.
+     */
+    private static final byte[] OLD_RECORD_DATE = {124, 6, 15, 12, 30, 45, 8};
+
+    private static final byte[] NEW_RECORD_DATE = {120, 1, 1, 0, 0, 0, 0};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File image;
+
+    @Before
+    public void setUp() throws IOException {
+        image = folder.newFile("volume.iso");
+    }
+
+    @Test
+    public void setsTheDatesOfPrimaryAndSupplementaryDescriptors() throws IOException {
+        byte[] primary = descriptor(1, "2024061512304599", "2024061512304599", null, "2024061512304599");
+        byte[] supplementary = descriptor(2, "2024061512304599", "2024061512304599", null, null);
+        byte[] boot = descriptor(0, "2024061512304599", null, null, null);
+        writeImage(primary, boot, supplementary, descriptor(255, null, null, null, null));
+
+        assertEquals(2, IsoVolumeDates.set(image, TIMESTAMP));
+
+        byte[] expected = date("2020010100000000", 0);
+        byte[] unset = date("0000000000000000", 0);
+        byte[] written = readSector(16);
+        assertArrayEquals(expected, range(written, DATES[0]));
+        assertArrayEquals(expected, range(written, DATES[1]));
+        assertArrayEquals(unset, range(written, DATES[2]));
+        assertArrayEquals(expected, range(written, DATES[3]));
+
+        written = readSector(18);
+        assertArrayEquals(expected, range(written, DATES[0]));
+        assertArrayEquals(expected, range(written, DATES[1]));
+        assertArrayEquals(unset, range(written, DATES[2]));
+        assertArrayEquals(unset, range(written, DATES[3]));
+
+        // only the volume dates are touched
+        assertArrayEquals(boot, readSector(17));
+        primary = Arrays.copyOf(primary, SECTOR);
+        for (int offset : DATES) {
+            System.arraycopy(readSector(16), offset, primary, offset, 17);
+        }
+        assertArrayEquals(primary, readSector(16));
+    }
+
+    @Test
+    public void isIdempotent() throws IOException {
+        writeImage(descriptor(1, "2024061512304599", "2024061512304599", null, null), descriptor(255, null, null, null, null));
+
+        IsoVolumeDates.set(image, TIMESTAMP);
+        byte[] first = readSector(16);
+        IsoVolumeDates.set(image, TIMESTAMP);
+        assertArrayEquals(first, readSector(16));
+    }
+
+    @Test
+    public void setsTheDatesOfEveryDirectoryRecord() throws IOException {
+        // the volume dates are left to set()
+        byte[] primary = descriptor(1, null, null, null, null);
+        System.arraycopy(record(20, SECTOR, 2, new byte[] {0}, new byte[0]), 0, primary, 156, 34);
+        writeImage(primary, descriptor(255, null, null, null, null));
+
+        ByteArrayOutputStream root = new ByteArrayOutputStream();
+        root.write(record(20, SECTOR, 2, new byte[] {0}, timestamps(0x0e, 3)));
+        root.write(record(20, SECTOR, 2, new byte[] {1}, new byte[0]));
+        root.write(record(30, 5, 0, "A.TXT;1".getBytes("US-ASCII"), concat(timestamps(0x06, 2), continuation(22, 0, 22))));
+        root.write(record(21, SECTOR, 2, "SUB".getBytes("US-ASCII"), timestamps(0x0e, 3)));
+        byte[] sub = concat(record(21, SECTOR, 2, new byte[] {0}, new byte[0]), record(20, SECTOR, 2, new byte[] {1}, new byte[0]),
+                record(31, 5, 0, "B.TXT;1".getBytes("US-ASCII"), timestamps(0x02, 1)));
+        byte[] longForm = concat(new byte[] {'T', 'F', 22, 1, (byte) 0x81}, date("2024061512304599", 8));
+        writeSector(20, root.toByteArray());
+        writeSector(21, sub);
+        writeSector(22, longForm);
+
+        assertEquals(7, IsoVolumeDates.setRecordDates(image, TIMESTAMP));
+
+        byte[] content = Files.readAllBytes(image.toPath());
+        assertEquals(-1, indexOf(content, OLD_RECORD_DATE));
+        assertEquals(-1, indexOf(content, "2024061512304599".getBytes("US-ASCII")));
+        assertArrayEquals(NEW_RECORD_DATE, Arrays.copyOfRange(readSector(16), 156 + 18, 156 + 25));
+        assertArrayEquals(date("2020010100000000", 0), Arrays.copyOfRange(readSector(22), 5, 22));
+    }
+
+    @Test
+    public void rejectsFilesThatAreNoIsoImage() throws IOException {
+        byte[] descriptor = descriptor(1, null, null, null, null);
+        descriptor[1] = 'X';
+        writeImage(descriptor);
+        try {
+            IsoVolumeDates.set(image, TIMESTAMP);
+            fail("no ISO 9660 image was accepted");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("is not an ISO 9660 image"));
+        }
+    }
+
+    @Test
+    public void rejectsImagesWithoutTerminator() throws IOException {
+        writeImage(descriptor(1, "2024061512304599", null, null, null));
+        try {
+            IsoVolumeDates.set(image, TIMESTAMP);
+            fail("an image without terminator was accepted");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("no volume descriptor set terminator"));
+        }
+    }
+
+    private static byte[] descriptor(int type, String creation, String modification, String expiration, String effective)
+            throws IOException {
+        byte[] descriptor = new byte[SECTOR];
+        descriptor[0] = (byte) type;
+        System.arraycopy("CD001".getBytes("US-ASCII"), 0, descriptor, 1, 5);
+        descriptor[6] = 1;
+        String[] dates = {creation, modification, expiration, effective};
+        for (int i = 0; i < dates.length; i++) {
+            byte[] date = dates[i] != null ? date(dates[i], 8) : date("0000000000000000", 0);
+            System.arraycopy(date, 0, descriptor, DATES[i], date.length);
+        }
+        return descriptor;
+    }
+
+    private static byte[] date(String digits, int zone) throws IOException {
+        byte[] date = Arrays.copyOf(digits.getBytes("US-ASCII"), 17);
+        date[16] = (byte) zone;
+        return date;
+    }
+
+    /**
+     * A directory record with the date {@link #OLD_RECORD_DATE}.
+     */
+    private static byte[] record(int extent, int length, int flags, byte[] name, byte[] systemUse) {
+        int size = 33 + name.length + (name.length % 2 == 0 ? 1 : 0) + systemUse.length;
+        byte[] record = new byte[size + size % 2];
+        record[0] = (byte) record.length;
+        writeBothEndian(record, 2, extent);
+        writeBothEndian(record, 10, length);
+        System.arraycopy(OLD_RECORD_DATE, 0, record, 18, OLD_RECORD_DATE.length);
+        record[25] = (byte) flags;
+        record[32] = (byte) name.length;
+        System.arraycopy(name, 0, record, 33, name.length);
+        System.arraycopy(systemUse, 0, record, size - systemUse.length, systemUse.length);
+        return record;
+    }
+
+    /**
+     * A Rock Ridge <code>TF</code> entry with short timestamps.
+     */
+    private static byte[] timestamps(int flags, int count) {
+        byte[] entry = new byte[5 + 7 * count];
+        entry[0] = 'T';
+        entry[1] = 'F';
+        entry[2] = (byte) entry.length;
+        entry[3] = 1;
+        entry[4] = (byte) flags;
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(OLD_RECORD_DATE, 0, entry, 5 + 7 * i, 7);
+        }
+        return entry;
+    }
+
+    /**
+     * A SUSP <code>CE</code> entry.
+     */
+    private static byte[] continuation(int block, int offset, int length) {
+        byte[] entry = new byte[28];
+        entry[0] = 'C';
+        entry[1] = 'E';
+        entry[2] = 28;
+        entry[3] = 1;
+        writeBothEndian(entry, 4, block);
+        writeBothEndian(entry, 12, offset);
+        writeBothEndian(entry, 20, length);
+        return entry;
+    }
+
+    private static void writeBothEndian(byte[] bytes, int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            bytes[offset + i] = (byte) (value >>> (8 * i));
+            bytes[offset + 7 - i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private static byte[] concat(byte[]... parts) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part);
+        }
+        return out.toByteArray();
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern) {
+        for (int i = 0; i + pattern.length <= bytes.length; i++) {
+            if (Arrays.equals(pattern, Arrays.copyOfRange(bytes, i, i + pattern.length))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void writeSector(int sector, byte[] content) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(image, "rw");
+        try {
+            file.seek((long) sector * SECTOR);
+            file.write(Arrays.copyOf(content, SECTOR));
+        } finally {
+            file.close();
+        }
+    }
+
+    private void writeImage(byte[]... descriptors) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(image, "rw");
+        try {
+            file.setLength(0);
+            file.seek(16 * SECTOR);
+            for (byte[] descriptor : descriptors) {
+                file.write(descriptor);
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private byte[] readSector(int sector) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(image, "r");
+        try {
+            byte[] bytes = new byte[SECTOR];
+            file.seek((long) sector * SECTOR);
+            file.readFully(bytes);
+            return bytes;
+        } finally {
+            file.close();
+        }
+    }
+
+    private static byte[] range(byte[] bytes, int offset) {
+        return Arrays.copyOfRange(bytes, offset, offset + 17);
+    }
+}